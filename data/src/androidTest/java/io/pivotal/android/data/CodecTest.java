@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+public class CodecTest extends AndroidTestCase {
+
+    public void testJsonRoundTrip() throws Exception {
+        final Codec<Item> codec = Codec.Json.of(Item.class);
+        final Item item = new Item();
+        item.name = "name";
+        item.count = 3;
+
+        final Item decoded = codec.decode(codec.encode(item));
+
+        assertEquals("name", decoded.name);
+        assertEquals(3, decoded.count);
+    }
+
+    public void testJsonCodecIsSharedPerClass() {
+        assertSame(Codec.Json.of(Item.class), Codec.Json.of(Item.class));
+    }
+
+    public void testJsonDecodeFailsForInvalidValue() {
+        try {
+            Codec.Json.of(Item.class).decode("not json");
+            fail();
+        } catch (final Exception e) {
+            assertNotNull(e);
+        }
+    }
+
+
+    // ==============================================================
+
+
+    public static class Item {
+        public String name;
+        public int count;
+    }
+}
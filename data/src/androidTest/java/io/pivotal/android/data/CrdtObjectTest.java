@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import org.mockito.Mockito;
+
+import java.util.Properties;
+import java.util.UUID;
+
+public class CrdtObjectTest extends AndroidTestCase {
+
+    private static final String COLLECTION = UUID.randomUUID().toString();
+    private static final String KEY = UUID.randomUUID().toString();
+    private static final String REPLICA = UUID.randomUUID().toString();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+
+        final Properties properties = new Properties();
+        properties.setProperty("pivotal.data.collisionStrategy", "OptimisticLocking");
+        Pivotal.setProperties(properties);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+
+        Pivotal.setProperties(null);
+    }
+
+    public void testGetReturnsEmptyStateForMissingValue() {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final CrdtObject<Crdt.PNCounter> object = new CrdtObject<Crdt.PNCounter>(keyValueObject, Crdt.PNCounter.class, REPLICA);
+
+        Mockito.when(keyValueObject.get()).thenReturn(new Response<KeyValue>(new KeyValue(COLLECTION, KEY, "")));
+
+        final Response<Crdt.PNCounter> response = object.get();
+
+        assertTrue(response.isSuccess());
+        assertEquals(0, response.object.getValue());
+    }
+
+    public void testUpdateAppliesMutationAndWritesState() throws Exception {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final CrdtObject<Crdt.PNCounter> object = new CrdtObject<Crdt.PNCounter>(keyValueObject, Crdt.PNCounter.class, REPLICA);
+        final String current = new Crdt.PNCounter().increment("other", 2).encode();
+        final String updated = new Crdt.PNCounter().increment("other", 2).increment(REPLICA, 3).encode();
+
+        Mockito.when(keyValueObject.get()).thenReturn(new Response<KeyValue>(new KeyValue(COLLECTION, KEY, current)));
+        Mockito.when(keyValueObject.put(updated)).thenReturn(new Response<KeyValue>(new KeyValue(COLLECTION, KEY, updated)));
+
+        final Response<Crdt.PNCounter> response = object.update(CrdtObject.increment(3));
+
+        assertEquals(5, response.object.getValue());
+        Mockito.verify(keyValueObject).put(updated);
+    }
+
+    public void testUpdateFailsForOtherValues() {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final CrdtObject<Crdt.PNCounter> object = new CrdtObject<Crdt.PNCounter>(keyValueObject, Crdt.PNCounter.class, REPLICA);
+
+        Mockito.when(keyValueObject.get()).thenReturn(new Response<KeyValue>(new KeyValue(COLLECTION, KEY, "plain")));
+
+        assertTrue(object.update(CrdtObject.increment(1)).isFailure());
+        Mockito.verify(keyValueObject, Mockito.never()).put(Mockito.anyString());
+    }
+
+    public void testUpdateFailsWithoutEtags() {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final CrdtObject<Crdt.PNCounter> object = new CrdtObject<Crdt.PNCounter>(keyValueObject, Crdt.PNCounter.class, REPLICA);
+
+        Pivotal.setProperties(new Properties());
+
+        final Response<Crdt.PNCounter> response = object.update(CrdtObject.increment(1));
+
+        assertTrue(response.isFailure());
+        assertTrue(response.error.getCause() instanceof IllegalStateException);
+        Mockito.verifyZeroInteractions(keyValueObject);
+    }
+
+    public void testReplicaIdIsStable() {
+        final String replicaId = CrdtObject.getReplicaId(mContext);
+
+        assertNotNull(replicaId);
+        assertEquals(replicaId, CrdtObject.getReplicaId(mContext));
+    }
+}
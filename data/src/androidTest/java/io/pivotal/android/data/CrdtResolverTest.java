@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import org.mockito.Mockito;
+
+import java.util.UUID;
+
+@SuppressWarnings("unchecked")
+public class CrdtResolverTest extends AndroidTestCase {
+
+    private static final String COLLECTION = UUID.randomUUID().toString();
+    private static final String KEY = UUID.randomUUID().toString();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+    }
+
+    public void testMergesLocalAndRemoteCopies() throws Exception {
+        final CrdtResolver resolver = new CrdtResolver(null);
+        final KeyValue local = counter(new Crdt.PNCounter().increment("a", 2));
+        final KeyValue remote = counter(new Crdt.PNCounter().increment("b", 5));
+
+        final KeyValue merged = resolver.merge(null, local, remote);
+
+        assertEquals(KEY, merged.key);
+        assertEquals(7, ((Crdt.PNCounter) Crdt.decode(merged.value)).getValue());
+    }
+
+    public void testKeepsLocalCopyWhenRemoteIsMissing() throws Exception {
+        final CrdtResolver resolver = new CrdtResolver(null);
+        final KeyValue local = counter(new Crdt.PNCounter().increment("a", 2));
+
+        assertEquals(local, resolver.merge(null, local, null));
+        assertEquals(local, resolver.merge(null, local, new KeyValue(COLLECTION, KEY, "")));
+    }
+
+    public void testDelegatesOtherValues() {
+        final OfflineStore.ConflictResolver delegate = Mockito.mock(OfflineStore.ConflictResolver.class);
+        final CrdtResolver resolver = new CrdtResolver(delegate);
+        final KeyValue base = new KeyValue(COLLECTION, KEY, "base");
+        final KeyValue local = new KeyValue(COLLECTION, KEY, "local");
+        final KeyValue remote = new KeyValue(COLLECTION, KEY, "remote");
+        final KeyValue merged = new KeyValue(COLLECTION, KEY, "merged");
+
+        Mockito.when(delegate.merge(base, local, remote)).thenReturn(merged);
+
+        assertEquals(merged, resolver.merge(base, local, remote));
+    }
+
+    public void testGivesUpOnOtherValuesWithoutDelegate() throws Exception {
+        final CrdtResolver resolver = new CrdtResolver(null);
+        final KeyValue local = counter(new Crdt.PNCounter().increment("a", 2));
+
+        assertNull(resolver.merge(null, local, new KeyValue(COLLECTION, KEY, "plain")));
+        assertNull(resolver.merge(null, new KeyValue(COLLECTION, KEY, "plain"), local));
+    }
+
+    public void testOfflineStoreResolvesConflictsOnlyForCrdtPuts() throws Exception {
+        final KeyValueOfflineStore offlineStore = new KeyValueOfflineStore(mContext, null, null);
+        final KeyValue counter = counter(new Crdt.PNCounter());
+
+        assertTrue(offlineStore.canResolveConflict(new Request.Put<KeyValue>(counter, false)));
+        assertFalse(offlineStore.canResolveConflict(new Request.Delete<KeyValue>(counter, false)));
+        assertFalse(offlineStore.canResolveConflict(new Request.Put<KeyValue>(new KeyValue(COLLECTION, KEY, "plain"), false)));
+    }
+
+    private static KeyValue counter(final Crdt.PNCounter counter) throws Exception {
+        return new KeyValue(COLLECTION, KEY, counter.encode());
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+public class CrdtTest extends AndroidTestCase {
+
+    public void testGCounterMergeTakesMaxPerReplica() {
+        final Crdt.GCounter a = new Crdt.GCounter().increment("a", 2).increment("b", 1);
+        final Crdt.GCounter b = new Crdt.GCounter().increment("b", 3);
+
+        assertEquals(5, a.merge(b).getValue());
+        assertEquals(5, b.merge(a).getValue());
+        assertEquals(5, a.merge(b).merge(b).getValue());
+    }
+
+    public void testPNCounterKeepsConcurrentIncrements() {
+        final Crdt.PNCounter base = new Crdt.PNCounter().increment("a", 10);
+        final Crdt.PNCounter a = base.merge(new Crdt.PNCounter()).increment("a", 1);
+        final Crdt.PNCounter b = base.merge(new Crdt.PNCounter()).increment("b", -3);
+
+        assertEquals(8, a.merge(b).getValue());
+        assertEquals(8, b.merge(a).getValue());
+    }
+
+    public void testORSetAddWinsOverConcurrentRemove() {
+        final Crdt.ORSet base = new Crdt.ORSet().add("x", "t1");
+        final Crdt.ORSet a = base.merge(new Crdt.ORSet()).remove("x");
+        final Crdt.ORSet b = base.merge(new Crdt.ORSet()).add("x", "t2").add("y", "t3");
+
+        assertEquals(new TreeSet<String>(Arrays.asList("x", "y")), a.merge(b).getValue());
+        assertEquals(a.merge(b).getValue(), b.merge(a).getValue());
+    }
+
+    public void testORSetRemoveOfObservedElement() {
+        final Crdt.ORSet base = new Crdt.ORSet().add("x", "t1");
+        final Crdt.ORSet a = base.merge(new Crdt.ORSet()).remove("x");
+
+        assertFalse(a.merge(base).contains("x"));
+        assertFalse(base.merge(a).contains("x"));
+    }
+
+    public void testLwwRegisterLatestWins() {
+        final Crdt.LwwRegister a = new Crdt.LwwRegister().set("a", 2, "r1");
+        final Crdt.LwwRegister b = new Crdt.LwwRegister().set("b", 1, "r2");
+        final Crdt.LwwRegister c = new Crdt.LwwRegister().set("c", 2, "r2");
+
+        assertEquals("a", a.merge(b).getValue());
+        assertEquals("a", b.merge(a).getValue());
+        assertEquals("c", a.merge(c).getValue());
+        assertEquals("c", c.merge(a).getValue());
+    }
+
+    public void testEncodeAndDecode() throws Exception {
+        final Crdt.PNCounter counter = new Crdt.PNCounter().increment("a", 4).increment("b", -1);
+
+        final Crdt<?> decoded = Crdt.decode(counter.encode());
+
+        assertTrue(decoded instanceof Crdt.PNCounter);
+        assertEquals(3, ((Crdt.PNCounter) decoded).getValue());
+    }
+
+    public void testDecodeReturnsNullForOtherValues() {
+        assertNull(Crdt.decode(null));
+        assertNull(Crdt.decode("plain"));
+        assertNull(Crdt.decode("{\"@type\":\"Unknown\"}"));
+    }
+
+    public void testMergeRejectsDifferentTypes() {
+        assertNull(Crdt.merge(new Crdt.GCounter(), new Crdt.PNCounter()));
+    }
+}
@@ -5,6 +5,8 @@ package io.pivotal.android.data;
 
 import android.test.AndroidTestCase;
 
+import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.util.Random;
 import java.util.UUID;
 
@@ -65,4 +67,17 @@ public class DataErrorTest extends AndroidTestCase {
 
         assertTrue(error.hasPreconditionFailed());
     }
-}
\ No newline at end of file
+
+    public void testIsTransient() {
+        assertTrue(new DataError(new IOException()).isTransient());
+        assertTrue(new DataError(new SocketTimeoutException()).isTransient());
+        assertFalse(new DataError(new Exception()).isTransient());
+        assertFalse(new DataError(new IllegalArgumentException()).isTransient());
+        assertFalse(new DataError(new DataHttpException(-1, MESSAGE)).isTransient());
+        assertTrue(new DataError(new DataHttpException(408, MESSAGE)).isTransient());
+        assertTrue(new DataError(new DataHttpException(429, MESSAGE)).isTransient());
+        assertTrue(new DataError(new DataHttpException(503, MESSAGE)).isTransient());
+        assertFalse(new DataError(new DataHttpException(400, MESSAGE)).isTransient());
+        assertFalse(new DataError(new DataHttpException(412, MESSAGE)).isTransient());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import org.mockito.Mockito;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+@SuppressWarnings("unchecked")
+public class DataExecutorsTest extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+    }
+
+    public void testExecuteRunsRequestOnWorkerAndListenerOnCallbackExecutor() {
+        final Executor worker = Mockito.spy(new ImmediateExecutor());
+        final Executor callback = Mockito.spy(new ImmediateExecutor());
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataStore.Listener listener = Mockito.mock(DataStore.Listener.class);
+        final Request request = Mockito.mock(Request.class);
+        final Response response = Mockito.mock(Response.class);
+        final DataExecutors executors = new DataExecutors(worker, worker, callback);
+
+        Mockito.when(dataStore.execute(request)).thenReturn(response);
+
+        executors.execute(worker, dataStore, request, listener);
+
+        Mockito.verify(worker).execute(Mockito.any(Runnable.class));
+        Mockito.verify(callback).execute(Mockito.any(Runnable.class));
+        Mockito.verify(dataStore).execute(request);
+        Mockito.verify(listener).onResponse(response);
+    }
+
+    public void testExecuteWithoutListenerSkipsCallbackExecutor() {
+        final Executor callback = Mockito.spy(new ImmediateExecutor());
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final Request request = Mockito.mock(Request.class);
+        final DataExecutors executors = new DataExecutors(DataExecutors.IMMEDIATE, DataExecutors.IMMEDIATE, callback);
+
+        executors.execute(DataExecutors.IMMEDIATE, dataStore, request, null);
+
+        Mockito.verify(dataStore).execute(request);
+        Mockito.verify(callback, Mockito.never()).execute(Mockito.any(Runnable.class));
+    }
+
+    public void testBackgroundExecutorRunsOnNamedThread() throws Exception {
+        final Executor executor = DataExecutors.newBackgroundExecutor("Test", 1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final String[] name = new String[1];
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                name[0] = Thread.currentThread().getName();
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertEquals("Test-1", name[0]);
+    }
+
+    public void testRegisterReplacesInstance() {
+        final DataExecutors original = DataExecutors.getInstance();
+        final DataExecutors executors = new DataExecutors(DataExecutors.IMMEDIATE, DataExecutors.IMMEDIATE, DataExecutors.IMMEDIATE);
+
+        Data.registerExecutors(executors);
+
+        assertEquals(executors, DataExecutors.getInstance());
+
+        Data.registerExecutors(original);
+    }
+
+
+    // ==============================================================
+
+
+    public static class ImmediateExecutor implements Executor {
+
+        @Override
+        public void execute(final Runnable runnable) {
+            runnable.run();
+        }
+    }
+}
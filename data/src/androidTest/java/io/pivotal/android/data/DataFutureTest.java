@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mockito;
+
+@SuppressWarnings("unchecked")
+public class DataFutureTest extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+    }
+
+    public void testRunDeliversResponseToListener() throws Exception {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataStore.Listener listener = Mockito.mock(DataStore.Listener.class);
+        final Request request = new Request();
+        final Response response = new Response(new Object(), null);
+        final DataFuture future = new DataFuture(dataStore, request, listener, DataExecutors.IMMEDIATE);
+
+        Mockito.when(dataStore.execute(request)).thenReturn(response);
+
+        future.run();
+
+        assertEquals(response, future.get());
+        Mockito.verify(listener).onResponse(response);
+    }
+
+    public void testRunDeliversFailureWhenStoreThrows() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataStore.Listener listener = Mockito.mock(DataStore.Listener.class);
+        final Request request = new Request();
+        final DataFuture future = new DataFuture(dataStore, request, listener, DataExecutors.IMMEDIATE);
+
+        Mockito.when(dataStore.execute(request)).thenThrow(new IllegalStateException());
+
+        future.run();
+
+        Mockito.verify(listener).onResponse(Mockito.argThat(new FailureMatcher()));
+    }
+
+    public void testCurrentIsSetWhileRunning() {
+        final DataFuture[] current = new DataFuture[1];
+        final DataStore dataStore = new DataStoreAdapter() {
+            @Override
+            public Response execute(final Request request) {
+                current[0] = DataFuture.current();
+                return null;
+            }
+        };
+        final DataFuture future = new DataFuture(dataStore, new Request(), null, DataExecutors.IMMEDIATE);
+
+        future.run();
+
+        assertEquals(future, current[0]);
+        assertNull(DataFuture.current());
+    }
+
+    public void testCancelAbortsAndSkipsListener() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataStore.Listener listener = Mockito.mock(DataStore.Listener.class);
+        final Runnable abort = Mockito.mock(Runnable.class);
+        final DataFuture future = new DataFuture(dataStore, new Request(), listener, DataExecutors.IMMEDIATE);
+
+        future.setAbortAction(abort);
+
+        assertTrue(future.cancel(true));
+
+        future.run();
+
+        Mockito.verify(abort).run();
+        Mockito.verify(dataStore, Mockito.never()).execute(Mockito.any(Request.class));
+        Mockito.verify(listener, Mockito.never()).onResponse(Mockito.any(Response.class));
+    }
+
+    public void testExpireAbortsWithoutCancelling() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final Runnable abort = Mockito.mock(Runnable.class);
+        final DataFuture future = new DataFuture(dataStore, new Request(), null, DataExecutors.IMMEDIATE);
+
+        future.setAbortAction(abort);
+        future.expire();
+
+        assertTrue(future.isExpired());
+        assertFalse(future.isCancelled());
+        Mockito.verify(abort).run();
+    }
+
+    public void testSetAbortActionAfterExpiryRunsImmediately() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final Runnable abort = Mockito.mock(Runnable.class);
+        final DataFuture future = new DataFuture(dataStore, new Request(), null, DataExecutors.IMMEDIATE);
+
+        future.expire();
+        future.setAbortAction(abort);
+
+        Mockito.verify(abort).run();
+    }
+
+
+    // ==============================================================
+
+
+    public static class DataStoreAdapter implements DataStore {
+
+        @Override
+        public Response execute(final Request request) {
+            return null;
+        }
+
+        @Override
+        public DataFuture execute(final Request request, final Listener listener) {
+            return null;
+        }
+
+        @Override
+        public boolean addObserver(final Observer observer) {
+            return false;
+        }
+
+        @Override
+        public boolean removeObserver(final Observer observer) {
+            return false;
+        }
+
+        @Override
+        public boolean addObserver(final String key, final Observer observer) {
+            return false;
+        }
+
+        @Override
+        public boolean removeObserver(final String key, final Observer observer) {
+            return false;
+        }
+    }
+
+    public static class FailureMatcher extends ArgumentMatcher<Response> {
+
+        @Override
+        public boolean matches(final Object argument) {
+            return ((Response) argument).isFailure();
+        }
+    }
+}
@@ -10,6 +10,7 @@ import android.test.AndroidTestCase;
 
 import org.mockito.Mockito;
 
+import java.util.Arrays;
 import java.util.UUID;
 
 @SuppressLint("CommitPrefEdits")
@@ -92,4 +93,68 @@ public class DataPersistenceTest extends AndroidTestCase {
         Mockito.verify(context).getSharedPreferences(NAME, Context.MODE_PRIVATE);
         Mockito.verify(editor).clear();
     }
-}
\ No newline at end of file
+
+    public void testDeleteStringsCommitsOnceAndNotifiesOnce() {
+        final DataPersistence.ChangeListener listener = Mockito.mock(DataPersistence.ChangeListener.class);
+        final DataPersistence persistence = new DataPersistence(mContext, NAME);
+
+        persistence.putString("collection:a", VALUE);
+        persistence.putString("collection:b", VALUE);
+        persistence.putString(KEY, VALUE);
+        persistence.addChangeListener(listener);
+
+        persistence.deleteStrings("collection:", Arrays.asList("a", "b"));
+
+        assertEquals(EMPTY, persistence.getString("collection:a"));
+        assertEquals(EMPTY, persistence.getString("collection:b"));
+        assertEquals(VALUE, persistence.getString(KEY));
+
+        Mockito.verify(listener, Mockito.times(1)).onChange(Mockito.anyString(), Mockito.anyString());
+        Mockito.verify(listener).onChange("collection:", null);
+
+        persistence.removeChangeListener(listener);
+        persistence.clear();
+    }
+
+    public void testChangesReachListenersOfOtherInstancesInTheSameNamespace() {
+        final DataPersistence.ChangeListener listener = Mockito.mock(DataPersistence.ChangeListener.class);
+        final DataPersistence observed = new DataPersistence(mContext, NAME);
+        final DataPersistence writer = new DataPersistence(mContext, NAME);
+
+        observed.addChangeListener(listener);
+
+        writer.putString(KEY, VALUE);
+        writer.deleteString(KEY);
+
+        Mockito.verify(listener).onChange(KEY, VALUE);
+        Mockito.verify(listener).onChange(KEY, null);
+
+        observed.removeChangeListener(listener);
+    }
+
+    public void testChangesDoNotReachListenersOfOtherNamespaces() {
+        final DataPersistence.ChangeListener listener = Mockito.mock(DataPersistence.ChangeListener.class);
+        final DataPersistence observed = new DataPersistence(mContext, NAME);
+        final DataPersistence writer = new DataPersistence(mContext, UUID.randomUUID().toString());
+
+        observed.addChangeListener(listener);
+
+        writer.putString(KEY, VALUE);
+
+        Mockito.verify(listener, Mockito.never()).onChange(Mockito.anyString(), Mockito.anyString());
+
+        observed.removeChangeListener(listener);
+    }
+
+    public void testRemovedListenerIsNotNotified() {
+        final DataPersistence.ChangeListener listener = Mockito.mock(DataPersistence.ChangeListener.class);
+        final DataPersistence persistence = new DataPersistence(mContext, NAME);
+
+        persistence.addChangeListener(listener);
+        persistence.removeChangeListener(listener);
+
+        persistence.putString(KEY, VALUE);
+
+        Mockito.verify(listener, Mockito.never()).onChange(KEY, VALUE);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@SuppressWarnings("unchecked")
+public class DataPublisherTest extends AndroidTestCase {
+
+    private static final String COLLECTION = "collection";
+    private static final String KEY = "key";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+    }
+
+    public void testFirstSubscriberStartsUpstream() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataPublisher publisher = new DataPublisher(dataStore, createRequest(KEY));
+
+        publisher.subscribe(new RecordingSubscriber(1));
+
+        Mockito.verify(dataStore).addObserver(COLLECTION + ":" + KEY, publisher);
+        Mockito.verify(dataStore).execute(Mockito.isA(Request.Get.class), Mockito.any(DataStore.Listener.class));
+    }
+
+    public void testSubscribersShareUpstream() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataPublisher publisher = new DataPublisher(dataStore, createRequest(KEY));
+
+        publisher.subscribe(new RecordingSubscriber(1));
+        publisher.subscribe(new RecordingSubscriber(1));
+
+        assertEquals(2, publisher.getSubscriberCount());
+        Mockito.verify(dataStore).addObserver(COLLECTION + ":" + KEY, publisher);
+        Mockito.verify(dataStore).execute(Mockito.any(Request.class), Mockito.any(DataStore.Listener.class));
+    }
+
+    public void testLateSubscriberReceivesLatestResponse() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataPublisher publisher = new DataPublisher(dataStore, createRequest(KEY));
+        final Response response = createResponse(KEY);
+        final RecordingSubscriber subscriber = new RecordingSubscriber(1);
+
+        publisher.subscribe(new RecordingSubscriber(1));
+        publisher.onResponse(response);
+        publisher.subscribe(subscriber);
+
+        assertEquals(1, subscriber.responses.size());
+        assertEquals(response, subscriber.responses.get(0));
+    }
+
+    public void testResponsesForOtherKeysAreIgnored() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataPublisher publisher = new DataPublisher(dataStore, createRequest(KEY));
+        final RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+
+        publisher.subscribe(subscriber);
+        publisher.onResponse(createResponse("other"));
+
+        assertTrue(subscriber.responses.isEmpty());
+    }
+
+    public void testResponsesAreConflatedWithoutDemand() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataPublisher publisher = new DataPublisher(dataStore, createRequest(KEY));
+        final Response first = createResponse(KEY, "first");
+        final Response second = createResponse(KEY, "second");
+        final RecordingSubscriber subscriber = new RecordingSubscriber(0);
+
+        final DataPublisher.Subscription subscription = publisher.subscribe(subscriber);
+
+        publisher.onResponse(first);
+        publisher.onResponse(second);
+
+        assertTrue(subscriber.responses.isEmpty());
+
+        subscription.request(5);
+
+        assertEquals(1, subscriber.responses.size());
+        assertEquals(second, subscriber.responses.get(0));
+    }
+
+    public void testInitialResponseIsPublishedOnce() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataPublisher publisher = new DataPublisher(dataStore, createRequest(KEY));
+        final RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+
+        publisher.subscribe(subscriber);
+
+        getInitialListener(dataStore).onResponse(createResponse(KEY));
+        publisher.onResponse(createResponse(KEY));
+
+        assertEquals(1, subscriber.responses.size());
+    }
+
+    public void testInitialResponseIsIgnoredAfterObservedChange() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataPublisher publisher = new DataPublisher(dataStore, createRequest(KEY));
+        final Response observed = createResponse(KEY, "observed");
+        final RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+
+        publisher.subscribe(subscriber);
+
+        publisher.onResponse(observed);
+        getInitialListener(dataStore).onResponse(createResponse(KEY, "initial"));
+
+        assertEquals(1, subscriber.responses.size());
+        assertEquals(observed, subscriber.responses.get(0));
+    }
+
+    public void testSubscriberIsNotReenteredByResponsesPublishedDuringDelivery() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataPublisher publisher = new DataPublisher(dataStore, createRequest(KEY));
+        final Response first = createResponse(KEY, "first");
+        final Response second = createResponse(KEY, "second");
+        final int[] depth = new int[2];
+
+        publisher.subscribe(new RecordingSubscriber(Long.MAX_VALUE) {
+            @Override
+            public void onNext(final Response response) {
+                depth[1] = Math.max(depth[1], ++depth[0]);
+                super.onNext(response);
+                if (response == first) {
+                    publisher.onResponse(second);
+                }
+                depth[0]--;
+            }
+        });
+
+        publisher.onResponse(first);
+
+        assertEquals(1, depth[1]);
+    }
+
+    public void testLastCancelTearsDownUpstream() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataFuture future = Mockito.mock(DataFuture.class);
+        final DataPublisher publisher = new DataPublisher(dataStore, createRequest(KEY));
+
+        Mockito.when(dataStore.execute(Mockito.any(Request.class), Mockito.any(DataStore.Listener.class))).thenReturn(future);
+
+        final DataPublisher.Subscription first = publisher.subscribe(new RecordingSubscriber(1));
+        final DataPublisher.Subscription second = publisher.subscribe(new RecordingSubscriber(1));
+
+        first.cancel();
+
+        Mockito.verify(dataStore, Mockito.never()).removeObserver(COLLECTION + ":" + KEY, publisher);
+
+        second.cancel();
+
+        assertEquals(0, publisher.getSubscriberCount());
+        Mockito.verify(dataStore).removeObserver(COLLECTION + ":" + KEY, publisher);
+        Mockito.verify(future).cancel(true);
+    }
+
+    public void testCancelledSubscriberReceivesNothing() {
+        final DataStore dataStore = Mockito.mock(DataStore.class);
+        final DataPublisher publisher = new DataPublisher(dataStore, createRequest(KEY));
+        final RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+
+        publisher.subscribe(new RecordingSubscriber(1));
+        publisher.subscribe(subscriber).cancel();
+        publisher.onResponse(createResponse(KEY));
+
+        assertTrue(subscriber.responses.isEmpty());
+    }
+
+
+    // ==============================================================
+
+
+    private static Request createRequest(final String key) {
+        return new Request(Request.Methods.GET, new KeyValue(COLLECTION, key, null));
+    }
+
+    private static Response createResponse(final String key) {
+        return createResponse(key, "value");
+    }
+
+    private static Response createResponse(final String key, final String value) {
+        return new Response(new KeyValue(COLLECTION, key, value), null);
+    }
+
+    private static DataStore.Listener getInitialListener(final DataStore dataStore) {
+        final ArgumentCaptor<DataStore.Listener> captor = ArgumentCaptor.forClass(DataStore.Listener.class);
+        Mockito.verify(dataStore).execute(Mockito.any(Request.class), captor.capture());
+        return captor.getValue();
+    }
+
+    public static class RecordingSubscriber implements DataPublisher.Subscriber {
+
+        public final List<Response> responses = new ArrayList<Response>();
+
+        private final long mInitialDemand;
+
+        public RecordingSubscriber(final long initialDemand) {
+            mInitialDemand = initialDemand;
+        }
+
+        @Override
+        public void onSubscribe(final DataPublisher.Subscription subscription) {
+            subscription.request(mInitialDemand);
+        }
+
+        @Override
+        public void onNext(final Response response) {
+            responses.add(response);
+        }
+    }
+}
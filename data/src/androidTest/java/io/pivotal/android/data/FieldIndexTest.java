@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+public class FieldIndexTest extends AndroidTestCase {
+
+    private static final String COLLECTION = UUID.randomUUID().toString();
+
+    private DataPersistence mPersistence;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+        mPersistence = new DataPersistence(mContext, UUID.randomUUID().toString());
+    }
+
+    public void testAddIndexBackfillsExistingValues() {
+        put("a", "open", 2);
+        put("b", "closed", 1);
+
+        final FieldIndex index = new FieldIndex(mPersistence);
+
+        assertTrue(index.addIndex(COLLECTION, "status"));
+        assertFalse(index.addIndex(COLLECTION, "status"));
+        assertEquals(Arrays.asList("a"), index.query(COLLECTION, new Query().whereEqualTo("status", "open")));
+    }
+
+    public void testWritesUpdateIndex() {
+        final FieldIndex index = new FieldIndex(mPersistence);
+        index.addIndex(COLLECTION, "status");
+
+        put("a", "open", 1);
+        put("b", "open", 2);
+        put("a", "closed", 1);
+        mPersistence.deleteString(COLLECTION + ":b");
+
+        assertTrue(index.query(COLLECTION, new Query().whereEqualTo("status", "open")).isEmpty());
+        assertEquals(Arrays.asList("a"), index.query(COLLECTION, new Query().whereEqualTo("status", "closed")));
+    }
+
+    public void testQueryFiltersAndOrders() {
+        final FieldIndex index = new FieldIndex(mPersistence);
+        index.addIndex(COLLECTION, "status");
+        index.addIndex(COLLECTION, "updatedAt");
+
+        put("a", "open", 3);
+        put("b", "closed", 2);
+        put("c", "open", 1);
+        put("d", "open", 4);
+
+        final Query ascending = new Query().whereEqualTo("status", "open").orderBy("updatedAt");
+        final Query descending = new Query().whereEqualTo("status", "open").orderBy("updatedAt", true).limit(2);
+
+        assertEquals(Arrays.asList("c", "a", "d"), index.query(COLLECTION, ascending));
+        assertEquals(Arrays.asList("d", "a"), index.query(COLLECTION, descending));
+    }
+
+    public void testQueryRange() {
+        final FieldIndex index = new FieldIndex(mPersistence);
+        index.addIndex(COLLECTION, "updatedAt");
+
+        put("a", "open", 1);
+        put("b", "open", 2);
+        put("c", "open", 3);
+
+        final Query query = new Query().whereGreaterThan("updatedAt", 1).whereLessThanOrEqualTo("updatedAt", 3);
+
+        assertEquals(Arrays.asList("b", "c"), index.query(COLLECTION, query));
+    }
+
+    public void testOpenRangesStayWithinTheirType() {
+        final FieldIndex index = new FieldIndex(mPersistence);
+        index.addIndex(COLLECTION, "value");
+        index.addIndex(COLLECTION, "kind");
+
+        mPersistence.putString(COLLECTION + ":flag", "{\"kind\":\"x\",\"value\":true}");
+        mPersistence.putString(COLLECTION + ":low", "{\"kind\":\"x\",\"value\":1}");
+        mPersistence.putString(COLLECTION + ":high", "{\"kind\":\"x\",\"value\":10}");
+        mPersistence.putString(COLLECTION + ":text", "{\"kind\":\"x\",\"value\":\"a\"}");
+
+        // the range drives the index lookup
+        assertEquals(Arrays.asList("high"), index.query(COLLECTION, new Query().whereGreaterThan("value", 5)));
+        assertEquals(Arrays.asList("low"), index.query(COLLECTION, new Query().whereLessThan("value", 5)));
+        assertEquals(Arrays.asList("flag"), index.query(COLLECTION, new Query().whereGreaterThan("value", false)));
+        assertEquals(Arrays.asList("text"), index.query(COLLECTION, new Query().whereGreaterThanOrEqualTo("value", "")));
+        assertTrue(index.query(COLLECTION, new Query().whereGreaterThan("value", 5).whereLessThan("value", "z")).isEmpty());
+
+        // the range filters keys found through another field
+        final Query scanned = new Query().whereEqualTo("kind", "x").whereGreaterThan("value", 5);
+        assertEquals(Arrays.asList("high"), index.query(COLLECTION, scanned));
+    }
+
+    public void testQueryWithoutIndexFails() {
+        final FieldIndex index = new FieldIndex(mPersistence);
+
+        try {
+            index.query(COLLECTION, new Query().whereEqualTo("status", "open"));
+            fail();
+        } catch (final IllegalArgumentException e) {
+            assertNotNull(e);
+        }
+    }
+
+    public void testInvalidValuesAreNotIndexed() {
+        final FieldIndex index = new FieldIndex(mPersistence);
+        index.addIndex(COLLECTION, "status");
+
+        mPersistence.putString(COLLECTION + ":a", "not json");
+
+        assertTrue(index.query(COLLECTION, new Query().orderBy("status")).isEmpty());
+    }
+
+    public void testCompareOrdersByType() {
+        assertTrue(FieldIndex.compare(true, 1.0) < 0);
+        assertTrue(FieldIndex.compare(1.0, "a") < 0);
+        assertTrue(FieldIndex.compare(1.0, 2.0) < 0);
+        assertEquals(0, FieldIndex.compare(FieldIndex.normalize(2), 2.0));
+    }
+
+    private void put(final String key, final String status, final int updatedAt) {
+        mPersistence.putString(COLLECTION + ":" + key, "{\"status\":\"" + status + "\",\"updatedAt\":" + updatedAt + "}");
+    }
+}
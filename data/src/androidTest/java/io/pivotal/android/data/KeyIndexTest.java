@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class KeyIndexTest extends AndroidTestCase {
+
+    private static final String COLLECTION = UUID.randomUUID().toString();
+    private static final String OTHER_COLLECTION = UUID.randomUUID().toString();
+    private static final String VALUE = UUID.randomUUID().toString();
+
+    private DataPersistence mPersistence;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+        mPersistence = new DataPersistence(mContext, UUID.randomUUID().toString());
+    }
+
+    public void testLoadsExistingKeysInOrder() {
+        put(COLLECTION, "b");
+        put(COLLECTION, "a");
+        put(OTHER_COLLECTION, "c");
+
+        final KeyIndex index = new KeyIndex(mPersistence);
+
+        assertEquals(Arrays.asList("a", "b"), index.getKeys(COLLECTION, null, null, 10));
+        assertEquals(2, index.size(COLLECTION));
+    }
+
+    public void testTracksWritesAfterLoading() {
+        final KeyIndex index = new KeyIndex(mPersistence);
+        assertEquals(0, index.size(COLLECTION));
+
+        put(COLLECTION, "a");
+        put(COLLECTION, "b");
+        mPersistence.deleteString(COLLECTION + ":a");
+
+        assertEquals(Arrays.asList("b"), index.getKeys(COLLECTION, null, null, 10));
+    }
+
+    public void testClearEmptiesIndex() {
+        put(COLLECTION, "a");
+        final KeyIndex index = new KeyIndex(mPersistence);
+        assertEquals(1, index.size(COLLECTION));
+
+        mPersistence.clear();
+
+        assertEquals(0, index.size(COLLECTION));
+    }
+
+    public void testPagesFromCursor() {
+        for (final String key : new String[] { "a", "b", "c", "d", "e" }) {
+            put(COLLECTION, key);
+        }
+        final KeyIndex index = new KeyIndex(mPersistence);
+
+        final List<String> first = index.getKeys(COLLECTION, null, null, 2);
+        final List<String> second = index.getKeys(COLLECTION, null, "b", 2);
+        final List<String> third = index.getKeys(COLLECTION, null, "d", 2);
+
+        assertEquals(Arrays.asList("a", "b"), first);
+        assertEquals(Arrays.asList("c", "d"), second);
+        assertEquals(Arrays.asList("e"), third);
+        assertFalse(index.hasKeysAfter(COLLECTION, null, "e"));
+    }
+
+    public void testScansPrefix() {
+        for (final String key : new String[] { "user:1", "user:2", "users", "team:1" }) {
+            put(COLLECTION, key);
+        }
+        final KeyIndex index = new KeyIndex(mPersistence);
+
+        assertEquals(Arrays.asList("user:1", "user:2"), index.getKeys(COLLECTION, "user:", null, 10));
+        assertEquals(Arrays.asList("user:2"), index.getKeys(COLLECTION, "user:", "user:1", 10));
+        assertEquals(Arrays.asList("user:1", "user:2"), index.getKeys(COLLECTION, "user:", "a", 10));
+        assertTrue(index.getKeys(COLLECTION, "user:", "z", 10).isEmpty());
+    }
+
+    public void testUnknownCollectionIsEmpty() {
+        final KeyIndex index = new KeyIndex(mPersistence);
+
+        assertTrue(index.getKeys(UUID.randomUUID().toString(), null, null, 10).isEmpty());
+    }
+
+    private void put(final String collection, final String key) {
+        mPersistence.putString(collection + ":" + key, VALUE);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+public class KeyValueCollectionTest extends AndroidTestCase {
+
+    private static final String COLLECTION = UUID.randomUUID().toString();
+    private static final String PREFIX = UUID.randomUUID().toString();
+    private static final String CURSOR = UUID.randomUUID().toString();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+    }
+
+    public void testGetKeysInvokesLocalStore() {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final KeyPage page = new KeyPage(Arrays.asList("a"), null);
+        final KeyValueCollection collection = new KeyValueCollection(mContext, localStore, COLLECTION);
+
+        Mockito.when(localStore.getKeys(COLLECTION, PREFIX, CURSOR, 10)).thenReturn(page);
+
+        assertEquals(page, collection.getKeys(PREFIX, CURSOR, 10));
+    }
+
+    public void testGetKeysUsesDefaultPageSize() {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final KeyValueCollection collection = new KeyValueCollection(mContext, localStore, COLLECTION);
+
+        collection.getKeys(CURSOR);
+
+        Mockito.verify(localStore).getKeys(COLLECTION, null, CURSOR, KeyValueCollection.DEFAULT_PAGE_SIZE);
+    }
+
+    public void testClearInvokesLocalStore() {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final KeyValueCollection collection = new KeyValueCollection(mContext, localStore, COLLECTION);
+
+        collection.clear();
+
+        Mockito.verify(localStore).clear(COLLECTION);
+    }
+}
@@ -5,8 +5,12 @@ package io.pivotal.android.data;
 
 import android.test.AndroidTestCase;
 
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.UUID;
 
@@ -103,4 +107,180 @@ public class KeyValueLocalStoreTest extends AndroidTestCase {
 
         Mockito.verify(observerHandler).removeObserver(observer);
     }
+
+    public void testWriteThroughAnotherStoreNotifiesObservers() {
+        final String namespace = UUID.randomUUID().toString();
+        final ObserverHandler<KeyValue> observerHandler = Mockito.mock(KeyValueObserverHandler.class);
+        final KeyValueLocalStore observed = new KeyValueLocalStore(observerHandler, new DataPersistence(mContext, namespace));
+        final KeyValueLocalStore writer = new KeyValueLocalStore(new ObserverHandler<KeyValue>(), new DataPersistence(mContext, namespace));
+
+        Mockito.when(observerHandler.hasObservers(Mockito.anyString())).thenReturn(true);
+
+        writer.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, KEY, VALUE), false));
+
+        Mockito.verify(observerHandler).notifyResponse(Mockito.argThat(new KeyValueMatcher(COLLECTION, KEY, VALUE)));
+        assertNotNull(observed);
+    }
+
+    public void testWriteThroughAnotherStoreIsNotForwardedWithoutObservers() {
+        final String namespace = UUID.randomUUID().toString();
+        final ObserverHandler<KeyValue> observerHandler = Mockito.mock(KeyValueObserverHandler.class);
+        final KeyValueLocalStore observed = new KeyValueLocalStore(observerHandler, new DataPersistence(mContext, namespace));
+        final KeyValueLocalStore writer = new KeyValueLocalStore(new ObserverHandler<KeyValue>(), new DataPersistence(mContext, namespace));
+
+        Mockito.when(observerHandler.hasObservers(Mockito.anyString())).thenReturn(false);
+
+        writer.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, KEY, VALUE), false));
+
+        Mockito.verify(observerHandler).hasObservers(COLLECTION + ":" + KEY);
+        Mockito.verify(observerHandler, Mockito.never()).notifyResponse(Mockito.any(Response.class));
+        assertNotNull(observed);
+    }
+
+    public void testOwnWriteIsNotifiedOnce() {
+        final ObserverHandler<KeyValue> observerHandler = Mockito.mock(KeyValueObserverHandler.class);
+        final KeyValueLocalStore store = new KeyValueLocalStore(observerHandler, new DataPersistence(mContext, UUID.randomUUID().toString()));
+
+        Mockito.when(observerHandler.hasObservers(Mockito.anyString())).thenReturn(true);
+
+        final Response<KeyValue> response = store.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, KEY, VALUE), false));
+
+        Mockito.verify(observerHandler, Mockito.times(1)).notifyResponse(Mockito.any(Response.class));
+        Mockito.verify(observerHandler).notifyResponse(response);
+    }
+
+    public void testCreateChangeResponseParsesIdentifier() {
+        final KeyValueLocalStore store = new KeyValueLocalStore(null, null);
+
+        final Response<KeyValue> response = store.createChangeResponse(COLLECTION + ":" + KEY, VALUE);
+
+        assertEquals(COLLECTION, response.object.collection);
+        assertEquals(KEY, response.object.key);
+        assertEquals(VALUE, response.object.value);
+    }
+
+    public void testCreateChangeResponseIgnoresUnknownKeys() {
+        final KeyValueLocalStore store = new KeyValueLocalStore(null, null);
+
+        assertNull(store.createChangeResponse(KEY, VALUE));
+    }
+
+    public void testGetKeysReturnsPages() {
+        final KeyValueLocalStore store = new KeyValueLocalStore(new ObserverHandler<KeyValue>(), new DataPersistence(mContext, UUID.randomUUID().toString()));
+
+        for (final String key : new String[] { "a", "b", "c" }) {
+            store.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, key, VALUE), false));
+        }
+
+        final KeyPage first = store.getKeys(COLLECTION, null, null, 2);
+        final KeyPage second = store.getKeys(COLLECTION, null, first.cursor, 2);
+
+        assertEquals(Arrays.asList("a", "b"), first.keys);
+        assertEquals("b", first.cursor);
+        assertEquals(Arrays.asList("c"), second.keys);
+        assertFalse(second.hasMore());
+    }
+
+    public void testClearDeletesOnlyCollection() {
+        final String other = UUID.randomUUID().toString();
+        final DataPersistence persistence = new DataPersistence(mContext, UUID.randomUUID().toString());
+        final KeyValueLocalStore store = new KeyValueLocalStore(new ObserverHandler<KeyValue>(), persistence);
+
+        store.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, "a", VALUE), false));
+        store.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, "b", VALUE), false));
+        store.execute(new Request.Put<KeyValue>(new KeyValue(other, "a", VALUE), false));
+
+        store.clear(COLLECTION);
+
+        assertEquals(0, store.getSize(COLLECTION));
+        assertEquals(1, store.getSize(other));
+        assertEquals("", persistence.getString(COLLECTION + ":a"));
+        assertEquals(VALUE, persistence.getString(other + ":a"));
+    }
+
+    public void testClearNotifiesObserversOnce() {
+        final ObserverHandler<KeyValue> handler = new ObserverHandler<KeyValue>();
+        final DataStore.Observer<KeyValue> observer = Mockito.mock(KeyValueObserver.class);
+        final KeyValueLocalStore store = new KeyValueLocalStore(handler, new DataPersistence(mContext, UUID.randomUUID().toString()));
+
+        handler.setDispatchMode(ObserverHandler.DispatchModes.IMMEDIATE);
+
+        store.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, "a", VALUE), false));
+        store.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, "b", VALUE), false));
+
+        handler.addObserver(COLLECTION + ":", observer);
+
+        store.clear(COLLECTION);
+
+        Mockito.verify(observer, Mockito.times(1)).onResponse(Mockito.any(Response.class));
+        Mockito.verify(observer).onResponse(Mockito.argThat(new KeyValueMatcher(COLLECTION, "", "")));
+        assertEquals(0, store.getSize(COLLECTION));
+    }
+
+    public void testClearNotifiesKeyObserversOfDelete() {
+        final ObserverHandler<KeyValue> handler = new ObserverHandler<KeyValue>();
+        final List<Response<KeyValue>> responses = new ArrayList<Response<KeyValue>>();
+        final KeyValueLocalStore store = new KeyValueLocalStore(handler, new DataPersistence(mContext, UUID.randomUUID().toString()));
+
+        handler.setDispatchMode(ObserverHandler.DispatchModes.IMMEDIATE);
+
+        store.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, "a", VALUE), false));
+        store.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, "b", VALUE), false));
+
+        handler.addObserver(COLLECTION + ":a", new DataStore.Observer<KeyValue>() {
+            @Override
+            public void onResponse(final Response<KeyValue> response) {
+                responses.add(response);
+            }
+        });
+
+        store.clear(COLLECTION);
+
+        assertEquals(1, responses.size());
+        assertEquals(new KeyValue(COLLECTION, "a", ""), responses.get(0).object);
+    }
+
+    public void testQueryReturnsIndexedObjects() {
+        final KeyValueLocalStore store = new KeyValueLocalStore(new ObserverHandler<KeyValue>(), new DataPersistence(mContext, UUID.randomUUID().toString()));
+        final String open = "{\"status\":\"open\"}";
+
+        store.addIndex(COLLECTION, "status");
+        store.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, "a", open), false));
+        store.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, "b", "{\"status\":\"closed\"}"), false));
+
+        final List<KeyValue> objects = store.query(COLLECTION, new Query().whereEqualTo("status", "open"));
+
+        assertEquals(Arrays.asList(new KeyValue(COLLECTION, "a", open)), objects);
+    }
+
+    public void testSearchReturnsMatchingObjects() {
+        final KeyValueLocalStore store = new KeyValueLocalStore(new ObserverHandler<KeyValue>(), new DataPersistence(mContext, UUID.randomUUID().toString()));
+
+        store.addTextIndex(COLLECTION);
+        store.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, "a", "buy milk"), false));
+        store.execute(new Request.Put<KeyValue>(new KeyValue(COLLECTION, "b", "call mom"), false));
+
+        final List<KeyValue> objects = store.search(COLLECTION, "mil", 0, 10);
+
+        assertEquals(Arrays.asList(new KeyValue(COLLECTION, "a", "buy milk")), objects);
+    }
+
+
+    // ==============================================================
+
+
+    public static class KeyValueMatcher extends ArgumentMatcher<Response<KeyValue>> {
+
+        private final KeyValue mExpected;
+
+        public KeyValueMatcher(final String collection, final String key, final String value) {
+            mExpected = new KeyValue(collection, key, value);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean matches(final Object argument) {
+            return mExpected.equals(((Response<KeyValue>) argument).object);
+        }
+    }
 }
@@ -3,10 +3,13 @@
  */
 package io.pivotal.android.data;
 
+import android.content.Context;
+import android.os.Debug;
 import android.test.AndroidTestCase;
 
 import org.mockito.Mockito;
 
+import java.util.Properties;
 import java.util.Random;
 import java.util.UUID;
 
@@ -23,6 +26,10 @@ public class KeyValueObjectTest extends AndroidTestCase {
     private static final String VALUE = UUID.randomUUID().toString();
     private static final boolean RESULT = new Random().nextBoolean();
 
+    private static final int ITERATIONS = 1000;
+    private static final int MAX_ALLOCATIONS_PER_LOCAL_PUT = 8;
+    private static final int MAX_ALLOCATIONS_PER_WRITE_THROUGH_PUT = 16;
+
 
     @Override
     protected void setUp() throws Exception {
@@ -117,28 +124,143 @@ public class KeyValueObjectTest extends AndroidTestCase {
         Mockito.verify(dataStore).execute(request, listener);
     }
 
+    public void testObserveReturnsSharedPublisher() {
+        final DataStore<KeyValue> dataStore = Mockito.mock(KeyValueDataStore.class);
+        final KeyValueObject keyValueObject = new KeyValueObject(dataStore, COLLECTION, KEY);
+
+        final DataPublisher<KeyValue> publisher = keyValueObject.observe();
+
+        assertNotNull(publisher);
+        assertSame(publisher, keyValueObject.observe());
+    }
+
     public void testAddObserversInvokesDataStore() {
         final DataStore<KeyValue> dataStore = Mockito.mock(KeyValueDataStore.class);
         final DataStore.Observer<KeyValue> observer = Mockito.mock(KeyValueObserver.class);
-        final KeyValueObject keyValueObject = new KeyValueObject(dataStore, null, null);
+        final KeyValueObject keyValueObject = new KeyValueObject(dataStore, COLLECTION, KEY);
+        final String identifier = new KeyValue(COLLECTION, KEY, null).getIdentifier();
 
-        Mockito.when(dataStore.addObserver(observer)).thenReturn(RESULT);
+        Mockito.when(dataStore.addObserver(identifier, observer)).thenReturn(RESULT);
 
         assertEquals(RESULT, keyValueObject.addObserver(observer));
 
-        Mockito.verify(dataStore).addObserver(observer);
+        Mockito.verify(dataStore).addObserver(identifier, observer);
+        Mockito.verify(dataStore, Mockito.never()).addObserver(observer);
     }
 
     public void testRemoveObserversInvokesDataStore() {
         final DataStore<KeyValue> dataStore = Mockito.mock(KeyValueDataStore.class);
         final DataStore.Observer<KeyValue> observer = Mockito.mock(KeyValueObserver.class);
-        final KeyValueObject keyValueObject = new KeyValueObject(dataStore, null, null);
+        final KeyValueObject keyValueObject = new KeyValueObject(dataStore, COLLECTION, KEY);
+        final String identifier = new KeyValue(COLLECTION, KEY, null).getIdentifier();
 
-        Mockito.when(dataStore.removeObserver(observer)).thenReturn(RESULT);
+        Mockito.when(dataStore.removeObserver(identifier, observer)).thenReturn(RESULT);
 
         assertEquals(RESULT, keyValueObject.removeObserver(observer));
 
-        Mockito.verify(dataStore).removeObserver(observer);
+        Mockito.verify(dataStore).removeObserver(identifier, observer);
+        Mockito.verify(dataStore, Mockito.never()).removeObserver(observer);
+    }
+
+    public void testLocalStorePutAllocationsAreBounded() {
+        final ObserverHandler<KeyValue> handler = new ObserverHandler<KeyValue>();
+        handler.setDispatchMode(ObserverHandler.DispatchModes.IMMEDIATE);
+
+        final KeyValueLocalStore store = new KeyValueLocalStore(handler, new PassThroughPersistence(mContext));
+        final KeyValueObject keyValueObject = new KeyValueObject(store, COLLECTION, KEY);
+
+        final int allocations = countAllocationsPerPut(keyValueObject);
+        assertTrue("Allocations per local put: " + allocations, allocations <= MAX_ALLOCATIONS_PER_LOCAL_PUT);
+    }
+
+    public void testWriteThroughPutAllocationsAreBounded() {
+        final ObserverHandler<KeyValue> localHandler = new ObserverHandler<KeyValue>();
+        final ObserverHandler<KeyValue> remoteHandler = new ObserverHandler<KeyValue>();
+        localHandler.setDispatchMode(ObserverHandler.DispatchModes.IMMEDIATE);
+        remoteHandler.setDispatchMode(ObserverHandler.DispatchModes.IMMEDIATE);
+
+        final KeyValueLocalStore localStore = new KeyValueLocalStore(localHandler, new PassThroughPersistence(mContext));
+        final KeyValueRemoteStore remoteStore = new KeyValueRemoteStore(remoteHandler, new EchoClient());
+        final ConnectedStore store = new ConnectedStore(mContext, localStore, remoteStore);
+        final KeyValueObject keyValueObject = new KeyValueObject(store, COLLECTION, KEY);
+        final Properties properties = new Properties();
+
+        try {
+            properties.setProperty("pivotal.data.serviceUrl", "http://example.com");
+            Pivotal.setProperties(properties);
+
+            final int allocations = countAllocationsPerPut(keyValueObject);
+            assertTrue("Allocations per write-through put: " + allocations, allocations <= MAX_ALLOCATIONS_PER_WRITE_THROUGH_PUT);
+        } finally {
+            Pivotal.setProperties(null);
+        }
+    }
+
+    /**
+     * Warms up the path, then counts the allocations of the calling
+     * thread. The counters are deprecated but are the only per-thread
+     * ones available on every supported API level.
+     */
+    @SuppressWarnings("deprecation")
+    private static int countAllocationsPerPut(final KeyValueObject keyValueObject) {
+        for (int i = 0; i < ITERATIONS; i++) {
+            keyValueObject.put(VALUE);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            keyValueObject.put(VALUE);
+        }
+
+        Debug.stopAllocCounting();
+
+        return Debug.getThreadAllocCount() / ITERATIONS;
+    }
+
+    // ==============================================================
+
+
+    private static final class ConnectedStore extends KeyValueOfflineStore {
+
+        public ConnectedStore(final Context context, final LocalStore<KeyValue> localStore, final RemoteStore<KeyValue> remoteStore) {
+            super(context, localStore, remoteStore);
+        }
+
+        @Override
+        protected boolean isConnected() {
+            return true;
+        }
     }
 
+    private static final class EchoClient implements RemoteClient {
+
+        @Override
+        public String get(final String url, final boolean force) {
+            return VALUE;
+        }
+
+        @Override
+        public String put(final String url, final byte[] entity, final boolean force) {
+            return VALUE;
+        }
+
+        @Override
+        public String delete(final String url, final boolean force) {
+            return null;
+        }
+    }
+
+    private static final class PassThroughPersistence extends DataPersistence {
+
+        public PassThroughPersistence(final Context context) {
+            super(context, UUID.randomUUID().toString());
+        }
+
+        @Override
+        public String putString(final String key, final String value) {
+            return value;
+        }
+    }
 }
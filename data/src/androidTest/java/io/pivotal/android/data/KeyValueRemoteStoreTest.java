@@ -7,12 +7,15 @@ import android.test.AndroidTestCase;
 
 import org.mockito.Mockito;
 
+import java.util.Properties;
 import java.util.Random;
 import java.util.UUID;
 
 @SuppressWarnings("unchecked")
 public class KeyValueRemoteStoreTest extends AndroidTestCase {
 
+    public interface StreamingRemoteClient extends RemoteClient, RemoteClient.Streaming {}
+
     private static final String URL = UUID.randomUUID().toString();
     private static final String COLLECTION = UUID.randomUUID().toString();
     private static final String KEY = UUID.randomUUID().toString();
@@ -103,6 +106,40 @@ public class KeyValueRemoteStoreTest extends AndroidTestCase {
         Mockito.verify(observerHandler).notifyResponse(response);
     }
 
+    public void testPutStreamsLargeValueAndSharesRequestObject() throws Exception {
+        final String value = createValue(KeyValueRemoteStore.STREAMING_THRESHOLD + 1);
+        final Request request = new Request.Put<KeyValue>(new KeyValue(COLLECTION, KEY, value), FORCE);
+        final StreamingRemoteClient remoteClient = Mockito.mock(StreamingRemoteClient.class);
+        final ObserverHandler observerHandler = Mockito.mock(ObserverHandler.class);
+        final KeyValueRemoteStore remoteStore = Mockito.spy(new KeyValueRemoteStore(observerHandler, remoteClient));
+
+        Mockito.doReturn(URL).when(remoteStore).getUrl(Mockito.any(KeyValue.class));
+        Mockito.when(remoteClient.putValue(Mockito.anyString(), Mockito.anyString(), Mockito.eq(FORCE))).thenReturn(value);
+
+        final Response<KeyValue> response = remoteStore.execute(request);
+
+        assertSame(request.object, response.object);
+
+        Mockito.verify(remoteClient).putValue(URL, value, FORCE);
+        Mockito.verify(remoteStore, Mockito.never()).getEntity(Mockito.any(KeyValue.class));
+    }
+
+    public void testPutSendsLargeValueAsBytesWithoutStreamingClient() throws Exception {
+        final String value = createValue(KeyValueRemoteStore.STREAMING_THRESHOLD + 1);
+        final Request request = new Request.Put<KeyValue>(new KeyValue(COLLECTION, KEY, value), FORCE);
+        final RemoteClient remoteClient = Mockito.mock(RemoteClient.class);
+        final ObserverHandler observerHandler = Mockito.mock(ObserverHandler.class);
+        final KeyValueRemoteStore remoteStore = Mockito.spy(new KeyValueRemoteStore(observerHandler, remoteClient));
+
+        Mockito.doReturn(URL).when(remoteStore).getUrl(Mockito.any(KeyValue.class));
+        Mockito.when(remoteClient.put(Mockito.anyString(), Mockito.any(byte[].class), Mockito.eq(FORCE))).thenReturn(value);
+
+        final Response<KeyValue> response = remoteStore.execute(request);
+
+        assertTrue(response.isSuccess());
+        Mockito.verify(remoteClient).put(Mockito.eq(URL), Mockito.any(byte[].class), Mockito.eq(FORCE));
+    }
+
     public void testDeleteInvokesRemoteClientAndObserverHandlerWithSuccessResponse() throws Exception {
         final Request request = new Request.Delete<KeyValue>(new KeyValue(COLLECTION, KEY, null), FORCE);
         final RemoteClient remoteClient = Mockito.mock(RemoteClient.class);
@@ -139,4 +176,33 @@ public class KeyValueRemoteStoreTest extends AndroidTestCase {
         Mockito.verify(observerHandler).notifyResponse(response);
     }
 
+    public void testGetUrlIsCachedPerKeyUntilServiceUrlChanges() throws Exception {
+        final KeyValueRemoteStore remoteStore = new KeyValueRemoteStore(null, null);
+        final KeyValue keyValue = new KeyValue(COLLECTION, KEY, VALUE);
+        final Properties properties = new Properties();
+
+        try {
+            properties.setProperty("pivotal.data.serviceUrl", "http://first.com");
+            Pivotal.setProperties(properties);
+
+            final String url = remoteStore.getUrl(keyValue);
+
+            assertEquals("http://first.com/" + COLLECTION + "/" + KEY, url);
+            assertSame(url, remoteStore.getUrl(new KeyValue(COLLECTION, KEY, null)));
+
+            properties.setProperty("pivotal.data.serviceUrl", "http://second.com");
+
+            assertEquals("http://second.com/" + COLLECTION + "/" + KEY, remoteStore.getUrl(keyValue));
+        } finally {
+            Pivotal.setProperties(null);
+        }
+    }
+
+    private static String createValue(final int length) {
+        final StringBuilder builder = new StringBuilder(length);
+        while (builder.length() < length) {
+            builder.append('a');
+        }
+        return builder.toString();
+    }
 }
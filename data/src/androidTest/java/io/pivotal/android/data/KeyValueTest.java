@@ -33,4 +33,18 @@ public class KeyValueTest extends AndroidTestCase {
         assertEquals(VALUE, copy.value);
     }
 
-}
\ No newline at end of file
+    public void testGetIdentifier() {
+        final KeyValue keyValue = new KeyValue(COLLECTION, KEY, VALUE);
+
+        assertEquals(COLLECTION + ":" + KEY, keyValue.getIdentifier());
+    }
+
+    public void testEquals() {
+        final KeyValue keyValue = new KeyValue(COLLECTION, KEY, VALUE);
+
+        assertEquals(keyValue, new KeyValue(keyValue));
+        assertEquals(keyValue.hashCode(), new KeyValue(keyValue).hashCode());
+        assertFalse(keyValue.equals(new KeyValue(COLLECTION, KEY, null)));
+        assertFalse(keyValue.equals(new KeyValue(KEY, COLLECTION, VALUE)));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+public class LiveQueryTest extends AndroidTestCase {
+
+    private static final String COLLECTION = UUID.randomUUID().toString();
+
+    private DataPersistence mPersistence;
+    private RecordingListener mListener;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+        mPersistence = new DataPersistence(mContext, UUID.randomUUID().toString());
+        mListener = new RecordingListener();
+
+        final FieldIndex index = FieldIndex.get(mPersistence);
+        index.addIndex(COLLECTION, "status");
+        index.addIndex(COLLECTION, "updatedAt");
+    }
+
+    public void testStartDeliversInitialResultAsInsertions() {
+        put("a", "open", 2);
+        put("b", "closed", 1);
+        put("c", "open", 1);
+
+        final LiveQuery query = start(new Query().whereEqualTo("status", "open").orderBy("updatedAt"));
+
+        assertEquals(Arrays.asList("c", "a"), query.getKeys());
+        assertEquals(Arrays.asList("c", "a"), keys(mListener.last().inserted));
+    }
+
+    public void testWritesProduceDiffs() {
+        put("a", "open", 1);
+        final LiveQuery query = start(new Query().whereEqualTo("status", "open").orderBy("updatedAt"));
+
+        put("b", "open", 2);
+        assertEquals(Arrays.asList("b"), keys(mListener.last().inserted));
+
+        put("a", "open", 3);
+        assertEquals(Arrays.asList("a"), keys(mListener.last().updated));
+        assertEquals(Arrays.asList("b", "a"), query.getKeys());
+
+        put("a", "closed", 3);
+        assertEquals(Arrays.asList("a"), mListener.last().removed);
+
+        mPersistence.deleteString(COLLECTION + ":b");
+        assertEquals(Arrays.asList("b"), mListener.last().removed);
+        assertEquals(0, query.size());
+    }
+
+    public void testDeletedCollectionRemovesResult() {
+        put("a", "open", 1);
+        put("b", "open", 2);
+        final LiveQuery query = start(new Query().whereEqualTo("status", "open").orderBy("updatedAt"));
+
+        mPersistence.deleteStrings(COLLECTION + ":", Arrays.asList("a", "b"));
+
+        assertEquals(Arrays.asList("a", "b"), mListener.last().removed);
+        assertEquals(0, query.size());
+        assertTrue(FieldIndex.get(mPersistence).query(COLLECTION, new Query().whereEqualTo("status", "open")).isEmpty());
+    }
+
+    public void testUnrelatedWritesAreIgnored() {
+        start(new Query().whereEqualTo("status", "open"));
+        final int count = mListener.changes.size();
+
+        put("a", "closed", 1);
+        mPersistence.putString(UUID.randomUUID().toString() + ":a", "{\"status\":\"open\"}");
+
+        assertEquals(count, mListener.changes.size());
+    }
+
+    public void testLimitKeepsTopResults() {
+        put("a", "open", 1);
+        put("b", "open", 2);
+        put("c", "open", 3);
+
+        final LiveQuery query = start(new Query().orderBy("updatedAt").limit(2));
+        assertEquals(Arrays.asList("a", "b"), query.getKeys());
+
+        put("d", "open", 0);
+        assertEquals(Arrays.asList("d", "a"), query.getKeys());
+        assertEquals(Arrays.asList("d"), keys(mListener.last().inserted));
+        assertEquals(Arrays.asList("b"), mListener.last().removed);
+    }
+
+    public void testLimitRefillsAfterRemoval() {
+        put("a", "open", 1);
+        put("b", "open", 2);
+        put("c", "open", 3);
+
+        final LiveQuery query = start(new Query().orderBy("updatedAt").limit(2));
+
+        mPersistence.deleteString(COLLECTION + ":a");
+
+        assertEquals(Arrays.asList("b", "c"), query.getKeys());
+        assertEquals(Arrays.asList("a"), mListener.last().removed);
+        assertEquals(Arrays.asList("c"), keys(mListener.last().inserted));
+    }
+
+    public void testLimitReplacesUpdatedObjectThatFallsBehind() {
+        put("a", "open", 1);
+        put("b", "open", 2);
+        put("c", "open", 3);
+
+        final LiveQuery query = start(new Query().orderBy("updatedAt").limit(2));
+
+        put("a", "open", 4);
+
+        assertEquals(Arrays.asList("b", "c"), query.getKeys());
+        assertEquals(Arrays.asList("a"), mListener.last().removed);
+        assertEquals(Arrays.asList("c"), keys(mListener.last().inserted));
+    }
+
+    public void testCloseStopsUpdates() {
+        final LiveQuery query = start(new Query().whereEqualTo("status", "open"));
+        final int count = mListener.changes.size();
+
+        query.close();
+        put("a", "open", 1);
+
+        assertEquals(count, mListener.changes.size());
+    }
+
+    private LiveQuery start(final Query query) {
+        final LiveQuery liveQuery = new LiveQuery(mPersistence, COLLECTION, query, mListener, DataExecutors.IMMEDIATE);
+        liveQuery.start();
+        return liveQuery;
+    }
+
+    private void put(final String key, final String status, final int updatedAt) {
+        mPersistence.putString(COLLECTION + ":" + key, "{\"status\":\"" + status + "\",\"updatedAt\":" + updatedAt + "}");
+    }
+
+    private static List<String> keys(final List<KeyValue> objects) {
+        final List<String> keys = new ArrayList<String>();
+        for (final KeyValue object : objects) {
+            keys.add(object.key);
+        }
+        return keys;
+    }
+
+
+    // ==============================================================
+
+
+    private static final class RecordingListener implements LiveQuery.Listener {
+
+        private final List<LiveQuery.Changes> changes = new ArrayList<LiveQuery.Changes>();
+
+        @Override
+        public void onChanged(final LiveQuery query, final LiveQuery.Changes changes) {
+            this.changes.add(changes);
+        }
+
+        public LiveQuery.Changes last() {
+            return changes.get(changes.size() - 1);
+        }
+    }
+}
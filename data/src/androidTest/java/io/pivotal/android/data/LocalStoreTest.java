@@ -45,6 +45,22 @@ public class LocalStoreTest extends AndroidTestCase {
     }
 
 
+    public void testExecuteWithListenerUsesDiskExecutor() {
+        final DataStore.Listener listener = Mockito.mock(DataStore.Listener.class);
+        final Request request = Mockito.mock(Request.class);
+        final DataExecutors executors = Mockito.spy(new DataExecutors(DataExecutors.IMMEDIATE, null, DataExecutors.IMMEDIATE));
+        final LocalStore localStore = Mockito.spy(new DefaultLocalStore(null, null));
+
+        Mockito.doReturn(executors).when(localStore).getExecutors();
+
+        localStore.execute(request, listener);
+
+        Mockito.verify(executors).execute(DataExecutors.IMMEDIATE, localStore, request, listener);
+        Mockito.verify(localStore).execute(request);
+        Mockito.verify(listener).onResponse(null);
+    }
+
+
     // ==============================================================
 
 
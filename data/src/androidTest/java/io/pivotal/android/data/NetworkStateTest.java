@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.test.AndroidTestCase;
+
+import org.mockito.Mockito;
+
+public class NetworkStateTest extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        NetworkState.set(null);
+        super.tearDown();
+    }
+
+    public void testRefreshReadsActiveNetwork() {
+        final Context context = Mockito.mock(Context.class);
+        final ConnectivityManager manager = Mockito.mock(ConnectivityManager.class);
+        final NetworkInfo networkInfo = Mockito.mock(NetworkInfo.class);
+
+        Mockito.when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(manager);
+        Mockito.when(manager.getActiveNetworkInfo()).thenReturn(networkInfo);
+        Mockito.when(manager.isActiveNetworkMetered()).thenReturn(true);
+        Mockito.when(networkInfo.isConnected()).thenReturn(true);
+        Mockito.when(networkInfo.getType()).thenReturn(ConnectivityManager.TYPE_MOBILE);
+
+        final NetworkState state = NetworkState.refresh(context);
+
+        assertTrue(state.connected);
+        assertTrue(state.metered);
+        assertEquals(ConnectivityManager.TYPE_MOBILE, state.type);
+    }
+
+    public void testRefreshWithoutActiveNetworkIsDisconnected() {
+        final Context context = Mockito.mock(Context.class);
+        final ConnectivityManager manager = Mockito.mock(ConnectivityManager.class);
+
+        Mockito.when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(manager);
+        Mockito.when(manager.getActiveNetworkInfo()).thenReturn(null);
+
+        assertEquals(NetworkState.DISCONNECTED, NetworkState.refresh(context));
+    }
+
+    public void testGetReturnsCachedStateWithoutQuerying() {
+        final Context context = Mockito.mock(Context.class);
+        final NetworkState state = new NetworkState(true, ConnectivityManager.TYPE_WIFI, false);
+
+        NetworkState.set(state);
+
+        assertEquals(state, NetworkState.get(context));
+        assertTrue(NetworkState.isConnected(context));
+
+        Mockito.verify(context, Mockito.never()).getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    public void testGetQueriesOnceAndRegistersReceiver() {
+        final Context context = Mockito.mock(Context.class);
+        final ConnectivityManager manager = Mockito.mock(ConnectivityManager.class);
+
+        Mockito.when(context.getApplicationContext()).thenReturn(context);
+        Mockito.when(context.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(manager);
+
+        NetworkState.get(context);
+        NetworkState.get(context);
+
+        Mockito.verify(context).getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+}
@@ -3,11 +3,14 @@
  */
 package io.pivotal.android.data;
 
-import android.os.Message;
 import android.test.AndroidTestCase;
 
 import org.mockito.Mockito;
 
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 @SuppressWarnings("unchecked")
 public class ObserverHandlerTest extends AndroidTestCase {
 
@@ -39,9 +42,196 @@ public class ObserverHandlerTest extends AndroidTestCase {
         final ObserverHandler handler = new ObserverHandler();
         handler.addObserver(observer);
 
-        final Message message = handler.obtainMessage(1000, response);
-        handler.handleMessage(message);
+        deliver(handler, response);
+
+        Mockito.verify(observer).onResponse(response);
+    }
+
+    public void testHandleMessageNotifiesKeyObserversForTheirKeyOnly() {
+        final Response response = new Response(new KeyValue("collection", "key", "value"), null);
+        final DataStore.Observer keyObserver = Mockito.mock(DataStore.Observer.class);
+        final DataStore.Observer otherObserver = Mockito.mock(DataStore.Observer.class);
+        final ObserverHandler handler = new ObserverHandler();
+
+        assertTrue(handler.addObserver("collection:key", keyObserver));
+        assertTrue(handler.addObserver("collection:other", otherObserver));
+
+        deliver(handler, response);
+
+        Mockito.verify(keyObserver).onResponse(response);
+        Mockito.verify(otherObserver, Mockito.never()).onResponse(Mockito.any(Response.class));
+    }
+
+    public void testHandleMessageNotifiesPrefixObservers() {
+        final Response response = new Response(new KeyValue("collection", "key", "value"), null);
+        final DataStore.Observer collectionObserver = Mockito.mock(DataStore.Observer.class);
+        final DataStore.Observer otherObserver = Mockito.mock(DataStore.Observer.class);
+        final ObserverHandler handler = new ObserverHandler();
+
+        handler.addObserver("collection:", collectionObserver);
+        handler.addObserver("other:", otherObserver);
+
+        deliver(handler, response);
+
+        Mockito.verify(collectionObserver).onResponse(response);
+        Mockito.verify(otherObserver, Mockito.never()).onResponse(Mockito.any(Response.class));
+    }
+
+    public void testHandleMessageNotifiesObserverOnceWhenRegisteredTwice() {
+        final Response response = new Response(new KeyValue("collection", "key", "value"), null);
+        final DataStore.Observer observer = Mockito.mock(DataStore.Observer.class);
+        final ObserverHandler handler = new ObserverHandler();
+
+        handler.addObserver(observer);
+        handler.addObserver("collection:key", observer);
+
+        deliver(handler, response);
+
+        Mockito.verify(observer).onResponse(response);
+    }
+
+    public void testRemoveKeyObserver() {
+        final DataStore.Observer observer = Mockito.mock(DataStore.Observer.class);
+        final ObserverHandler handler = new ObserverHandler();
+
+        handler.addObserver("collection:key", observer);
+
+        assertTrue(handler.removeObserver("collection:key", observer));
+        assertFalse(handler.removeObserver("collection:key", observer));
+    }
+
+    public void testHasObserversForKeysAndPrefixes() {
+        final DataStore.Observer observer = Mockito.mock(DataStore.Observer.class);
+        final ObserverHandler handler = new ObserverHandler();
+
+        assertFalse(handler.hasObservers("collection:key"));
+
+        handler.addObserver("collection:key", observer);
+        handler.addObserver("other:", observer);
+
+        assertTrue(handler.hasObservers("collection:key"));
+        assertTrue(handler.hasObservers("other:key"));
+        assertFalse(handler.hasObservers("collection:other"));
+
+        handler.addObserver(observer);
+
+        assertTrue(handler.hasObservers("collection:other"));
+    }
+
+    public void testNotifyResponseCoalescesPerKey() {
+        final Response first = new Response(new KeyValue("collection", "key", "first"), null);
+        final Response second = new Response(new KeyValue("collection", "key", "second"), null);
+        final Response other = new Response(new KeyValue("collection", "other", "other"), null);
+        final DataStore.Observer observer = Mockito.mock(DataStore.Observer.class);
+        final ObserverHandler handler = new ObserverHandler();
+
+        handler.addObserver(observer);
+
+        handler.notifyResponse(first);
+        handler.notifyResponse(other);
+        handler.notifyResponse(second);
+
+        handler.handleMessage(handler.obtainMessage(1000, "collection:key"));
+        handler.handleMessage(handler.obtainMessage(1000, "collection:other"));
+        handler.handleMessage(handler.obtainMessage(1000, "collection:key"));
+
+        Mockito.verify(observer).onResponse(second);
+        Mockito.verify(observer).onResponse(other);
+        Mockito.verify(observer, Mockito.never()).onResponse(first);
+    }
+
+    public void testNotifyResponseWithImmediateDispatchNotifiesOnCallingThread() {
+        final Response response = new Response(new KeyValue("collection", "key", "value"), null);
+        final DataStore.Observer observer = Mockito.mock(DataStore.Observer.class);
+        final ObserverHandler handler = new ObserverHandler();
+
+        handler.setDispatchMode(ObserverHandler.DispatchModes.IMMEDIATE);
+        handler.addObserver(observer);
+        handler.notifyResponse(response);
 
         Mockito.verify(observer).onResponse(response);
     }
-}
\ No newline at end of file
+
+    public void testNotifyResponseWithImmediateDispatchWaitsForRelease() {
+        final Response response = new Response(new KeyValue("collection", "key", "value"), null);
+        final DataStore.Observer observer = Mockito.mock(DataStore.Observer.class);
+        final ObserverHandler handler = new ObserverHandler();
+
+        handler.setDispatchMode(ObserverHandler.DispatchModes.IMMEDIATE);
+        handler.addObserver(observer);
+
+        ObserverHandler.hold();
+        ObserverHandler.hold();
+        handler.notifyResponse(response);
+        ObserverHandler.release();
+
+        Mockito.verify(observer, Mockito.never()).onResponse(Mockito.any(Response.class));
+
+        ObserverHandler.release();
+
+        Mockito.verify(observer).onResponse(response);
+    }
+
+    public void testHandleMessageWithBackgroundDispatchNotifiesOffTheCallingThread() throws Exception {
+        final Response response = new Response(new KeyValue("collection", "key", "value"), null);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread[] thread = new Thread[1];
+        final ObserverHandler handler = new ObserverHandler();
+
+        handler.setDispatchMode(ObserverHandler.DispatchModes.BACKGROUND);
+        handler.addObserver(new DataStore.Observer() {
+            @Override
+            public void onResponse(final Response response) {
+                thread[0] = Thread.currentThread();
+                latch.countDown();
+            }
+        });
+
+        deliver(handler, response);
+
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), thread[0]);
+    }
+
+    public void testObserverCanRemoveItselfWhileBeingNotified() {
+        final Response response = new Response(new KeyValue("collection", "key", "value"), null);
+        final ObserverHandler handler = new ObserverHandler();
+        final DataStore.Observer observer = new DataStore.Observer() {
+            @Override
+            public void onResponse(final Response response) {
+                handler.removeObserver(this);
+            }
+        };
+
+        handler.addObserver(observer);
+        deliver(handler, response);
+
+        assertFalse(handler.getObservers().contains(observer));
+    }
+
+    public void testBatchObserverReceivesResponsesOncePerFrame() {
+        final Response first = new Response(new KeyValue("collection", "first", "value"), null);
+        final Response second = new Response(new KeyValue("collection", "second", "value"), null);
+        final ObserverHandler.BatchObserver observer = Mockito.mock(ObserverHandler.BatchObserver.class);
+        final ObserverHandler handler = new ObserverHandler();
+
+        handler.addObserver(observer);
+        deliver(handler, first);
+        deliver(handler, second);
+
+        Mockito.verify(observer, Mockito.never()).onResponse(Mockito.any(Response.class));
+
+        handler.handleMessage(handler.obtainMessage(1001));
+
+        Mockito.verify(observer).onResponses(Arrays.asList(first, second));
+    }
+
+    // ==============================================================
+
+    private static void deliver(final ObserverHandler handler, final Response response) {
+        final String identifier = response.object instanceof KeyValue ? ((KeyValue) response.object).getIdentifier() : "";
+
+        handler.notifyResponse(response);
+        handler.handleMessage(handler.obtainMessage(1000, identifier));
+    }
+}
@@ -5,6 +5,7 @@ package io.pivotal.android.data;
 
 import android.test.AndroidTestCase;
 
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
 
 import java.util.Random;
@@ -94,7 +95,7 @@ public class OfflineStoreTest extends AndroidTestCase {
         Mockito.verify(keyValueStore).execute(request);
     }
 
-    public void testGetInvokesRemoteAndLocalStoreWhenConnectionIsNotAvailable() {
+    public void testGetInvokesRemoteAndLocalStoreWhenConnectionIsNotAvailable() throws Exception {
         final KeyValueLocalStore keyValueStore = Mockito.mock(KeyValueLocalStore.class);
         final RequestCache requestCache = Mockito.mock(RequestCache.class);
         final Response localResponse = new Response(new Object(), null);
@@ -112,6 +113,111 @@ public class OfflineStoreTest extends AndroidTestCase {
         Mockito.verify(requestCache).queue(request);
     }
 
+    public void testGetWithStaleWhileRevalidateReturnsLocalValue() {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final KeyValueRemoteStore remoteStore = Mockito.mock(KeyValueRemoteStore.class);
+        final Response localResponse = new Response(new Object(), null);
+        final OfflineStore offlineStore = Mockito.spy(new OfflineStore(null, localStore, remoteStore));
+        final Request request = new Request();
+
+        offlineStore.setReadPolicy(OfflineStore.ReadPolicies.STALE_WHILE_REVALIDATE);
+
+        Mockito.doReturn(true).when(offlineStore).isConnected();
+        Mockito.doNothing().when(offlineStore).revalidate(Mockito.any(Request.class), Mockito.any());
+        Mockito.when(localStore.execute(Mockito.any(Request.class))).thenReturn(localResponse);
+
+        assertEquals(localResponse, offlineStore.get(request));
+
+        Mockito.verify(localStore).execute(request);
+        Mockito.verify(remoteStore, Mockito.never()).execute(Mockito.any(Request.class));
+    }
+
+    public void testGetWithStaleWhileRevalidateGoesRemoteWithoutLocalValue() {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final KeyValueRemoteStore remoteStore = Mockito.mock(KeyValueRemoteStore.class);
+        final Response emptyResponse = new Response(null, null);
+        final Response remoteResponse = new Response(new Object(), null);
+        final OfflineStore offlineStore = Mockito.spy(new OfflineStore(null, localStore, remoteStore));
+        final Request request = new Request();
+
+        offlineStore.setReadPolicy(OfflineStore.ReadPolicies.STALE_WHILE_REVALIDATE);
+
+        Mockito.doReturn(true).when(offlineStore).isConnected();
+        Mockito.when(localStore.execute(Mockito.any(Request.class))).thenReturn(emptyResponse);
+        Mockito.when(remoteStore.execute(Mockito.any(Request.class))).thenReturn(remoteResponse);
+
+        offlineStore.get(request);
+
+        Mockito.verify(remoteStore).execute(request);
+    }
+
+    public void testRevalidateDoesNotWriteLocallyWhenValueIsUnchanged() {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final KeyValueRemoteStore remoteStore = Mockito.mock(KeyValueRemoteStore.class);
+        final Object value = new Object();
+        final Response remoteResponse = new Response(value, null);
+        final OfflineStore offlineStore = new OfflineStore(null, localStore, remoteStore);
+        final Request request = new Request();
+
+        Mockito.when(remoteStore.executeRequest(Mockito.any(Request.class))).thenReturn(remoteResponse);
+
+        offlineStore.revalidate(request, value);
+
+        Mockito.verify(remoteStore).executeRequest(request);
+        Mockito.verify(localStore, Mockito.never()).execute(Mockito.any(Request.class));
+    }
+
+    public void testRevalidateWritesLocallyWhenValueChanged() {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final KeyValueRemoteStore remoteStore = Mockito.mock(KeyValueRemoteStore.class);
+        final Response remoteResponse = new Response(new Object(), null);
+        final Object local = new Object();
+        final OfflineStore offlineStore = new OfflineStore(null, localStore, remoteStore);
+        final Request request = new Request();
+
+        Mockito.when(remoteStore.executeRequest(Mockito.any(Request.class))).thenReturn(remoteResponse);
+        Mockito.when(localStore.execute(Mockito.any(Request.class))).thenReturn(new Response(local, null));
+
+        offlineStore.revalidate(request, local);
+
+        Mockito.verify(localStore).execute(Mockito.isA(Request.Put.class));
+    }
+
+    public void testRevalidateDoesNotWriteLocallyWhenLocalValueChanged() {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final KeyValueRemoteStore remoteStore = Mockito.mock(KeyValueRemoteStore.class);
+        final Response remoteResponse = new Response(new Object(), null);
+        final OfflineStore offlineStore = new OfflineStore(null, localStore, remoteStore);
+        final Request request = new Request();
+
+        Mockito.when(remoteStore.executeRequest(Mockito.any(Request.class))).thenReturn(remoteResponse);
+        Mockito.when(localStore.execute(Mockito.any(Request.class))).thenReturn(new Response(new Object(), null));
+
+        offlineStore.revalidate(request, new Object());
+
+        Mockito.verify(localStore, Mockito.never()).execute(Mockito.isA(Request.Put.class));
+    }
+
+    public void testRevalidateDoesNotDeleteLocallyWhenWriteIsPending() {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final KeyValueRemoteStore remoteStore = Mockito.mock(KeyValueRemoteStore.class);
+        final RequestCache requestCache = Mockito.mock(RequestCache.class);
+        final KeyValue local = new KeyValue("collection", "key", "value");
+        final Response remoteResponse = new Response(null, new DataError(new DataHttpException(404, "")));
+        final OfflineStore offlineStore = new OfflineStore(null, localStore, remoteStore);
+        final Request request = new Request(Request.Methods.GET, local);
+
+        offlineStore.setRequestCache(requestCache);
+
+        Mockito.when(remoteStore.executeRequest(Mockito.any(Request.class))).thenReturn(remoteResponse);
+        Mockito.when(localStore.execute(Mockito.any(Request.class))).thenReturn(new Response(local, null));
+        Mockito.when(requestCache.hasPendingWrites(local.getIdentifier())).thenReturn(true);
+
+        offlineStore.revalidate(request, local);
+
+        Mockito.verify(localStore, Mockito.never()).execute(Mockito.isA(Request.Delete.class));
+    }
+
     public void testExecuteWithFallbackInvokesRemoteAndLocalStoreWhenConnectionIsAvailableAndRemoteSucceeds() {
         final KeyValueLocalStore keyValueStore = Mockito.mock(KeyValueLocalStore.class);
         final RemoteStore remoteStore = Mockito.mock(RemoteStore.class);
@@ -148,7 +254,7 @@ public class OfflineStoreTest extends AndroidTestCase {
         Mockito.verify(keyValueStore, Mockito.never()).execute(request);
     }
 
-    public void testExecuteWithFallbackInvokesRemoteAndLocalStoreWhenConnectionIsNotAvailable() {
+    public void testExecuteWithFallbackInvokesRemoteAndLocalStoreWhenConnectionIsNotAvailable() throws Exception {
         final KeyValueLocalStore keyValueStore = Mockito.mock(KeyValueLocalStore.class);
         final RequestCache requestCache = Mockito.mock(RequestCache.class);
         final Response fallbackResponse = new Response(new Object(), null);
@@ -170,6 +276,216 @@ public class OfflineStoreTest extends AndroidTestCase {
         Mockito.verify(requestCache).queue(request);
     }
 
+    public void testExecuteWithFallbackFailsWithoutLocalWriteWhenRequestCacheIsFull() throws Exception {
+        final KeyValueLocalStore keyValueStore = Mockito.mock(KeyValueLocalStore.class);
+        final RequestCache requestCache = Mockito.mock(RequestCache.class);
+        final Response fallbackResponse = new Response(new Object(), null);
+        final OfflineStore offlineStore = Mockito.spy(new OfflineStore(null, keyValueStore, null));
+        final Request request = new Request();
+
+        Mockito.doReturn(false).when(offlineStore).isConnected();
+        Mockito.when(keyValueStore.execute(Mockito.isA(Request.Get.class))).thenReturn(fallbackResponse);
+        Mockito.doReturn(requestCache).when(offlineStore).getRequestCache();
+        Mockito.doThrow(new RequestCacheFullException("")).when(requestCache).queue(request);
+
+        final Response response = offlineStore.executeWithFallback(request);
+
+        assertTrue(response.isRequestCacheFull());
+
+        Mockito.verify(requestCache).queue(request);
+        Mockito.verify(keyValueStore, Mockito.never()).execute(request);
+    }
+
+    public void testExecuteWithFallbackResolvesConflictWhenPreconditionFails() {
+        final KeyValueLocalStore keyValueStore = Mockito.mock(KeyValueLocalStore.class);
+        final RemoteStore remoteStore = Mockito.mock(RemoteStore.class);
+        final OfflineStore.ConflictResolver resolver = Mockito.mock(OfflineStore.ConflictResolver.class);
+        final Object base = new Object();
+        final Object local = new Object();
+        final Object remote = new Object();
+        final Object merged = new Object();
+        final Response conflictResponse = new Response(local, new DataError(new DataHttpException(412, "")));
+        final Response currentResponse = new Response(remote, null);
+        final Response retryResponse = new Response(merged, null);
+        final Response localResponse = new Response(merged, null);
+        final OfflineStore offlineStore = Mockito.spy(new OfflineStore(null, keyValueStore, remoteStore));
+        final Request request = new Request.Put(local, base, false);
+
+        offlineStore.setConflictResolver(resolver);
+
+        Mockito.doReturn(true).when(offlineStore).isConnected();
+        Mockito.when(remoteStore.execute(request)).thenReturn(conflictResponse);
+        Mockito.when(remoteStore.execute(Mockito.isA(Request.Get.class))).thenReturn(currentResponse);
+        Mockito.when(resolver.merge(base, local, remote)).thenReturn(merged);
+        Mockito.when(keyValueStore.execute(Mockito.any(Request.class))).thenReturn(localResponse);
+
+        Mockito.when(remoteStore.execute(Mockito.argThat(new ObjectMatcher(merged)))).thenReturn(retryResponse);
+
+        assertEquals(localResponse, offlineStore.executeWithFallback(request));
+
+        Mockito.verify(resolver).merge(base, local, remote);
+        Mockito.verify(remoteStore).execute(Mockito.argThat(new ObjectMatcher(merged)));
+        Mockito.verify(keyValueStore).execute(Mockito.argThat(new ObjectMatcher(merged)));
+    }
+
+    public void testExecuteWithFallbackReturnsConflictWhenResolverGivesUp() {
+        final KeyValueLocalStore keyValueStore = Mockito.mock(KeyValueLocalStore.class);
+        final RemoteStore remoteStore = Mockito.mock(RemoteStore.class);
+        final OfflineStore.ConflictResolver resolver = Mockito.mock(OfflineStore.ConflictResolver.class);
+        final Response conflictResponse = new Response(new Object(), new DataError(new DataHttpException(412, "")));
+        final Response currentResponse = new Response(new Object(), null);
+        final OfflineStore offlineStore = Mockito.spy(new OfflineStore(null, keyValueStore, remoteStore));
+        final Request request = new Request.Put(new Object(), new Object(), false);
+
+        offlineStore.setConflictResolver(resolver);
+
+        Mockito.doReturn(true).when(offlineStore).isConnected();
+        Mockito.when(remoteStore.execute(request)).thenReturn(conflictResponse);
+        Mockito.when(remoteStore.execute(Mockito.isA(Request.Get.class))).thenReturn(currentResponse);
+
+        assertEquals(conflictResponse, offlineStore.executeWithFallback(request));
+
+        Mockito.verify(remoteStore, Mockito.times(2)).execute(Mockito.any(Request.class));
+        Mockito.verify(keyValueStore, Mockito.never()).execute(Mockito.any(Request.class));
+    }
+
+    public void testExecuteWithFallbackWithWriteBackQueuesAndWritesLocallyWhenConnected() throws Exception {
+        final KeyValueLocalStore keyValueStore = Mockito.mock(KeyValueLocalStore.class);
+        final RemoteStore remoteStore = Mockito.mock(RemoteStore.class);
+        final RequestCache requestCache = Mockito.mock(RequestCache.class);
+        final Response fallbackResponse = new Response(new Object(), null);
+        final Response localResponse = new Response(new Object(), null);
+        final OfflineStore offlineStore = Mockito.spy(new OfflineStore(null, keyValueStore, remoteStore));
+        final Request request = new Request();
+
+        offlineStore.setWritePolicy(OfflineStore.WritePolicies.WRITE_BACK);
+
+        Mockito.doReturn(true).when(offlineStore).isConnected();
+        Mockito.doNothing().when(offlineStore).scheduleFlush();
+        Mockito.when(keyValueStore.execute(Mockito.isA(Request.class))).thenReturn(localResponse);
+        Mockito.when(keyValueStore.execute(Mockito.isA(Request.Get.class))).thenReturn(fallbackResponse);
+        Mockito.doReturn(requestCache).when(offlineStore).getRequestCache();
+
+        assertEquals(localResponse, offlineStore.executeWithFallback(request));
+        assertEquals(fallbackResponse.object, request.fallback);
+
+        Mockito.verify(requestCache).queue(request);
+        Mockito.verify(keyValueStore).execute(request);
+        Mockito.verify(offlineStore).scheduleFlush();
+        Mockito.verify(remoteStore, Mockito.never()).execute(Mockito.any(Request.class));
+    }
+
+    public void testExecuteWithFallbackWithWriteBackSendsPendingRequestsRemotely() {
+        final KeyValueLocalStore keyValueStore = Mockito.mock(KeyValueLocalStore.class);
+        final RemoteStore remoteStore = Mockito.mock(RemoteStore.class);
+        final Response localResponse = new Response(new Object(), null);
+        final Response remoteResponse = new Response(new Object(), null);
+        final OfflineStore offlineStore = Mockito.spy(new OfflineStore(null, keyValueStore, remoteStore));
+        final PendingRequest request = new PendingRequest(new Request());
+
+        offlineStore.setWritePolicy(OfflineStore.WritePolicies.WRITE_BACK);
+
+        Mockito.doReturn(true).when(offlineStore).isConnected();
+        Mockito.when(remoteStore.execute(Mockito.any(Request.class))).thenReturn(remoteResponse);
+        Mockito.when(keyValueStore.execute(Mockito.any(Request.class))).thenReturn(localResponse);
+
+        assertEquals(localResponse, offlineStore.executeWithFallback(request));
+
+        Mockito.verify(remoteStore).execute(request);
+        Mockito.verify(keyValueStore).execute(request);
+        Mockito.verify(offlineStore, Mockito.never()).scheduleFlush();
+    }
+
+    public void testGetWithWriteBackReadsLocallyWhileWriteIsPending() {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final RemoteStore remoteStore = Mockito.mock(RemoteStore.class);
+        final RequestCache requestCache = Mockito.mock(RequestCache.class);
+        final KeyValue keyValue = new KeyValue("collection", "key", "value");
+        final Response localResponse = new Response(keyValue, null);
+        final Response remoteResponse = new Response(new KeyValue("collection", "key", "remote"), null);
+        final OfflineStore offlineStore = Mockito.spy(new OfflineStore(null, localStore, remoteStore));
+        final Request request = new Request(Request.Methods.GET, keyValue);
+
+        offlineStore.setWritePolicy(OfflineStore.WritePolicies.WRITE_BACK);
+
+        Mockito.doReturn(true).when(offlineStore).isConnected();
+        Mockito.doReturn(requestCache).when(offlineStore).getRequestCache();
+        Mockito.when(requestCache.hasPendingWrites(keyValue.getIdentifier())).thenReturn(true);
+        Mockito.when(remoteStore.execute(Mockito.any(Request.class))).thenReturn(remoteResponse);
+        Mockito.when(localStore.execute(request)).thenReturn(localResponse);
+
+        assertEquals(localResponse, offlineStore.get(request));
+
+        Mockito.verify(localStore, Mockito.never()).execute(Mockito.isA(Request.Put.class));
+    }
+
+    public void testFlushDelayIsCappedByMaxDelay() {
+        final OfflineStore offlineStore = new OfflineStore(null, null, null);
+
+        assertEquals(OfflineStore.FLUSH_DELAY, offlineStore.getFlushDelay(0));
+        assertEquals(OfflineStore.FLUSH_DELAY, offlineStore.getFlushDelay(OfflineStore.FLUSH_MAX_DELAY - OfflineStore.FLUSH_DELAY));
+        assertEquals(OfflineStore.FLUSH_DELAY / 2, offlineStore.getFlushDelay(OfflineStore.FLUSH_MAX_DELAY - OfflineStore.FLUSH_DELAY / 2));
+        assertEquals(0, offlineStore.getFlushDelay(OfflineStore.FLUSH_MAX_DELAY + 1));
+    }
+
+    public void testGetReadsLocallyWhenDeadlineExpired() {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final RemoteStore remoteStore = Mockito.mock(RemoteStore.class);
+        final Response localResponse = new Response(new Object(), null);
+        final OfflineStore offlineStore = Mockito.spy(new OfflineStore(null, localStore, remoteStore));
+        final Request request = new Request();
+
+        Mockito.doReturn(true).when(offlineStore).isConnected();
+        Mockito.doReturn(true).when(offlineStore).isExpired();
+        Mockito.when(localStore.execute(request)).thenReturn(localResponse);
+
+        assertEquals(localResponse, offlineStore.get(request));
+
+        Mockito.verify(localStore).execute(request);
+        Mockito.verify(remoteStore, Mockito.never()).execute(Mockito.any(Request.class));
+    }
+
+    public void testGetReadsLocallyWhenDeadlineExpiresDuringRemoteRequest() {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final RemoteStore remoteStore = Mockito.mock(RemoteStore.class);
+        final Response localResponse = new Response(new Object(), null);
+        final Response remoteResponse = new Response(new Object(), new DataError(new Exception()));
+        final OfflineStore offlineStore = Mockito.spy(new OfflineStore(null, localStore, remoteStore));
+        final Request request = new Request();
+
+        Mockito.doReturn(true).when(offlineStore).isConnected();
+        Mockito.when(offlineStore.isExpired()).thenReturn(false, true);
+        Mockito.when(remoteStore.execute(request)).thenReturn(remoteResponse);
+        Mockito.when(localStore.execute(request)).thenReturn(localResponse);
+
+        assertEquals(localResponse, offlineStore.get(request));
+
+        Mockito.verify(remoteStore).execute(request);
+        Mockito.verify(localStore).execute(request);
+    }
+
+    public void testExecuteWithFallbackQueuesWhenDeadlineExpiresDuringRemoteRequest() throws Exception {
+        final KeyValueLocalStore localStore = Mockito.mock(KeyValueLocalStore.class);
+        final RemoteStore remoteStore = Mockito.mock(RemoteStore.class);
+        final RequestCache requestCache = Mockito.mock(RequestCache.class);
+        final Response localResponse = new Response(new Object(), null);
+        final Response remoteResponse = new Response(new Object(), new DataError(new Exception()));
+        final OfflineStore offlineStore = Mockito.spy(new OfflineStore(null, localStore, remoteStore));
+        final Request request = new Request();
+
+        Mockito.doReturn(true).when(offlineStore).isConnected();
+        Mockito.when(offlineStore.isExpired()).thenReturn(false, true);
+        Mockito.doReturn(requestCache).when(offlineStore).getRequestCache();
+        Mockito.when(remoteStore.execute(request)).thenReturn(remoteResponse);
+        Mockito.when(localStore.execute(Mockito.any(Request.class))).thenReturn(localResponse);
+
+        assertEquals(localResponse, offlineStore.executeWithFallback(request));
+
+        Mockito.verify(remoteStore).execute(request);
+        Mockito.verify(requestCache).queue(request);
+        Mockito.verify(localStore).execute(request);
+    }
+
     public void testAddObserverInvokesLocalStoreAndRemoteStore() {
         final KeyValueLocalStore keyValueStore = Mockito.mock(KeyValueLocalStore.class);
         final RemoteStore remoteStore = Mockito.mock(RemoteStore.class);
@@ -199,4 +515,22 @@ public class OfflineStoreTest extends AndroidTestCase {
         Mockito.verify(keyValueStore).removeObserver(observer);
         Mockito.verify(remoteStore).removeObserver(observer);
     }
+
+
+    // ==============================================================
+
+
+    private static final class ObjectMatcher extends ArgumentMatcher<Request> {
+
+        private final Object mObject;
+
+        public ObjectMatcher(final Object object) {
+            mObject = object;
+        }
+
+        @Override
+        public boolean matches(final Object argument) {
+            return argument instanceof Request && ((Request) argument).object == mObject;
+        }
+    }
 }
@@ -33,5 +33,90 @@ public class PendingRequestTest extends AndroidTestCase {
         assertEquals(request.object, queued.object);
         assertEquals(request.force, queued.force);
         assertEquals(request.fallback, queued.fallback);
+        assertNotNull(queued.id);
     }
-}
\ No newline at end of file
+
+    public void testQueuedRequestKeepsPriority() {
+        final KeyValue object = new KeyValue(COLLECTION, KEY, VALUE);
+        final Request request = new Request(METHOD, object, false);
+        request.priority = Request.Priorities.BACKGROUND;
+
+        final PendingRequest queued = new PendingRequest(request);
+
+        assertEquals(Request.Priorities.BACKGROUND, queued.priority);
+    }
+
+    public void testLanesPollHigherPriorityFirst() {
+        final PendingRequest background = createPendingRequest(Request.Priorities.BACKGROUND);
+        final PendingRequest normal = createPendingRequest(Request.Priorities.NORMAL);
+        final PendingRequest interactive = createPendingRequest(Request.Priorities.INTERACTIVE);
+
+        final PendingRequest.List list = new PendingRequest.List();
+        list.add(background);
+        list.add(normal);
+        list.add(interactive);
+
+        final PendingRequest.Lanes lanes = new PendingRequest.Lanes(list);
+
+        assertEquals(1, lanes.size(Request.Priorities.BACKGROUND));
+        assertEquals(1, lanes.size(Request.Priorities.NORMAL));
+        assertEquals(1, lanes.size(Request.Priorities.INTERACTIVE));
+
+        assertEquals(interactive, lanes.poll());
+        assertEquals(normal, lanes.poll());
+        assertEquals(background, lanes.poll());
+        assertNull(lanes.poll());
+        assertTrue(lanes.isEmpty());
+    }
+
+    public void testLanesServeStarvedLane() {
+        final PendingRequest background = createPendingRequest(Request.Priorities.BACKGROUND);
+        final PendingRequest.Lanes lanes = new PendingRequest.Lanes();
+        lanes.add(background);
+
+        for (int i = 0; i < PendingRequest.Lanes.MAX_SKIPS * 2; i++) {
+            lanes.add(createPendingRequest(Request.Priorities.INTERACTIVE));
+        }
+
+        for (int i = 0; i < PendingRequest.Lanes.MAX_SKIPS; i++) {
+            assertEquals(Request.Priorities.INTERACTIVE, lanes.poll().priority);
+        }
+
+        assertEquals(background, lanes.poll());
+        assertEquals(PendingRequest.Lanes.MAX_SKIPS, lanes.size());
+    }
+
+    public void testLanesTreatUnknownPriorityAsNormal() {
+        final PendingRequest.Lanes lanes = new PendingRequest.Lanes();
+        lanes.add(createPendingRequest(42));
+
+        assertEquals(1, lanes.size(Request.Priorities.NORMAL));
+    }
+
+    public void testLanesKeepOrderOfRequestsForSameKey() {
+        final PendingRequest put = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.BACKGROUND);
+        final PendingRequest other = createPendingRequest(Request.Methods.PUT, UUID.randomUUID().toString(), Request.Priorities.NORMAL);
+        final PendingRequest delete = createPendingRequest(Request.Methods.DELETE, KEY, Request.Priorities.INTERACTIVE);
+
+        final PendingRequest.Lanes lanes = new PendingRequest.Lanes();
+        lanes.add(put);
+        lanes.add(other);
+        lanes.add(delete);
+
+        assertEquals(put, lanes.poll());
+        assertEquals(delete, lanes.poll());
+        assertEquals(other, lanes.poll());
+        assertTrue(lanes.isEmpty());
+    }
+
+    private static PendingRequest createPendingRequest(final int priority) {
+        return createPendingRequest(METHOD, UUID.randomUUID().toString(), priority);
+    }
+
+    private static PendingRequest createPendingRequest(final int method, final String key, final int priority) {
+        final KeyValue object = new KeyValue(COLLECTION, key, VALUE);
+        final Request request = new Request(method, object, false);
+        request.priority = priority;
+        return new PendingRequest(request);
+    }
+}
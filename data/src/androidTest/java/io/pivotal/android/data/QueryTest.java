@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+public class QueryTest extends AndroidTestCase {
+
+    public void testEqualityPredicateMatchesOnlyValue() {
+        final Query.Predicate predicate = new Query().whereEqualTo("count", 2).getPredicates().get(0);
+
+        assertTrue(predicate.matches(2.0));
+        assertFalse(predicate.matches(1.0));
+        assertFalse(predicate.matches("2"));
+        assertFalse(predicate.matches(null));
+    }
+
+    public void testRangePredicatesRespectBounds() {
+        final Query query = new Query().whereGreaterThan("a", 1).whereLessThanOrEqualTo("b", 3);
+
+        assertFalse(query.getPredicates().get(0).matches(1.0));
+        assertTrue(query.getPredicates().get(0).matches(1.5));
+        assertTrue(query.getPredicates().get(1).matches(3.0));
+        assertFalse(query.getPredicates().get(1).matches(3.5));
+    }
+
+    public void testRangePredicatesMatchOnlyTheirType() {
+        final Query query = new Query().whereGreaterThan("a", 5).whereLessThan("b", "m");
+
+        assertTrue(query.getPredicates().get(0).matches(6.0));
+        assertFalse(query.getPredicates().get(0).matches("z"));
+        assertFalse(query.getPredicates().get(1).matches(1.0));
+        assertFalse(query.getPredicates().get(1).matches(true));
+        assertTrue(query.getPredicates().get(1).matches("a"));
+    }
+
+    public void testOrderAndLimit() {
+        final Query query = new Query().orderBy("updatedAt", true).limit(10);
+
+        assertEquals("updatedAt", query.getOrderBy());
+        assertTrue(query.isDescending());
+        assertEquals(10, query.getLimit());
+    }
+
+    public void testInvalidArgumentsFail() {
+        try {
+            new Query().limit(0);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            assertNotNull(e);
+        }
+        try {
+            new Query().whereEqualTo("a", new Object());
+            fail();
+        } catch (final IllegalArgumentException e) {
+            assertNotNull(e);
+        }
+    }
+}
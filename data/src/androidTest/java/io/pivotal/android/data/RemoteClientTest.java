@@ -18,11 +18,16 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.Random;
 import java.util.UUID;
@@ -32,6 +37,9 @@ public class RemoteClientTest extends AndroidTestCase {
     private static final String IF_NONE_MATCH = "If-None-Match";
     private static final String IF_MATCH = "If-Match";
     private static final String ETAG = "Etag";
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    private static final int SEGMENT_SIZE = RemoteClient.Default.Transfers.SEGMENT_SIZE;
 
     private static final String TOKEN = UUID.randomUUID().toString();
     private static final String RESULT = UUID.randomUUID().toString();
@@ -430,4 +438,317 @@ public class RemoteClientTest extends AndroidTestCase {
 
         Mockito.verify(provider).provideAccessToken(mContext);
     }
+
+    public void testPutSendsLargeEntityInSegments() throws Exception {
+        enableSegmentedUploads();
+        final TransferStore transferStore = createTransferStore();
+        final RecordingClient client = new RecordingClient(mContext, transferStore);
+        final byte[] data = createData(SEGMENT_SIZE * 2 + 100);
+
+        assertEquals(new String(data), client.put(URL, data, FORCE));
+
+        assertEquals(3, client.mRequests.size());
+        assertEquals("bytes 0-" + (SEGMENT_SIZE - 1) + "/" + data.length, client.getContentRange(0));
+        assertEquals("bytes " + SEGMENT_SIZE + "-" + (SEGMENT_SIZE * 2 - 1) + "/" + data.length, client.getContentRange(1));
+        assertEquals("bytes " + SEGMENT_SIZE * 2 + "-" + (data.length - 1) + "/" + data.length, client.getContentRange(2));
+        assertNull(transferStore.get(TransferStore.Directions.UPLOAD, URL));
+    }
+
+    public void testPutSendsLargeEntityWholeUnlessSegmentedUploadsAreEnabled() throws Exception {
+        Pivotal.setProperties(new Properties());
+        final RecordingClient client = new RecordingClient(mContext, createTransferStore());
+        final byte[] data = createData(SEGMENT_SIZE * 2 + 100);
+
+        client.put(URL, data, FORCE);
+
+        assertEquals(1, client.mRequests.size());
+        assertNull(client.mRequests.get(0).getFirstHeader(CONTENT_RANGE));
+    }
+
+    public void testPutSendsEntityWholeWhenSegmentIsNotAccepted() throws Exception {
+        enableSegmentedUploads();
+        final TransferStore transferStore = createTransferStore();
+        final RecordingClient client = new RecordingClient(mContext, transferStore);
+        final byte[] data = createData(SEGMENT_SIZE * 2 + 100);
+
+        client.mAcceptSegments = false;
+
+        assertEquals(new String(data), client.put(URL, data, FORCE));
+
+        assertEquals(2, client.mRequests.size());
+        assertNotNull(client.mRequests.get(0).getFirstHeader(CONTENT_RANGE));
+        assertNull(client.mRequests.get(1).getFirstHeader(CONTENT_RANGE));
+        assertEquals(data.length, ((HttpPut) client.mRequests.get(1)).getEntity().getContentLength());
+        assertNull(transferStore.get(TransferStore.Directions.UPLOAD, URL));
+    }
+
+    public void testPutValueSendsValueWholeWhenSegmentIsNotAccepted() throws Exception {
+        enableSegmentedUploads();
+        final RecordingClient client = new RecordingClient(mContext, createTransferStore());
+        final String value = new String(createData(SEGMENT_SIZE * 2 + 100));
+
+        client.mAcceptSegments = false;
+
+        assertSame(value, client.putValue(URL, value, FORCE));
+
+        assertEquals(2, client.mRequests.size());
+        assertTrue(((HttpPut) client.mRequests.get(1)).getEntity() instanceof ValueEntity);
+        assertEquals(value.length(), ((HttpPut) client.mRequests.get(1)).getEntity().getContentLength());
+    }
+
+    public void testPutSendsSmallEntityWhole() throws Exception {
+        final RecordingClient client = new RecordingClient(mContext, createTransferStore());
+
+        client.put(URL, DATA, FORCE);
+
+        assertEquals(1, client.mRequests.size());
+        assertNull(client.mRequests.get(0).getFirstHeader(CONTENT_RANGE));
+    }
+
+    public void testPutResumesUploadAtRecordedOffset() throws Exception {
+        enableSegmentedUploads();
+        final TransferStore transferStore = createTransferStore();
+        final RecordingClient client = new RecordingClient(mContext, transferStore);
+        final byte[] data = createData(SEGMENT_SIZE * 2 + 100);
+        final String fingerprint = data.length + "-" + TransferStore.digest(data);
+
+        transferStore.put(TransferStore.Directions.UPLOAD, URL, new TransferStore.Transfer(SEGMENT_SIZE, fingerprint));
+
+        client.put(URL, data, FORCE);
+
+        assertEquals(2, client.mRequests.size());
+        assertEquals("bytes " + SEGMENT_SIZE + "-" + (SEGMENT_SIZE * 2 - 1) + "/" + data.length, client.getContentRange(0));
+    }
+
+    public void testPutRestartsUploadOfDifferentEntity() throws Exception {
+        enableSegmentedUploads();
+        final TransferStore transferStore = createTransferStore();
+        final RecordingClient client = new RecordingClient(mContext, transferStore);
+        final byte[] data = createData(SEGMENT_SIZE * 2 + 100);
+
+        transferStore.put(TransferStore.Directions.UPLOAD, URL, new TransferStore.Transfer(SEGMENT_SIZE, RESULT));
+
+        client.put(URL, data, FORCE);
+
+        assertEquals(3, client.mRequests.size());
+        assertTrue(client.getContentRange(0).startsWith("bytes 0-"));
+    }
+
+    public void testPutRestartsUploadWhenSegmentsAreLost() throws Exception {
+        enableSegmentedUploads();
+        final TransferStore transferStore = createTransferStore();
+        final RecordingClient client = new RecordingClient(mContext, transferStore);
+        final byte[] data = createData(SEGMENT_SIZE * 2 + 100);
+        final String fingerprint = data.length + "-" + TransferStore.digest(data);
+
+        transferStore.put(TransferStore.Directions.UPLOAD, URL, new TransferStore.Transfer(SEGMENT_SIZE, fingerprint));
+        client.mFailFirstRequest = true;
+
+        client.put(URL, data, FORCE);
+
+        assertEquals(4, client.mRequests.size());
+        assertTrue(client.getContentRange(1).startsWith("bytes 0-"));
+    }
+
+    public void testPutRecordsProgressWhenInterrupted() throws Exception {
+        enableSegmentedUploads();
+        final TransferStore transferStore = createTransferStore();
+        final RecordingClient client = new RecordingClient(mContext, transferStore);
+        final byte[] data = createData(SEGMENT_SIZE * 2 + 100);
+
+        client.mFailAfterRequests = 2;
+
+        try {
+            client.put(URL, data, FORCE);
+            fail();
+        } catch (final DataHttpException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+
+        assertEquals(SEGMENT_SIZE * 2, transferStore.get(TransferStore.Directions.UPLOAD, URL).offset);
+    }
+
+    public void testPutValueReturnsValueItselfForEmptyResult() throws Exception {
+        final RecordingClient client = new RecordingClient(mContext, createTransferStore());
+
+        assertSame(RESULT, client.putValue(URL, RESULT, FORCE));
+
+        assertEquals(1, client.mRequests.size());
+        assertTrue(((HttpPut) client.mRequests.get(0)).getEntity() instanceof ValueEntity);
+    }
+
+    public void testPutValueSendsLargeValueInSegments() throws Exception {
+        enableSegmentedUploads();
+        final TransferStore transferStore = createTransferStore();
+        final RecordingClient client = new RecordingClient(mContext, transferStore);
+        final String value = new String(createData(SEGMENT_SIZE * 2 + 100));
+
+        assertSame(value, client.putValue(URL, value, FORCE));
+
+        assertEquals(3, client.mRequests.size());
+        assertEquals("bytes " + SEGMENT_SIZE + "-" + (SEGMENT_SIZE * 2 - 1) + "/" + value.length(), client.getContentRange(1));
+        assertEquals(100, ((HttpPut) client.mRequests.get(2)).getEntity().getContentLength());
+        assertNull(transferStore.get(TransferStore.Directions.UPLOAD, URL));
+    }
+
+    public void testPutValueResumesUploadOfSameBytes() throws Exception {
+        enableSegmentedUploads();
+        final TransferStore transferStore = createTransferStore();
+        final RecordingClient client = new RecordingClient(mContext, transferStore);
+        final byte[] data = createData(SEGMENT_SIZE * 2 + 100);
+        final String fingerprint = data.length + "-" + TransferStore.digest(data);
+
+        transferStore.put(TransferStore.Directions.UPLOAD, URL, new TransferStore.Transfer(SEGMENT_SIZE, fingerprint));
+
+        client.putValue(URL, new String(data), FORCE);
+
+        assertEquals(2, client.mRequests.size());
+    }
+
+    public void testGetResumesDownloadWithRangeRequest() throws Exception {
+        final TransferStore transferStore = createTransferStore();
+        final RemoteClient.Default client = Mockito.spy(new RemoteClient.Default(mContext, Mockito.mock(EtagStore.class), transferStore));
+        final HttpClient httpClient = Mockito.mock(HttpClient.class);
+        final HttpResponse httpResponse = Mockito.mock(HttpResponse.class);
+        final HttpEntity httpEntity = Mockito.mock(HttpEntity.class);
+        final StatusLine statusLine = Mockito.mock(StatusLine.class);
+        final Header etagHeader = Mockito.mock(Header.class);
+        final Header rangeHeader = Mockito.mock(Header.class);
+        final byte[] data = createData(SEGMENT_SIZE * 2);
+
+        final FileOutputStream partial = new FileOutputStream(client.getTransferFile(URL));
+        partial.write(data, 0, SEGMENT_SIZE);
+        partial.close();
+        transferStore.put(TransferStore.Directions.DOWNLOAD, URL, new TransferStore.Transfer(SEGMENT_SIZE, RESULT));
+
+        Mockito.doReturn(httpClient).when(client).getHttpClient();
+        Mockito.doNothing().when(client).addHeaders(Mockito.any(HttpUriRequest.class), Mockito.anyBoolean());
+        Mockito.when(httpClient.execute(Mockito.any(HttpUriRequest.class))).thenReturn(httpResponse);
+        Mockito.when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        Mockito.when(httpResponse.getEntity()).thenReturn(httpEntity);
+        Mockito.when(httpResponse.getFirstHeader(ETAG)).thenReturn(etagHeader);
+        Mockito.when(httpResponse.getFirstHeader(CONTENT_RANGE)).thenReturn(rangeHeader);
+        Mockito.when(statusLine.getStatusCode()).thenReturn(206);
+        Mockito.when(etagHeader.getValue()).thenReturn(RESULT);
+        Mockito.when(rangeHeader.getValue()).thenReturn("bytes " + SEGMENT_SIZE + "-" + (data.length - 1) + "/" + data.length);
+        Mockito.when(httpEntity.getContentLength()).thenReturn((long) SEGMENT_SIZE);
+        Mockito.when(httpEntity.getContent()).thenReturn(new ByteArrayInputStream(data, SEGMENT_SIZE, SEGMENT_SIZE));
+
+        assertEquals(new String(data), client.get(URL, FORCE));
+
+        Mockito.verify(httpClient).execute(Mockito.argThat(new HeaderMatcher("Range", "bytes=" + SEGMENT_SIZE + "-")));
+        Mockito.verify(httpClient).execute(Mockito.argThat(new HeaderMatcher("If-Range", RESULT)));
+        assertNull(transferStore.get(TransferStore.Directions.DOWNLOAD, URL));
+        assertFalse(client.getTransferFile(URL).exists());
+    }
+
+    public void testGetDiscardsPartialDownloadWhenValueChanged() throws Exception {
+        final TransferStore transferStore = createTransferStore();
+        final RemoteClient.Default client = Mockito.spy(new RemoteClient.Default(mContext, Mockito.mock(EtagStore.class), transferStore));
+        final HttpClient httpClient = Mockito.mock(HttpClient.class);
+        final HttpResponse httpResponse = Mockito.mock(HttpResponse.class);
+        final HttpEntity httpEntity = Mockito.mock(HttpEntity.class);
+        final StatusLine statusLine = Mockito.mock(StatusLine.class);
+
+        final FileOutputStream partial = new FileOutputStream(client.getTransferFile(URL));
+        partial.write(createData(SEGMENT_SIZE));
+        partial.close();
+        transferStore.put(TransferStore.Directions.DOWNLOAD, URL, new TransferStore.Transfer(SEGMENT_SIZE, RESULT));
+
+        Mockito.doReturn(httpClient).when(client).getHttpClient();
+        Mockito.doNothing().when(client).addHeaders(Mockito.any(HttpUriRequest.class), Mockito.anyBoolean());
+        Mockito.when(httpClient.execute(Mockito.any(HttpUriRequest.class))).thenReturn(httpResponse);
+        Mockito.when(httpResponse.getStatusLine()).thenReturn(statusLine);
+        Mockito.when(httpResponse.getEntity()).thenReturn(httpEntity);
+        Mockito.when(statusLine.getStatusCode()).thenReturn(200);
+        Mockito.when(httpEntity.getContentLength()).thenReturn((long) DATA.length);
+        Mockito.when(httpEntity.getContent()).thenReturn(new ByteArrayInputStream(DATA));
+
+        assertEquals(new String(DATA), client.get(URL, FORCE));
+
+        assertNull(transferStore.get(TransferStore.Directions.DOWNLOAD, URL));
+        assertFalse(client.getTransferFile(URL).exists());
+    }
+
+    private static void enableSegmentedUploads() {
+        final Properties properties = new Properties();
+        properties.setProperty("pivotal.data.segmentedUploads", "true");
+        Pivotal.setProperties(properties);
+    }
+
+    private TransferStore createTransferStore() {
+        final DataPersistence persistence = new DataPersistence(mContext, TransferStore.TRANSFER_CACHE);
+        persistence.clear();
+        return new TransferStore(persistence);
+    }
+
+    private static byte[] createData(final int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        return data;
+    }
+
+
+    // ==============================================================
+
+
+    private static final class RecordingClient extends RemoteClient.Default {
+
+        private final List<HttpUriRequest> mRequests = new ArrayList<HttpUriRequest>();
+
+        private boolean mFailFirstRequest;
+        private int mFailAfterRequests = -1;
+        private boolean mAcceptSegments = true;
+
+        public RecordingClient(final Context context, final TransferStore transferStore) {
+            super(context, null, transferStore);
+        }
+
+        @Override
+        protected boolean putSegment(final HttpUriRequest request, final boolean force) throws Exception {
+            record(request);
+            return mAcceptSegments;
+        }
+
+        @Override
+        protected String execute(final HttpUriRequest request, final boolean force) throws Exception {
+            record(request);
+            return "";
+        }
+
+        private void record(final HttpUriRequest request) throws DataHttpException {
+            if (mRequests.size() == mFailAfterRequests) {
+                throw new DataHttpException(503, "Service Unavailable");
+            }
+
+            mRequests.add(request);
+
+            if (mFailFirstRequest && mRequests.size() == 1) {
+                throw new DataHttpException(416, "Requested Range Not Satisfiable");
+            }
+        }
+
+        public String getContentRange(final int index) {
+            return mRequests.get(index).getFirstHeader(CONTENT_RANGE).getValue();
+        }
+    }
+
+    private static final class HeaderMatcher extends ArgumentMatcher<HttpUriRequest> {
+
+        private final String mName;
+        private final String mValue;
+
+        public HeaderMatcher(final String name, final String value) {
+            mName = name;
+            mValue = value;
+        }
+
+        @Override
+        public boolean matches(final Object argument) {
+            final Header header = ((HttpUriRequest) argument).getFirstHeader(mName);
+            return header != null && mValue.equals(header.getValue());
+        }
+    }
 }
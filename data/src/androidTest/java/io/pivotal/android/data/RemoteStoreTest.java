@@ -58,6 +58,11 @@ public class RemoteStoreTest extends AndroidTestCase {
         public Response<Object> execute(final Request<Object> request) {
             return null;
         }
+
+        @Override
+        protected Response<Object> executeRequest(final Request<Object> request) {
+            return null;
+        }
     }
 
 }
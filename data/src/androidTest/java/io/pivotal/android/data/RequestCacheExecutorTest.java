@@ -5,6 +5,7 @@ package io.pivotal.android.data;
 
 import android.test.AndroidTestCase;
 
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 
 @SuppressWarnings("unchecked")
@@ -88,4 +89,200 @@ public class RequestCacheExecutorTest extends AndroidTestCase {
         Mockito.verify(offlineStore).execute(request);
         Mockito.verify(fallbackStore).execute(Mockito.isA(Request.Put.class));
     }
-}
\ No newline at end of file
+
+    public void testExecuteDrainsHigherPriorityFirst() {
+        final PendingRequest background = new PendingRequest(new Request(Request.Methods.GET, new Object(), false));
+        final PendingRequest interactive = new PendingRequest(new Request(Request.Methods.GET, new Object(), false));
+        background.priority = Request.Priorities.BACKGROUND;
+        interactive.priority = Request.Priorities.INTERACTIVE;
+
+        final PendingRequest.List list = new PendingRequest.List();
+        list.add(background);
+        list.add(interactive);
+
+        final OfflineStore offlineStore = Mockito.mock(OfflineStore.class);
+        final RequestCacheExecutor executor = new RequestCacheExecutor(offlineStore, null);
+
+        executor.execute(list);
+
+        final InOrder inOrder = Mockito.inOrder(offlineStore);
+        inOrder.verify(offlineStore).execute(interactive);
+        inOrder.verify(offlineStore).execute(background);
+    }
+
+    public void testExecuteDoesNotReorderRequestsForSameKey() {
+        final KeyValue object = new KeyValue("collection", "key", "value");
+        final PendingRequest put = new PendingRequest(new Request(Request.Methods.PUT, object, false));
+        final PendingRequest delete = new PendingRequest(new Request(Request.Methods.DELETE, object, false));
+        put.priority = Request.Priorities.BACKGROUND;
+        delete.priority = Request.Priorities.INTERACTIVE;
+
+        final PendingRequest.List list = new PendingRequest.List();
+        list.add(put);
+        list.add(delete);
+
+        final OfflineStore offlineStore = Mockito.mock(OfflineStore.class);
+        final RequestCacheExecutor executor = new RequestCacheExecutor(offlineStore, null);
+
+        Mockito.when(offlineStore.execute(Mockito.any(Request.class))).thenReturn(new Response(object));
+
+        executor.execute(list);
+
+        final InOrder inOrder = Mockito.inOrder(offlineStore);
+        inOrder.verify(offlineStore).execute(put);
+        inOrder.verify(offlineStore).execute(delete);
+    }
+
+    public void testExecuteTransientFailureRequeuesWithoutFallback() throws Exception {
+        final Response response = new Response(new Object(), new DataError(new DataHttpException(503, "")));
+        final PendingRequest request = new PendingRequest(new Request(METHOD_PUT_OR_DELETE, new Object(), false));
+
+        final PendingRequest.List list = new PendingRequest.List();
+        list.add(request);
+
+        final OfflineStore offlineStore = Mockito.mock(OfflineStore.class);
+        final DataStore fallbackStore = Mockito.mock(DataStore.class);
+        final RequestCacheQueue queue = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheQueue deadLetters = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheExecutor executor = new RequestCacheExecutor(offlineStore, fallbackStore, queue, deadLetters, 3);
+
+        Mockito.when(offlineStore.execute(Mockito.any(PendingRequest.class))).thenReturn(response);
+
+        assertFalse(executor.execute(request));
+
+        assertEquals(1, request.attempts);
+        assertEquals(503, request.errorCode);
+        assertTrue(request.retryAt > System.currentTimeMillis());
+
+        Mockito.verify(queue).add(request);
+        Mockito.verify(deadLetters, Mockito.never()).add(Mockito.any(PendingRequest.class));
+        Mockito.verify(fallbackStore, Mockito.never()).execute(Mockito.any(Request.class));
+    }
+
+    public void testExecuteTransientFailureWithExhaustedBudgetGoesToDeadLetters() throws Exception {
+        final Response response = new Response(new Object(), new DataError(new DataHttpException(503, "")));
+        final PendingRequest request = new PendingRequest(new Request(METHOD_PUT_OR_DELETE, new Object(), false));
+        request.attempts = 2;
+
+        final PendingRequest.List list = new PendingRequest.List();
+        list.add(request);
+
+        final OfflineStore offlineStore = Mockito.mock(OfflineStore.class);
+        final DataStore fallbackStore = Mockito.mock(DataStore.class);
+        final RequestCacheQueue queue = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheQueue deadLetters = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheExecutor executor = new RequestCacheExecutor(offlineStore, fallbackStore, queue, deadLetters, 3);
+
+        Mockito.when(offlineStore.execute(Mockito.any(PendingRequest.class))).thenReturn(response);
+
+        executor.execute(list);
+
+        Mockito.verify(queue, Mockito.never()).add(Mockito.any(PendingRequest.class));
+        Mockito.verify(deadLetters).add(request);
+        Mockito.verify(fallbackStore).execute(Mockito.isA(Request.Put.class));
+    }
+
+    public void testExecutePermanentFailureGoesToDeadLetters() throws Exception {
+        final Response response = new Response(new Object(), new DataError(new DataHttpException(400, "")));
+        final PendingRequest request = new PendingRequest(new Request(METHOD_PUT_OR_DELETE, new Object(), false));
+
+        final PendingRequest.List list = new PendingRequest.List();
+        list.add(request);
+
+        final OfflineStore offlineStore = Mockito.mock(OfflineStore.class);
+        final DataStore fallbackStore = Mockito.mock(DataStore.class);
+        final RequestCacheQueue queue = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheQueue deadLetters = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheExecutor executor = new RequestCacheExecutor(offlineStore, fallbackStore, queue, deadLetters, 3);
+
+        Mockito.when(offlineStore.execute(Mockito.any(PendingRequest.class))).thenReturn(response);
+
+        executor.execute(list);
+
+        assertEquals(400, request.errorCode);
+
+        Mockito.verify(queue, Mockito.never()).add(Mockito.any(PendingRequest.class));
+        Mockito.verify(deadLetters).add(request);
+        Mockito.verify(fallbackStore).execute(Mockito.isA(Request.Put.class));
+    }
+
+    public void testExecuteRequeuesRequestsThatAreNotDue() throws Exception {
+        final PendingRequest request = new PendingRequest(new Request(METHOD_PUT_OR_DELETE, new Object(), false));
+        request.retryAt = System.currentTimeMillis() + RequestCacheExecutor.Retries.MAX_DELAY;
+
+        final PendingRequest.List list = new PendingRequest.List();
+        list.add(request);
+
+        final OfflineStore offlineStore = Mockito.mock(OfflineStore.class);
+        final RequestCacheQueue queue = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheExecutor executor = new RequestCacheExecutor(offlineStore, null, queue, null, 3);
+
+        executor.execute(list);
+
+        Mockito.verify(queue).add(request);
+        Mockito.verify(offlineStore, Mockito.never()).execute(Mockito.any(Request.class));
+    }
+
+    public void testExecuteRequeuesLaterRequestsBehindRetriedRequest() throws Exception {
+        final Response failure = new Response(new Object(), new DataError(new DataHttpException(503, "")));
+        final KeyValue keyValue = new KeyValue("collection", "key", "value");
+        final PendingRequest retried = new PendingRequest(new Request(Request.Methods.PUT, keyValue, false));
+        final PendingRequest later = new PendingRequest(new Request(Request.Methods.PUT, new KeyValue(keyValue, "later"), false));
+
+        final PendingRequest.List list = new PendingRequest.List();
+        list.add(retried);
+        list.add(later);
+
+        final OfflineStore offlineStore = Mockito.mock(OfflineStore.class);
+        final RequestCacheQueue queue = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheExecutor executor = new RequestCacheExecutor(offlineStore, null, queue, null, 3);
+
+        Mockito.when(offlineStore.execute(retried)).thenReturn(failure);
+
+        executor.execute(list);
+
+        final InOrder inOrder = Mockito.inOrder(queue);
+        inOrder.verify(queue).add(retried);
+        inOrder.verify(queue).add(later);
+        Mockito.verify(offlineStore, Mockito.never()).execute(later);
+    }
+
+    public void testDiscardRestoresFallback() throws Exception {
+        final PendingRequest request = new PendingRequest(new Request(Request.Methods.PUT, new KeyValue("collection", "key", "value"), false));
+        final DataStore fallbackStore = Mockito.mock(DataStore.class);
+        final RequestCacheQueue queue = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheQueue deadLetters = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheExecutor executor = new RequestCacheExecutor(null, fallbackStore, queue, deadLetters, 3);
+
+        Mockito.when(queue.hasWrites("collection:key")).thenReturn(false);
+
+        executor.discard(request);
+
+        Mockito.verify(fallbackStore).execute(Mockito.isA(Request.Put.class));
+        Mockito.verify(deadLetters).add(request);
+    }
+
+    public void testDiscardKeepsLocalValueOfLaterQueuedWrite() throws Exception {
+        final PendingRequest request = new PendingRequest(new Request(Request.Methods.PUT, new KeyValue("collection", "key", "value"), false));
+        final DataStore fallbackStore = Mockito.mock(DataStore.class);
+        final RequestCacheQueue queue = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheQueue deadLetters = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheExecutor executor = new RequestCacheExecutor(null, fallbackStore, queue, deadLetters, 3);
+
+        Mockito.when(queue.hasWrites("collection:key")).thenReturn(true);
+
+        executor.discard(request);
+
+        Mockito.verify(fallbackStore, Mockito.never()).execute(Mockito.any(Request.class));
+        Mockito.verify(deadLetters).add(request);
+    }
+
+    public void testGetBackoff() {
+        final long base = RequestCacheExecutor.Retries.BASE_DELAY;
+
+        assertEquals(base, RequestCacheExecutor.getBackoff(1));
+        assertEquals(base * 2, RequestCacheExecutor.getBackoff(2));
+        assertEquals(base * 4, RequestCacheExecutor.getBackoff(3));
+        assertEquals(RequestCacheExecutor.Retries.MAX_DELAY, RequestCacheExecutor.getBackoff(100));
+    }
+}
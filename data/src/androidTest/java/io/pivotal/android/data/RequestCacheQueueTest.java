@@ -9,6 +9,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import org.mockito.Mockito;
 
+import java.util.Arrays;
 import java.util.UUID;
 
 public class RequestCacheQueueTest extends AndroidTestCase {
@@ -72,7 +73,7 @@ public class RequestCacheQueueTest extends AndroidTestCase {
     }
 
     @SuppressWarnings("unchecked")
-    public void testAdd() {
+    public void testAdd() throws Exception {
         final Object object = new Object();
         final Request request = new Request(METHOD, object, false);
         final PendingRequest pendingRequest = new PendingRequest(request);
@@ -114,4 +115,277 @@ public class RequestCacheQueueTest extends AndroidTestCase {
 
         Mockito.verify(persistence).deleteString(REQUEST_KEY);
     }
-}
\ No newline at end of file
+
+    @SuppressWarnings("unchecked")
+    public void testGetDepth() {
+        final Request interactive = new Request(METHOD, new Object(), false);
+        final Request background = new Request(METHOD, new Object(), false);
+        interactive.priority = Request.Priorities.INTERACTIVE;
+        background.priority = Request.Priorities.BACKGROUND;
+
+        final PendingRequest.List list = new PendingRequest.List();
+        list.add(new PendingRequest(interactive));
+        list.add(new PendingRequest(background));
+        list.add(new PendingRequest(background));
+
+        final RequestCacheQueue queue = Mockito.spy(new RequestCacheQueue(null));
+
+        Mockito.stub(queue.getRequests()).toReturn(list);
+
+        assertEquals(1, queue.getDepth(Request.Priorities.INTERACTIVE));
+        assertEquals(0, queue.getDepth(Request.Priorities.NORMAL));
+        assertEquals(2, queue.getDepth(Request.Priorities.BACKGROUND));
+    }
+
+    public void testAddRejectsWhenFull() throws Exception {
+        final RequestCacheQueue.Limits limits = new RequestCacheQueue.Limits(1, 0, RequestCacheQueue.OverflowPolicies.REJECT);
+        final RequestCacheQueue<KeyValue> queue = Mockito.spy(new RequestCacheQueue<KeyValue>(null, limits));
+        final PendingRequest.List<KeyValue> list = new PendingRequest.List<KeyValue>();
+        list.add(createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL));
+
+        Mockito.stub(queue.getRequests()).toReturn(list);
+
+        try {
+            queue.add(createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL));
+            fail("Expected exception");
+        } catch (final RequestCacheFullException e) {
+            assertNotNull(e);
+        }
+
+        assertEquals(1, list.size());
+        Mockito.verify(queue, Mockito.never()).putRequests(Mockito.any(PendingRequest.List.class));
+    }
+
+    public void testAddDropsOldestBackgroundWhenFull() throws Exception {
+        final RequestCacheQueue.Limits limits = new RequestCacheQueue.Limits(2, 0, RequestCacheQueue.OverflowPolicies.DROP_OLDEST_BACKGROUND);
+        final RequestCacheQueue<KeyValue> queue = Mockito.spy(new RequestCacheQueue<KeyValue>(null, limits));
+        final PendingRequest<KeyValue> normal = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL);
+        final PendingRequest<KeyValue> background = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.BACKGROUND);
+        final PendingRequest<KeyValue> interactive = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.INTERACTIVE);
+        final PendingRequest.List<KeyValue> list = new PendingRequest.List<KeyValue>();
+        list.add(normal);
+        list.add(background);
+
+        Mockito.stub(queue.getRequests()).toReturn(list);
+        Mockito.doNothing().when(queue).putRequests(Mockito.any(PendingRequest.List.class));
+
+        queue.add(interactive);
+
+        assertEquals(2, list.size());
+        assertEquals(normal, list.get(0));
+        assertEquals(interactive, list.get(1));
+        Mockito.verify(queue).putRequests(list);
+    }
+
+    public void testAddCompactsWhenFull() throws Exception {
+        final RequestCacheQueue.Limits limits = new RequestCacheQueue.Limits(2, 0, RequestCacheQueue.OverflowPolicies.COMPACT_THEN_RETRY);
+        final RequestCacheQueue<KeyValue> queue = Mockito.spy(new RequestCacheQueue<KeyValue>(null, limits));
+        final PendingRequest<KeyValue> first = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.BACKGROUND);
+        final PendingRequest<KeyValue> second = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL);
+        final PendingRequest<KeyValue> other = createPendingRequest(Request.Methods.DELETE, VALUE, Request.Priorities.NORMAL);
+        final KeyValue fallback = new KeyValue(COLLECTION, KEY, VALUE);
+        first.fallback = fallback;
+
+        final PendingRequest.List<KeyValue> list = new PendingRequest.List<KeyValue>();
+        list.add(first);
+        list.add(second);
+
+        Mockito.stub(queue.getRequests()).toReturn(list);
+        Mockito.doNothing().when(queue).putRequests(Mockito.any(PendingRequest.List.class));
+
+        queue.add(other);
+
+        assertEquals(2, list.size());
+        assertEquals(second, list.get(0));
+        assertEquals(fallback, second.fallback);
+        assertEquals(other, list.get(1));
+        Mockito.verify(queue).putRequests(list);
+    }
+
+    public void testAddRejectsWhenCompactionIsNotEnough() throws Exception {
+        final RequestCacheQueue.Limits limits = new RequestCacheQueue.Limits(1, 0, RequestCacheQueue.OverflowPolicies.COMPACT_THEN_RETRY);
+        final RequestCacheQueue<KeyValue> queue = Mockito.spy(new RequestCacheQueue<KeyValue>(null, limits));
+        final PendingRequest.List<KeyValue> list = new PendingRequest.List<KeyValue>();
+        list.add(createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL));
+
+        Mockito.stub(queue.getRequests()).toReturn(list);
+
+        try {
+            queue.add(createPendingRequest(Request.Methods.PUT, VALUE, Request.Priorities.NORMAL));
+            fail("Expected exception");
+        } catch (final RequestCacheFullException e) {
+            assertNotNull(e);
+        }
+    }
+
+    public void testAddRestoresQueueWhenCompactionIsNotEnough() throws Exception {
+        final RequestCacheQueue.Limits limits = new RequestCacheQueue.Limits(1, 0, RequestCacheQueue.OverflowPolicies.COMPACT_THEN_RETRY);
+        final RequestCacheQueue<KeyValue> queue = Mockito.spy(new RequestCacheQueue<KeyValue>(null, limits));
+        final PendingRequest<KeyValue> first = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL);
+        final PendingRequest<KeyValue> other = createPendingRequest(Request.Methods.PUT, VALUE, Request.Priorities.NORMAL);
+        final PendingRequest.List<KeyValue> list = new PendingRequest.List<KeyValue>();
+        list.add(first);
+        list.add(other);
+
+        Mockito.stub(queue.getRequests()).toReturn(list);
+
+        try {
+            queue.add(createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL));
+            fail("Expected exception");
+        } catch (final RequestCacheFullException e) {
+            assertNotNull(e);
+        }
+
+        assertEquals(Arrays.asList(first, other), queue.peek());
+        Mockito.verify(queue, Mockito.never()).putRequests(Mockito.any(PendingRequest.List.class));
+    }
+
+    public void testAddReadsPersistedQueueOnce() throws Exception {
+        final RequestCacheQueue<KeyValue> queue = Mockito.spy(new RequestCacheQueue<KeyValue>(null));
+        final PendingRequest.List<KeyValue> list = new PendingRequest.List<KeyValue>();
+
+        Mockito.stub(queue.getRequests()).toReturn(list);
+        Mockito.doNothing().when(queue).putRequests(Mockito.any(PendingRequest.List.class));
+
+        queue.add(createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL));
+        queue.add(createPendingRequest(Request.Methods.PUT, VALUE, Request.Priorities.NORMAL));
+
+        assertEquals(2, list.size());
+        Mockito.verify(queue, Mockito.times(1)).getRequests();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testAddReportsDroppedWrites() throws Exception {
+        final RequestCacheQueue.Limits limits = new RequestCacheQueue.Limits(2, 0, RequestCacheQueue.OverflowPolicies.DROP_OLDEST_BACKGROUND);
+        final RequestCacheQueue<KeyValue> queue = Mockito.spy(new RequestCacheQueue<KeyValue>(null, limits));
+        final RequestCacheQueue.DropListener<KeyValue> listener = Mockito.mock(RequestCacheQueue.DropListener.class);
+        final PendingRequest<KeyValue> first = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.BACKGROUND);
+        final PendingRequest<KeyValue> second = createPendingRequest(Request.Methods.DELETE, VALUE, Request.Priorities.BACKGROUND);
+        final PendingRequest<KeyValue> interactive = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.INTERACTIVE);
+        final PendingRequest.List<KeyValue> list = new PendingRequest.List<KeyValue>();
+        list.add(first);
+        list.add(second);
+
+        Mockito.stub(queue.getRequests()).toReturn(list);
+        Mockito.doNothing().when(queue).putRequests(Mockito.any(PendingRequest.List.class));
+        queue.setDropListener(listener);
+
+        queue.add(interactive);
+
+        assertEquals(2, list.size());
+        assertEquals(second, list.get(0));
+        assertEquals(interactive, list.get(1));
+        Mockito.verify(listener).onDropped(first);
+        Mockito.verify(listener, Mockito.never()).onDropped(second);
+        Mockito.verify(queue, Mockito.times(1)).putRequests(list);
+    }
+
+    public void testWriteFromAnotherQueueIsSeen() throws Exception {
+        final RequestCacheQueue.Limits limits = new RequestCacheQueue.Limits(0, 0, RequestCacheQueue.OverflowPolicies.REJECT);
+        final DataPersistence persistence = new DataPersistence(mContext, "PCFData:RequestCacheQueueTest");
+        persistence.clear();
+
+        final RequestCacheQueue<KeyValue> first = new RequestCacheQueue<KeyValue>(persistence, limits);
+        final RequestCacheQueue<KeyValue> second = new RequestCacheQueue<KeyValue>(new DataPersistence(mContext, "PCFData:RequestCacheQueueTest"), limits);
+
+        first.add(createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL));
+        second.add(createPendingRequest(Request.Methods.PUT, VALUE, Request.Priorities.NORMAL));
+
+        assertEquals(2, first.peek().size());
+        assertEquals(2, second.peek().size());
+
+        first.empty();
+
+        assertEquals(0, second.peek().size());
+    }
+
+    private static PendingRequest<KeyValue> createPendingRequest(final int method, final String key, final int priority) {
+        final Request<KeyValue> request = new Request<KeyValue>(method, new KeyValue(COLLECTION, key, VALUE), false);
+        request.priority = priority;
+        return new PendingRequest<KeyValue>(request);
+    }
+
+    public void testRemove() {
+        final PendingRequest<KeyValue> first = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL);
+        final PendingRequest<KeyValue> second = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL);
+        final PendingRequest.List<KeyValue> list = new PendingRequest.List<KeyValue>();
+        list.add(first);
+        list.add(second);
+
+        final RequestCacheQueue<KeyValue> queue = Mockito.spy(new RequestCacheQueue<KeyValue>(null));
+
+        Mockito.stub(queue.getRequests()).toReturn(list);
+        Mockito.doNothing().when(queue).putRequests(Mockito.any(PendingRequest.List.class));
+
+        final PendingRequest<KeyValue> copy = new PendingRequest<KeyValue>(second);
+        copy.id = second.id;
+
+        assertTrue(queue.remove(copy));
+        assertFalse(queue.remove(createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL)));
+
+        assertEquals(1, list.size());
+        assertEquals(first, list.get(0));
+        Mockito.verify(queue).putRequests(list);
+    }
+
+    public void testRemoveListPersistsOnce() {
+        final PendingRequest<KeyValue> first = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL);
+        final PendingRequest<KeyValue> second = createPendingRequest(Request.Methods.PUT, VALUE, Request.Priorities.NORMAL);
+        final PendingRequest<KeyValue> third = createPendingRequest(Request.Methods.DELETE, KEY, Request.Priorities.NORMAL);
+        final PendingRequest.List<KeyValue> list = new PendingRequest.List<KeyValue>();
+        list.add(first);
+        list.add(second);
+        list.add(third);
+
+        final RequestCacheQueue<KeyValue> queue = Mockito.spy(new RequestCacheQueue<KeyValue>(null));
+
+        Mockito.stub(queue.getRequests()).toReturn(list);
+        Mockito.doNothing().when(queue).putRequests(Mockito.any(PendingRequest.List.class));
+
+        assertEquals(2, queue.remove(Arrays.asList(first, third)));
+
+        assertEquals(1, list.size());
+        assertEquals(second, list.get(0));
+        Mockito.verify(queue, Mockito.times(1)).putRequests(list);
+    }
+
+    public void testAddUpdatesQueuedRequestWithSameId() throws Exception {
+        final PendingRequest<KeyValue> first = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL);
+        final PendingRequest<KeyValue> second = createPendingRequest(Request.Methods.PUT, VALUE, Request.Priorities.NORMAL);
+        final PendingRequest.List<KeyValue> list = new PendingRequest.List<KeyValue>();
+        list.add(first);
+        list.add(second);
+
+        final RequestCacheQueue<KeyValue> queue = Mockito.spy(new RequestCacheQueue<KeyValue>(null));
+
+        Mockito.stub(queue.getRequests()).toReturn(list);
+        Mockito.doNothing().when(queue).putRequests(Mockito.any(PendingRequest.List.class));
+
+        final PendingRequest<KeyValue> retried = new PendingRequest<KeyValue>(first);
+        retried.id = first.id;
+        retried.attempts = 1;
+
+        queue.add(retried);
+
+        assertEquals(2, list.size());
+        assertEquals(retried, list.get(0));
+        assertEquals(second, list.get(1));
+    }
+
+    public void testPeekAssignsMissingIds() {
+        final PendingRequest<KeyValue> request = createPendingRequest(Request.Methods.PUT, KEY, Request.Priorities.NORMAL);
+        request.id = null;
+
+        final PendingRequest.List<KeyValue> list = new PendingRequest.List<KeyValue>();
+        list.add(request);
+
+        final RequestCacheQueue<KeyValue> queue = Mockito.spy(new RequestCacheQueue<KeyValue>(null));
+
+        Mockito.stub(queue.getRequests()).toReturn(list);
+        Mockito.doNothing().when(queue).putRequests(Mockito.any(PendingRequest.List.class));
+
+        assertEquals(list, queue.peek());
+        assertNotNull(request.id);
+        Mockito.verify(queue).putRequests(list);
+    }
+}
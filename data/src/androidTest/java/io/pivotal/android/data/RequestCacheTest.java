@@ -5,8 +5,14 @@ package io.pivotal.android.data;
 
 import android.test.AndroidTestCase;
 
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
 @SuppressWarnings("unchecked")
 public class RequestCacheTest extends AndroidTestCase {
 
@@ -16,7 +22,7 @@ public class RequestCacheTest extends AndroidTestCase {
         System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
     }
 
-    public void testDefaultQueueRequest() {
+    public void testDefaultQueueRequest() throws Exception {
         final Request request = Mockito.mock(Request.class);
         final PendingRequest queued = Mockito.mock(PendingRequest.class);
         final RequestCacheQueue queue = Mockito.mock(RequestCacheQueue.class);
@@ -42,4 +48,133 @@ public class RequestCacheTest extends AndroidTestCase {
 
         Mockito.verify(executor).execute(list);
     }
-}
\ No newline at end of file
+
+    public void testDefaultExecutePendingWithBudget() {
+        final RequestCacheQueue queue = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheExecutor executor = Mockito.mock(RequestCacheExecutor.class);
+        final PendingRequest first = new PendingRequest(new Request(Request.Methods.PUT, new Object(), false));
+        final PendingRequest second = new PendingRequest(new Request(Request.Methods.PUT, new Object(), false));
+        final PendingRequest third = new PendingRequest(new Request(Request.Methods.PUT, new Object(), false));
+        final PendingRequest.List list = new PendingRequest.List();
+        list.add(first);
+        list.add(second);
+        list.add(third);
+
+        final PendingRequest.List remaining = new PendingRequest.List();
+        remaining.add(third);
+
+        final RequestCache.Default defaultCache = new RequestCache.Default(queue, executor);
+
+        Mockito.when(queue.peek()).thenReturn(list, remaining);
+        Mockito.when(executor.execute(Mockito.any(PendingRequest.class))).thenReturn(true);
+
+        assertTrue(defaultCache.executePending(new RequestCache.Budget(2, 0)));
+
+        final InOrder inOrder = Mockito.inOrder(executor, queue);
+        inOrder.verify(executor).execute(first);
+        inOrder.verify(executor).execute(second);
+        inOrder.verify(queue).remove(Arrays.asList(first, second));
+
+        Mockito.verify(queue, Mockito.never()).remove(Mockito.any(PendingRequest.class));
+        Mockito.verify(executor, Mockito.never()).execute(third);
+    }
+
+    public void testDefaultExecutePendingKeepsRetriedRequests() {
+        final RequestCacheQueue queue = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheExecutor executor = Mockito.mock(RequestCacheExecutor.class);
+        final PendingRequest finished = new PendingRequest(new Request(Request.Methods.PUT, new Object(), false));
+        final PendingRequest retried = new PendingRequest(new Request(Request.Methods.PUT, new Object(), false));
+        final PendingRequest.List list = new PendingRequest.List();
+        list.add(finished);
+        list.add(retried);
+
+        final RequestCache.Default defaultCache = new RequestCache.Default(queue, executor);
+
+        Mockito.when(queue.peek()).thenReturn(list, new PendingRequest.List());
+        Mockito.when(executor.execute(finished)).thenReturn(true);
+        Mockito.when(executor.execute(retried)).thenReturn(false);
+
+        assertFalse(defaultCache.executePending(RequestCache.Budget.UNLIMITED));
+
+        Mockito.verify(queue).remove(Arrays.asList(finished));
+    }
+
+    public void testDefaultExecutePendingSkipsRequestsThatAreNotDue() {
+        final RequestCacheQueue queue = Mockito.mock(RequestCacheQueue.class);
+        final RequestCacheExecutor executor = Mockito.mock(RequestCacheExecutor.class);
+        final PendingRequest request = new PendingRequest(new Request(Request.Methods.PUT, new Object(), false));
+        request.retryAt = System.currentTimeMillis() + RequestCacheExecutor.Retries.MAX_DELAY;
+
+        final PendingRequest.List list = new PendingRequest.List();
+        list.add(request);
+
+        final RequestCache.Default defaultCache = new RequestCache.Default(queue, executor);
+
+        Mockito.when(queue.peek()).thenReturn(list);
+
+        assertFalse(defaultCache.executePending(RequestCache.Budget.UNLIMITED));
+
+        Mockito.verify(queue, Mockito.never()).remove(request);
+        Mockito.verify(executor, Mockito.never()).execute(request);
+    }
+
+    public void testDefaultExecutePendingKeepsRetriedWriteBeforeLaterWrites() throws Exception {
+        final ServerStore server = new ServerStore(mContext);
+        final RequestCacheQueue<KeyValue> queue = new RequestCacheQueue<KeyValue>(new DataPersistence(mContext, UUID.randomUUID().toString()));
+        final RequestCacheExecutor<KeyValue> executor = new RequestCacheExecutor<KeyValue>(server, null, queue, null, 3);
+        final RequestCache.Default<KeyValue> defaultCache = new RequestCache.Default<KeyValue>(queue, executor);
+        final KeyValue first = new KeyValue("collection", "key", "first");
+        final KeyValue second = new KeyValue("collection", "key", "second");
+
+        server.mFailures = 1;
+        defaultCache.queue(new Request<KeyValue>(Request.Methods.PUT, first, false));
+        defaultCache.queue(new Request<KeyValue>(Request.Methods.PUT, second, false));
+
+        assertFalse(defaultCache.executePending(RequestCache.Budget.UNLIMITED));
+        assertNull(server.mValues.get(first.getIdentifier()));
+        assertEquals(2, queue.peek().size());
+
+        final PendingRequest<KeyValue> retried = queue.peek().get(0);
+        retried.retryAt = 0;
+        queue.add(retried);
+
+        assertFalse(defaultCache.executePending(RequestCache.Budget.UNLIMITED));
+        assertEquals("second", server.mValues.get(first.getIdentifier()));
+        assertTrue(queue.peek().isEmpty());
+    }
+
+    public void testBudgetIsExhausted() {
+        assertFalse(RequestCache.Budget.UNLIMITED.isExhausted(Integer.MAX_VALUE, Long.MAX_VALUE));
+
+        final RequestCache.Budget budget = new RequestCache.Budget(10, 1000);
+
+        assertFalse(budget.isExhausted(9, 999));
+        assertTrue(budget.isExhausted(10, 0));
+        assertTrue(budget.isExhausted(0, 1000));
+    }
+
+
+    // ==============================================================
+
+
+    private static final class ServerStore extends OfflineStore<KeyValue> {
+
+        private final Map<String, String> mValues = new HashMap<String, String>();
+
+        private int mFailures;
+
+        public ServerStore(final android.content.Context context) {
+            super(context, null, null);
+        }
+
+        @Override
+        public Response<KeyValue> execute(final Request<KeyValue> request) {
+            if (mFailures > 0) {
+                mFailures--;
+                return new Response<KeyValue>(request.object, new DataError(new DataHttpException(503, "")));
+            }
+            mValues.put(request.object.getIdentifier(), request.object.value);
+            return new Response<KeyValue>(request.object);
+        }
+    }
+}
@@ -88,4 +88,18 @@ public class ResponseTest extends AndroidTestCase {
 
         assertTrue(response.isUnauthorized());
     }
-}
\ No newline at end of file
+
+    public void testIsRequestCacheFull() {
+        final Response<Object> response = new Response<Object>();
+
+        assertFalse(response.isRequestCacheFull());
+
+        response.error = new DataError(new Exception());
+
+        assertFalse(response.isRequestCacheFull());
+
+        response.error = new DataError(new RequestCacheFullException(UUID.randomUUID().toString()));
+
+        assertTrue(response.isRequestCacheFull());
+    }
+}
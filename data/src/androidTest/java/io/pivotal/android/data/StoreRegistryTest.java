@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+public class StoreRegistryTest extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+        StoreRegistry.reset();
+    }
+
+    public void testGetReturnsSameRegistry() {
+        final StoreRegistry registry = StoreRegistry.get(mContext);
+
+        assertSame(registry, StoreRegistry.get(mContext));
+        assertSame(mContext.getApplicationContext(), registry.getContext());
+    }
+
+    public void testRegistryUsesSharedRequestCache() {
+        final StoreRegistry registry = StoreRegistry.get(mContext);
+
+        assertSame(registry.getRequestCache(), registry.getOfflineStore().getRequestCache());
+    }
+
+    public void testCreatedStoresShareRequestCache() {
+        final KeyValueOfflineStore first = KeyValueOfflineStore.create(mContext);
+        final KeyValueOfflineStore second = KeyValueOfflineStore.create(mContext);
+
+        assertNotSame(first, second);
+        assertSame(first.getRequestCache(), second.getRequestCache());
+        assertSame(StoreRegistry.get(mContext).getRequestCache(), first.getRequestCache());
+    }
+
+    public void testStoresAreSharedPerCollection() {
+        final KeyValueOfflineStore first = KeyValueOfflineStore.create(mContext, "first");
+
+        assertSame(first, KeyValueOfflineStore.create(mContext, "first"));
+        assertNotSame(first, KeyValueOfflineStore.create(mContext, "second"));
+        assertSame(StoreRegistry.get(mContext).getRequestCache(), first.getRequestCache());
+    }
+
+    public void testReplayUsesRegisteredConflictResolverOnly() {
+        final KeyValueOfflineStore store = KeyValueOfflineStore.create(mContext, "collection");
+        final KeyValueOfflineStore replayStore = StoreRegistry.get(mContext).getOfflineStore();
+        final Request<KeyValue> request = new Request<KeyValue>(Request.Methods.PUT, new KeyValue("collection", "key", "value"));
+
+        store.setConflictResolver(new TestConflictResolver());
+
+        assertTrue(store.canResolveConflict(request));
+        assertFalse(replayStore.canResolveConflict(request));
+
+        try {
+            Data.registerConflictResolver(new TestConflictResolver());
+
+            assertTrue(replayStore.canResolveConflict(request));
+        } finally {
+            Data.registerConflictResolver(null);
+        }
+    }
+
+    public void testResetCreatesNewRegistry() {
+        final StoreRegistry registry = StoreRegistry.get(mContext);
+
+        StoreRegistry.reset();
+
+        assertNotSame(registry, StoreRegistry.get(mContext));
+    }
+
+
+    // ==============================================================
+
+
+    private static final class TestConflictResolver implements OfflineStore.ConflictResolver<KeyValue> {
+
+        @Override
+        public KeyValue merge(final KeyValue base, final KeyValue local, final KeyValue remote) {
+            return local;
+        }
+    }
+}
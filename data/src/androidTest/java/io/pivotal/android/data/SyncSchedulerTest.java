@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class SyncSchedulerTest extends AndroidTestCase {
+
+    private DataExecutors mOriginalExecutors;
+    private RecordingExecutor mExecutor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+
+        mOriginalExecutors = DataExecutors.getInstance();
+        mExecutor = new RecordingExecutor();
+        Data.registerExecutors(new DataExecutors(mExecutor, mExecutor, DataExecutors.IMMEDIATE));
+        Data.clearLocalCache(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncScheduler.cancelRequestedSync();
+        mExecutor.runAll();
+        Data.registerExecutors(mOriginalExecutors);
+        super.tearDown();
+    }
+
+    public void testSyncInBackgroundRunsOneSyncAtATime() {
+        SyncScheduler.syncInBackground(mContext, RequestCache.Budget.UNLIMITED);
+        SyncScheduler.syncInBackground(mContext, RequestCache.Budget.UNLIMITED);
+        SyncScheduler.syncInBackground(mContext, RequestCache.Budget.UNLIMITED);
+
+        assertTrue(SyncScheduler.isRunning());
+        assertEquals(1, mExecutor.runnables.size());
+    }
+
+    public void testTriggersDuringSyncAreMergedIntoOneFollowUp() {
+        SyncScheduler.syncInBackground(mContext, RequestCache.Budget.UNLIMITED);
+        SyncScheduler.syncInBackground(mContext, RequestCache.Budget.UNLIMITED);
+        SyncScheduler.syncInBackground(mContext, RequestCache.Budget.UNLIMITED);
+
+        mExecutor.runNext();
+
+        assertTrue(SyncScheduler.isRunning());
+        assertEquals(1, mExecutor.runnables.size());
+
+        mExecutor.runNext();
+
+        assertFalse(SyncScheduler.isRunning());
+        assertTrue(mExecutor.runnables.isEmpty());
+    }
+
+    public void testSyncPersistsPendingUntilFinished() {
+        SyncScheduler.syncInBackground(mContext, RequestCache.Budget.UNLIMITED);
+
+        assertTrue(SyncScheduler.isPending(mContext));
+
+        mExecutor.runNext();
+
+        assertFalse(SyncScheduler.isPending(mContext));
+        assertTrue(SyncScheduler.getLastSync(mContext) > 0);
+    }
+
+    public void testSyncThatThrowsIsRetriedWithBackoff() {
+        final RequestCache failing = Mockito.mock(RequestCache.class);
+        final RequestCache succeeding = Mockito.mock(RequestCache.class);
+
+        Mockito.when(failing.executePending(Mockito.any(RequestCache.Budget.class))).thenThrow(new IllegalStateException());
+        Mockito.when(succeeding.executePending(Mockito.any(RequestCache.Budget.class))).thenReturn(false);
+
+        assertTrue(SyncScheduler.sync(mContext, failing, RequestCache.Budget.UNLIMITED));
+
+        assertFalse(SyncScheduler.isRunning());
+        assertTrue(SyncScheduler.isPending(mContext));
+        assertEquals(1, SyncScheduler.getFailures());
+        assertTrue(mExecutor.runnables.isEmpty());
+
+        assertFalse(SyncScheduler.sync(mContext, succeeding, RequestCache.Budget.UNLIMITED));
+
+        assertFalse(SyncScheduler.isPending(mContext));
+        assertEquals(0, SyncScheduler.getFailures());
+    }
+
+    public void testSyncStaysPendingAndIsScheduledForRequestsWaitingToBeRetried() {
+        final RequestCache requestCache = Mockito.mock(RequestCache.class);
+
+        Mockito.when(requestCache.executePending(Mockito.any(RequestCache.Budget.class))).thenReturn(false);
+        Mockito.when(requestCache.getNextRetryAt()).thenReturn(System.currentTimeMillis() + RequestCacheExecutor.Retries.BASE_DELAY);
+
+        assertFalse(SyncScheduler.sync(mContext, requestCache, RequestCache.Budget.UNLIMITED));
+
+        assertTrue(SyncScheduler.isPending(mContext));
+        assertEquals(NetworkState.isConnected(mContext), SyncScheduler.isScheduled());
+    }
+
+    public void testPendingIsOnlyWrittenWhenItChanges() {
+        final RequestCache requestCache = Mockito.mock(RequestCache.class);
+        final List<String> changes = new ArrayList<String>();
+        final DataPersistence.ChangeListener listener = new DataPersistence.ChangeListener() {
+            @Override
+            public void onChange(final String key, final String value) {
+                changes.add(value);
+            }
+        };
+
+        assertFalse(SyncScheduler.sync(mContext, requestCache, RequestCache.Budget.UNLIMITED));
+
+        new DataPersistence(mContext, "PCFData:SyncState").addChangeListener(listener);
+
+        SyncScheduler.requestSync(mContext, RequestCache.Budget.UNLIMITED);
+        SyncScheduler.requestSync(mContext, RequestCache.Budget.UNLIMITED);
+        SyncScheduler.requestSync(mContext, RequestCache.Budget.UNLIMITED);
+
+        assertEquals(1, changes.size());
+        assertEquals("true", changes.get(0));
+    }
+
+    public void testRequestSyncIsDebounced() {
+        SyncScheduler.requestSync(mContext, RequestCache.Budget.UNLIMITED);
+
+        assertTrue(SyncScheduler.isPending(mContext));
+        assertTrue(mExecutor.runnables.isEmpty());
+    }
+
+
+    // ==============================================================
+
+
+    public static class RecordingExecutor implements Executor {
+
+        public final List<Runnable> runnables = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(final Runnable runnable) {
+            runnables.add(runnable);
+        }
+
+        public void runNext() {
+            runnables.remove(0).run();
+        }
+
+        public void runAll() {
+            while (!runnables.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+public class TextIndexTest extends AndroidTestCase {
+
+    private static final String COLLECTION = UUID.randomUUID().toString();
+
+    private DataPersistence mPersistence;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+        mPersistence = new DataPersistence(mContext, UUID.randomUUID().toString());
+    }
+
+    public void testTokenizeSplitsAndLowercases() {
+        assertEquals(Arrays.asList("hello", "world", "42"), TextIndex.tokenize("Hello, World! 42"));
+        assertTrue(TextIndex.tokenize(" -- ").isEmpty());
+    }
+
+    public void testAddIndexBackfillsExistingValues() {
+        put("a", "red apple");
+        put("b", "green pear");
+
+        final TextIndex index = new TextIndex(mPersistence);
+
+        assertTrue(index.addIndex(COLLECTION));
+        assertFalse(index.addIndex(COLLECTION));
+        assertEquals(Arrays.asList("b"), index.search(COLLECTION, "pear", 0, 10));
+    }
+
+    public void testWritesUpdateIndex() {
+        final TextIndex index = new TextIndex(mPersistence);
+        index.addIndex(COLLECTION);
+
+        put("a", "red apple");
+        put("b", "red pear");
+        put("a", "green apple");
+        mPersistence.deleteString(COLLECTION + ":b");
+
+        assertTrue(index.search(COLLECTION, "red", 0, 10).isEmpty());
+        assertEquals(Arrays.asList("a"), index.search(COLLECTION, "green", 0, 10));
+    }
+
+    public void testSearchRequiresEveryTermAndMatchesLastAsPrefix() {
+        final TextIndex index = new TextIndex(mPersistence);
+        index.addIndex(COLLECTION);
+
+        put("a", "red apple");
+        put("b", "red apricot");
+        put("c", "green apple");
+
+        // "apricot" is rarer than "apple"
+        assertEquals(Arrays.asList("b", "a"), index.search(COLLECTION, "red ap", 0, 10));
+        assertEquals(Arrays.asList("a"), index.search(COLLECTION, "apple red", 0, 10));
+        assertTrue(index.search(COLLECTION, "blue ap", 0, 10).isEmpty());
+    }
+
+    public void testSearchExpandsPrefixToEveryTerm() {
+        final TextIndex index = new TextIndex(mPersistence);
+        index.addIndex(COLLECTION);
+
+        for (int i = 0; i < 100; i++) {
+            put("k" + i, "item word" + i);
+        }
+        put("last", "other word99x");
+
+        assertEquals(101, index.search(COLLECTION, "word", 0, 200).size());
+        assertEquals(100, index.search(COLLECTION, "item word", 0, 200).size());
+        assertEquals(Arrays.asList("last"), index.search(COLLECTION, "other word", 0, 200));
+    }
+
+    public void testSearchRanksRareAndRepeatedTermsFirst() {
+        final TextIndex index = new TextIndex(mPersistence);
+        index.addIndex(COLLECTION);
+
+        put("a", "note");
+        put("b", "note note note");
+        put("c", "note");
+
+        assertEquals(Arrays.asList("b", "a", "c"), index.search(COLLECTION, "note", 0, 10));
+    }
+
+    public void testSearchPages() {
+        final TextIndex index = new TextIndex(mPersistence);
+        index.addIndex(COLLECTION);
+
+        for (final String key : new String[] { "a", "b", "c", "d" }) {
+            put(key, "same text");
+        }
+
+        assertEquals(Arrays.asList("a", "b"), index.search(COLLECTION, "same", 0, 2));
+        assertEquals(Arrays.asList("c", "d"), index.search(COLLECTION, "same", 2, 2));
+        assertTrue(index.search(COLLECTION, "same", 4, 2).isEmpty());
+    }
+
+    public void testSearchWithUnboundedLimit() {
+        final TextIndex index = new TextIndex(mPersistence);
+        index.addIndex(COLLECTION);
+
+        put("a", "same text");
+        put("b", "same text");
+
+        assertEquals(Arrays.asList("a", "b"), index.search(COLLECTION, "same", 0, Integer.MAX_VALUE));
+    }
+
+    public void testSearchIndexesJsonStringFields() {
+        final TextIndex index = new TextIndex(mPersistence);
+        index.addIndex(COLLECTION);
+
+        mPersistence.putString(COLLECTION + ":a", "{\"title\":\"Quarterly Report\",\"tags\":[\"finance\"],\"count\":7}");
+
+        assertEquals(Arrays.asList("a"), index.search(COLLECTION, "report fin", 0, 10));
+        assertTrue(index.search(COLLECTION, "title", 0, 10).isEmpty());
+    }
+
+    public void testSearchWithoutIndexFails() {
+        final TextIndex index = new TextIndex(mPersistence);
+
+        try {
+            index.search(COLLECTION, "text", 0, 10);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            assertNotNull(e);
+        }
+    }
+
+    private void put(final String key, final String value) {
+        mPersistence.putString(COLLECTION + ":" + key, value);
+    }
+}
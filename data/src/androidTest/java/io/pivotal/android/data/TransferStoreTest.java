@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+
+import java.util.UUID;
+
+public class TransferStoreTest extends AndroidTestCase {
+
+    private static final String URL = "http://" + UUID.randomUUID().toString() + ".com";
+    private static final String TAG = UUID.randomUUID().toString();
+
+    private DataPersistence mPersistence;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+
+        mPersistence = new DataPersistence(mContext, TransferStore.TRANSFER_CACHE);
+        mPersistence.clear();
+    }
+
+    public void testGetReturnsNullWhenNothingIsRecorded() {
+        final TransferStore store = new TransferStore(mPersistence);
+
+        assertNull(store.get(TransferStore.Directions.UPLOAD, URL));
+    }
+
+    public void testPutRecordsOffsetAndTag() {
+        final TransferStore store = new TransferStore(mPersistence);
+
+        store.put(TransferStore.Directions.UPLOAD, URL, new TransferStore.Transfer(1024, TAG));
+
+        final TransferStore.Transfer transfer = store.get(TransferStore.Directions.UPLOAD, URL);
+        assertEquals(1024, transfer.offset);
+        assertEquals(TAG, transfer.tag);
+    }
+
+    public void testDirectionsAreRecordedSeparately() {
+        final TransferStore store = new TransferStore(mPersistence);
+
+        store.put(TransferStore.Directions.UPLOAD, URL, new TransferStore.Transfer(1024, TAG));
+
+        assertNull(store.get(TransferStore.Directions.DOWNLOAD, URL));
+    }
+
+    public void testRemoveForgetsTransfer() {
+        final TransferStore store = new TransferStore(mPersistence);
+
+        store.put(TransferStore.Directions.DOWNLOAD, URL, new TransferStore.Transfer(1024, TAG));
+        store.remove(TransferStore.Directions.DOWNLOAD, URL);
+
+        assertNull(store.get(TransferStore.Directions.DOWNLOAD, URL));
+    }
+
+    public void testDigestIsHexMd5() {
+        assertEquals("900150983cd24fb0d6963f7d28e17f72", TransferStore.digest("abc".getBytes()));
+    }
+
+    public void testDigestOfStreamMatchesDigestOfBytes() throws Exception {
+        final byte[] bytes = TAG.getBytes();
+
+        assertEquals(TransferStore.digest(bytes), TransferStore.digest(new ByteArrayInputStream(bytes)));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+@SuppressWarnings("unchecked")
+public class TypedKeyValueObjectTest extends AndroidTestCase {
+
+    private static final String COLLECTION = UUID.randomUUID().toString();
+    private static final String KEY = UUID.randomUUID().toString();
+    private static final String VALUE = "{\"name\":\"name\",\"count\":3}";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+        TypedKeyValueObject.clearCache();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DataExecutors.register(null);
+        super.tearDown();
+    }
+
+    public void testGetDecodesValue() {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final TypedKeyValueObject<CodecTest.Item> object = new TypedKeyValueObject<CodecTest.Item>(keyValueObject, Codec.Json.of(CodecTest.Item.class));
+
+        Mockito.when(keyValueObject.get()).thenReturn(new Response<KeyValue>(new KeyValue(COLLECTION, KEY, VALUE)));
+
+        final Response<CodecTest.Item> response = object.get();
+
+        assertTrue(response.isSuccess());
+        assertEquals("name", response.object.name);
+        assertEquals(3, response.object.count);
+    }
+
+    public void testGetReturnsCachedInstanceForUnchangedValue() throws Exception {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final Codec<CodecTest.Item> codec = Mockito.spy(new Codec.Json<CodecTest.Item>(CodecTest.Item.class));
+        final TypedKeyValueObject<CodecTest.Item> object = new TypedKeyValueObject<CodecTest.Item>(keyValueObject, codec);
+
+        Mockito.when(keyValueObject.get()).thenReturn(new Response<KeyValue>(new KeyValue(COLLECTION, KEY, VALUE)));
+
+        final CodecTest.Item first = object.get().object;
+        final CodecTest.Item second = object.get().object;
+
+        assertSame(first, second);
+        Mockito.verify(codec).decode(VALUE);
+    }
+
+    public void testGetDecodesAgainWhenValueChanges() throws Exception {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final TypedKeyValueObject<CodecTest.Item> object = new TypedKeyValueObject<CodecTest.Item>(keyValueObject, Codec.Json.of(CodecTest.Item.class));
+
+        Mockito.when(keyValueObject.get()).thenReturn(
+                new Response<KeyValue>(new KeyValue(COLLECTION, KEY, VALUE)),
+                new Response<KeyValue>(new KeyValue(COLLECTION, KEY, "{\"name\":\"other\",\"count\":1}")));
+
+        final CodecTest.Item first = object.get().object;
+        final CodecTest.Item second = object.get().object;
+
+        assertNotSame(first, second);
+        assertEquals("other", second.name);
+    }
+
+    public void testGetReturnsNullForEmptyValue() {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final TypedKeyValueObject<CodecTest.Item> object = new TypedKeyValueObject<CodecTest.Item>(keyValueObject, Codec.Json.of(CodecTest.Item.class));
+
+        Mockito.when(keyValueObject.get()).thenReturn(new Response<KeyValue>(new KeyValue(COLLECTION, KEY, "")));
+
+        final Response<CodecTest.Item> response = object.get();
+
+        assertTrue(response.isSuccess());
+        assertNull(response.object);
+    }
+
+    public void testGetFailsForUndecodableValue() {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final TypedKeyValueObject<CodecTest.Item> object = new TypedKeyValueObject<CodecTest.Item>(keyValueObject, Codec.Json.of(CodecTest.Item.class));
+
+        Mockito.when(keyValueObject.get()).thenReturn(new Response<KeyValue>(new KeyValue(COLLECTION, KEY, "not json")));
+
+        assertTrue(object.get().isFailure());
+    }
+
+    public void testPutDoesNotCacheCallersInstance() throws Exception {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final Codec<CodecTest.Item> codec = Codec.Json.of(CodecTest.Item.class);
+        final TypedKeyValueObject<CodecTest.Item> object = new TypedKeyValueObject<CodecTest.Item>(keyValueObject, codec);
+        final CodecTest.Item item = codec.decode(VALUE);
+        final String encoded = codec.encode(item);
+
+        Mockito.when(keyValueObject.put(encoded)).thenReturn(new Response<KeyValue>(new KeyValue(COLLECTION, KEY, encoded)));
+        Mockito.when(keyValueObject.get()).thenReturn(new Response<KeyValue>(new KeyValue(COLLECTION, KEY, encoded)));
+
+        assertSame(item, object.put(item).object);
+
+        item.name = "mutated";
+
+        final CodecTest.Item stored = object.get().object;
+
+        assertNotSame(item, stored);
+        assertEquals("name", stored.name);
+        Mockito.verify(keyValueObject).put(encoded);
+    }
+
+    public void testPutWithListenerDeliversEncodeFailureOnCallbackExecutor() throws Exception {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final Codec<CodecTest.Item> codec = Mockito.mock(Codec.class);
+        final DataStore.Listener<CodecTest.Item> listener = Mockito.mock(DataStore.Listener.class);
+        final TypedKeyValueObject<CodecTest.Item> object = new TypedKeyValueObject<CodecTest.Item>(keyValueObject, codec);
+        final CodecTest.Item item = new CodecTest.Item();
+        final QueueExecutor callbacks = new QueueExecutor();
+
+        Mockito.when(codec.encode(item)).thenThrow(new RuntimeException());
+        DataExecutors.register(new DataExecutors(DataExecutors.IMMEDIATE, DataExecutors.IMMEDIATE, callbacks));
+
+        final DataFuture<CodecTest.Item> future = object.put(item, listener);
+
+        assertTrue(future.get().isFailure());
+        assertSame(item, future.get().object);
+        Mockito.verifyZeroInteractions(listener);
+
+        callbacks.runAll();
+
+        Mockito.verify(listener).onResponse(Mockito.any(Response.class));
+        Mockito.verify(keyValueObject, Mockito.never()).put(Mockito.anyString());
+    }
+
+    public void testGetWithListenerDecodesOnCallbackExecutor() throws Exception {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final DataStore.Listener<CodecTest.Item> listener = Mockito.mock(DataStore.Listener.class);
+        final TypedKeyValueObject<CodecTest.Item> object = new TypedKeyValueObject<CodecTest.Item>(keyValueObject, Codec.Json.of(CodecTest.Item.class));
+        final QueueExecutor callbacks = new QueueExecutor();
+
+        Mockito.when(keyValueObject.get()).thenReturn(new Response<KeyValue>(new KeyValue(COLLECTION, KEY, VALUE)));
+        DataExecutors.register(new DataExecutors(DataExecutors.IMMEDIATE, DataExecutors.IMMEDIATE, callbacks));
+
+        final DataFuture<CodecTest.Item> future = object.get(listener);
+
+        assertEquals("name", future.get().object.name);
+        Mockito.verifyZeroInteractions(listener);
+
+        callbacks.runAll();
+
+        Mockito.verify(listener).onResponse(Mockito.any(Response.class));
+    }
+
+    public void testDecodePassesFailuresThrough() {
+        final KeyValueObject keyValueObject = Mockito.mock(KeyValueObject.class);
+        final TypedKeyValueObject<CodecTest.Item> object = new TypedKeyValueObject<CodecTest.Item>(keyValueObject, Codec.Json.of(CodecTest.Item.class));
+        final DataError error = new DataError(new Exception());
+
+        final Response<CodecTest.Item> response = object.decode(new Response<KeyValue>(new KeyValue(COLLECTION, KEY, VALUE), error));
+
+        assertTrue(response.isFailure());
+        assertEquals(error, response.error);
+    }
+
+    // ==============================================================
+
+    private static final class QueueExecutor implements Executor {
+
+        private final List<Runnable> mRunnables = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(final Runnable runnable) {
+            mRunnables.add(runnable);
+        }
+
+        public void runAll() {
+            for (final Runnable runnable : mRunnables) {
+                runnable.run();
+            }
+            mRunnables.clear();
+        }
+    }
+}
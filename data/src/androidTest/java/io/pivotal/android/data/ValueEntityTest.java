@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+public class ValueEntityTest extends AndroidTestCase {
+
+    // one, two, three and four byte characters
+    private static final String VALUE = "a\u00e9\u20ac\ud83d\ude00";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", mContext.getCacheDir().getPath());
+    }
+
+    public void testGetLengthCountsEncodedBytes() throws Exception {
+        assertEquals(VALUE.getBytes("UTF-8").length, ValueEntity.getLength(VALUE));
+        assertEquals(0, ValueEntity.getLength(""));
+    }
+
+    public void testWriteToWritesEncodedValue() throws Exception {
+        final ValueEntity entity = new ValueEntity(VALUE);
+
+        assertEquals(VALUE.getBytes("UTF-8").length, entity.getContentLength());
+        assertTrue(Arrays.equals(VALUE.getBytes("UTF-8"), write(entity)));
+    }
+
+    public void testWriteToWritesValuesLargerThanTheBuffer() throws Exception {
+        final StringBuilder builder = new StringBuilder();
+        while (builder.length() < 100 * 1024) {
+            builder.append(VALUE);
+        }
+        final String value = builder.toString();
+
+        assertTrue(Arrays.equals(value.getBytes("UTF-8"), write(new ValueEntity(value))));
+    }
+
+    public void testWriteToWritesOnlyTheRange() throws Exception {
+        final byte[] bytes = VALUE.getBytes("UTF-8");
+
+        // the range splits the two and four byte characters
+        final ValueEntity entity = new ValueEntity(VALUE, 2, 8);
+
+        assertEquals(6, entity.getContentLength());
+        assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 2, 8), write(entity)));
+    }
+
+    public void testGetLengthCountsReplacedSurrogates() throws Exception {
+        final String value = "\ud83d" + VALUE + "\ude00x\ud83d";
+
+        assertEquals(value.getBytes("UTF-8").length, ValueEntity.getLength(value));
+    }
+
+    public void testSegmentsEncodeEachRange() throws Exception {
+        final String value = VALUE + "\ud83d" + VALUE + VALUE;
+        final byte[] bytes = value.getBytes("UTF-8");
+
+        // three byte segments split characters at different points
+        final ValueEntity.Segments segments = new ValueEntity.Segments(value, 3);
+
+        assertEquals(bytes.length, segments.getLength());
+
+        for (int start = 0; start < bytes.length; start += 3) {
+            final int end = Math.min(start + 3, bytes.length);
+            assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, start, end), write(segments.get(start, end))));
+        }
+    }
+
+    public void testSegmentsOfEmptyValue() throws Exception {
+        final ValueEntity.Segments segments = new ValueEntity.Segments("", 3);
+
+        assertEquals(0, segments.getLength());
+        assertEquals(0, write(segments.get(0, 0)).length);
+    }
+
+    public void testEntityIsRepeatable() throws Exception {
+        final ValueEntity entity = new ValueEntity(VALUE);
+
+        assertTrue(entity.isRepeatable());
+        assertTrue(Arrays.equals(write(entity), write(entity)));
+    }
+
+    private static byte[] write(final ValueEntity entity) throws Exception {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        entity.writeTo(outputStream);
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Converts between stored string values and objects. Implementations are
+ * expected to be thread-safe and reused.
+ */
+public interface Codec<T> {
+
+    public T decode(final String value) throws Exception;
+
+    public String encode(final T object) throws Exception;
+
+
+    /**
+     * Binds JSON values to a class through a reader and writer built once
+     * per codec from a shared mapper.
+     */
+    public static class Json<T> implements Codec<T> {
+
+        private static final ObjectMapper MAPPER = new ObjectMapper();
+        private static final ConcurrentHashMap<Class<?>, Json<?>> sCodecs = new ConcurrentHashMap<Class<?>, Json<?>>();
+
+        /**
+         * Returns the shared codec for a class.
+         */
+        @SuppressWarnings("unchecked")
+        public static <T> Json<T> of(final Class<T> type) {
+            final Json<?> codec = sCodecs.get(type);
+            if (codec != null) {
+                return (Json<T>) codec;
+            }
+            final Json<?> existing = sCodecs.putIfAbsent(type, new Json<T>(type));
+            return (Json<T>) (existing != null ? existing : sCodecs.get(type));
+        }
+
+        private final ObjectReader mReader;
+        private final ObjectWriter mWriter;
+
+        public Json(final Class<T> type) {
+            mReader = MAPPER.reader(type);
+            mWriter = MAPPER.writerWithType(type);
+        }
+
+        @Override
+        public T decode(final String value) throws Exception {
+            return mReader.readValue(value);
+        }
+
+        @Override
+        public String encode(final T object) throws Exception {
+            return mWriter.writeValueAsString(object);
+        }
+    }
+}
@@ -16,7 +16,7 @@ public class ConnectivityReceiver extends BroadcastReceiver {
         @Override
         public void onNetworkStatusChanged(final Context context, final boolean connected) {
             if (connected) {
-                Data.syncInBackground(context);
+                SyncScheduler.requestSync(context, RequestCache.Budget.UNLIMITED);
             }
         }
     };
@@ -24,12 +24,12 @@ public class ConnectivityReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(final Context context, final Intent intent) {
 
+        final boolean connected = NetworkState.refresh(context).connected;
+
         if (sConnectivityListener == null) {
             return;
         }
 
-        final boolean connected = Connectivity.isConnected(context);
-
         if (sIsConnected != connected) {
             sConnectivityListener.onNetworkStatusChanged(context, connected);
         }
@@ -39,10 +39,11 @@ public class ConnectivityReceiver extends BroadcastReceiver {
 
     static void registerConnectivityListener(final Context context, final ConnectivityListener connectivityListener) {
         setConnectivityListener(connectivityListener);
-        setIsConnected(Connectivity.isConnected(context));
+        setIsConnected(NetworkState.refresh(context).connected);
 
         if (connectivityListener != null) {
             enableBroadcastReceiver(context);
+            SyncScheduler.resumePending(context);
         } else {
             disableBroadcastReceiver(context);
         }
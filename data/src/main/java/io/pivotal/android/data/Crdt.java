@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Values that merge without conflicts. Each copy is changed only through
+ * operations that keep merges commutative, associative and idempotent, so
+ * copies written offline or concurrently on several devices converge to
+ * the same value whatever order they are merged in.
+ */
+@JsonTypeInfo(
+    use = JsonTypeInfo.Id.NAME,
+    include = JsonTypeInfo.As.PROPERTY,
+    property = "@type"
+)
+@JsonSubTypes({
+    @JsonSubTypes.Type(value = Crdt.GCounter.class, name = "GCounter"),
+    @JsonSubTypes.Type(value = Crdt.PNCounter.class, name = "PNCounter"),
+    @JsonSubTypes.Type(value = Crdt.ORSet.class, name = "ORSet"),
+    @JsonSubTypes.Type(value = Crdt.LwwRegister.class, name = "LwwRegister")
+})
+public abstract class Crdt<T extends Crdt<T>> {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * Returns a new value combining this one and another copy.
+     */
+    public abstract T merge(T other);
+
+    public String encode() throws Exception {
+        return MAPPER.writeValueAsString(this);
+    }
+
+    /**
+     * Reads a stored value, or returns null when it is not a CRDT.
+     */
+    public static Crdt<?> decode(final String value) {
+        if (value == null || value.indexOf("\"@type\"") < 0) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(value, Crdt.class);
+        } catch (final Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Merges two copies of the same type, or returns null when their types
+     * differ.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static Crdt<?> merge(final Crdt<?> a, final Crdt<?> b) {
+        if (a.getClass() != b.getClass()) {
+            return null;
+        }
+        return ((Crdt) a).merge(b);
+    }
+
+
+    /**
+     * A counter that only grows, one count per replica.
+     */
+    public static class GCounter extends Crdt<GCounter> {
+
+        public Map<String, Long> counts = new TreeMap<String, Long>();
+
+        public GCounter increment(final String replica, final long amount) {
+            if (amount < 0) {
+                throw new IllegalArgumentException("amount cannot be negative");
+            }
+            counts.put(replica, getCount(replica) + amount);
+            return this;
+        }
+
+        @JsonIgnore
+        public long getValue() {
+            long value = 0;
+            for (final Long count : counts.values()) {
+                value += count;
+            }
+            return value;
+        }
+
+        @Override
+        public GCounter merge(final GCounter other) {
+            final GCounter merged = new GCounter();
+            merged.counts.putAll(counts);
+
+            for (final Map.Entry<String, Long> entry : other.counts.entrySet()) {
+                merged.counts.put(entry.getKey(), Math.max(entry.getValue(), merged.getCount(entry.getKey())));
+            }
+            return merged;
+        }
+
+        private long getCount(final String replica) {
+            final Long count = counts.get(replica);
+            return count != null ? count : 0;
+        }
+    }
+
+
+    /**
+     * A counter that can go up and down, kept as two growing counters.
+     */
+    public static class PNCounter extends Crdt<PNCounter> {
+
+        public GCounter increments = new GCounter();
+        public GCounter decrements = new GCounter();
+
+        public PNCounter increment(final String replica, final long amount) {
+            if (amount >= 0) {
+                increments.increment(replica, amount);
+            } else {
+                decrements.increment(replica, -amount);
+            }
+            return this;
+        }
+
+        @JsonIgnore
+        public long getValue() {
+            return increments.getValue() - decrements.getValue();
+        }
+
+        @Override
+        public PNCounter merge(final PNCounter other) {
+            final PNCounter merged = new PNCounter();
+            merged.increments = increments.merge(other.increments);
+            merged.decrements = decrements.merge(other.decrements);
+            return merged;
+        }
+    }
+
+
+    /**
+     * A set where an add wins over a concurrent remove. Each add carries a
+     * unique tag and a remove only covers the tags it has seen.
+     */
+    public static class ORSet extends Crdt<ORSet> {
+
+        public Map<String, Set<String>> elements = new TreeMap<String, Set<String>>();
+        public Set<String> removed = new TreeSet<String>();
+
+        public ORSet add(final String element, final String tag) {
+            Set<String> tags = elements.get(element);
+            if (tags == null) {
+                tags = new TreeSet<String>();
+                elements.put(element, tags);
+            }
+            tags.add(tag);
+            return this;
+        }
+
+        public ORSet remove(final String element) {
+            final Set<String> tags = elements.remove(element);
+            if (tags != null) {
+                removed.addAll(tags);
+            }
+            return this;
+        }
+
+        public boolean contains(final String element) {
+            return elements.containsKey(element);
+        }
+
+        @JsonIgnore
+        public Set<String> getValue() {
+            return new TreeSet<String>(elements.keySet());
+        }
+
+        @Override
+        public ORSet merge(final ORSet other) {
+            final ORSet merged = new ORSet();
+            merged.removed.addAll(removed);
+            merged.removed.addAll(other.removed);
+
+            merged.addLive(elements);
+            merged.addLive(other.elements);
+            return merged;
+        }
+
+        private void addLive(final Map<String, Set<String>> source) {
+            for (final Map.Entry<String, Set<String>> entry : source.entrySet()) {
+                for (final String tag : entry.getValue()) {
+                    if (!removed.contains(tag)) {
+                        add(entry.getKey(), tag);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A single value where the latest write wins, ties going to the
+     * greater replica id.
+     */
+    public static class LwwRegister extends Crdt<LwwRegister> {
+
+        public String value;
+        public long timestamp;
+        public String replica;
+
+        public LwwRegister set(final String value, final long timestamp, final String replica) {
+            if (isAfter(timestamp, replica)) {
+                this.value = value;
+                this.timestamp = timestamp;
+                this.replica = replica;
+            }
+            return this;
+        }
+
+        @JsonIgnore
+        public String getValue() {
+            return value;
+        }
+
+        @Override
+        public LwwRegister merge(final LwwRegister other) {
+            final LwwRegister merged = new LwwRegister();
+            merged.value = value;
+            merged.timestamp = timestamp;
+            merged.replica = replica;
+            return merged.set(other.value, other.timestamp, other.replica);
+        }
+
+        private boolean isAfter(final long timestamp, final String replica) {
+            if (timestamp != this.timestamp) {
+                return timestamp > this.timestamp;
+            }
+            if (this.replica == null) {
+                return replica != null;
+            }
+            return replica != null && replica.compareTo(this.replica) > 0;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import java.util.UUID;
+
+/**
+ * A {@link KeyValueObject} holding a {@link Crdt}. Updates read the current
+ * copy, apply an operation tagged with this device's replica id and write
+ * the whole state back. A write rejected because another device changed
+ * the value is merged with the server copy by the {@link CrdtResolver}
+ * and retried once, and writes queued offline merge in the same way when
+ * they are replayed.
+ *
+ * The write is conditional on the etag of the copy that was read, so
+ * updates need the "OptimisticLocking" collision strategy; without it a
+ * concurrent write would be silently replaced and its operations lost.
+ */
+public class CrdtObject<T extends Crdt<T>> {
+
+    public static interface Mutation<T> {
+        public void apply(T state, String replica);
+    }
+
+    private static final String REPLICA_STATE = "PCFData:Replica";
+    private static final String REPLICA_KEY = "PCFData:ReplicaId";
+
+    private static String sReplicaId;
+
+    public static <T extends Crdt<T>> CrdtObject<T> create(final Context context, final String collection, final String key, final Class<T> type) {
+        return new CrdtObject<T>(KeyValueObject.create(context, collection, key), type, getReplicaId(context));
+    }
+
+    /**
+     * Returns the id of this installation, created on first use.
+     */
+    public static synchronized String getReplicaId(final Context context) {
+        if (sReplicaId == null) {
+            final DataPersistence persistence = new DataPersistence(context, REPLICA_STATE);
+            String replicaId = persistence.getString(REPLICA_KEY);
+
+            if (TextUtils.isEmpty(replicaId)) {
+                replicaId = UUID.randomUUID().toString();
+                persistence.putString(REPLICA_KEY, replicaId);
+            }
+            sReplicaId = replicaId;
+        }
+        return sReplicaId;
+    }
+
+    public static Mutation<Crdt.PNCounter> increment(final long amount) {
+        return new Mutation<Crdt.PNCounter>() {
+            @Override
+            public void apply(final Crdt.PNCounter state, final String replica) {
+                state.increment(replica, amount);
+            }
+        };
+    }
+
+    public static Mutation<Crdt.ORSet> add(final String element) {
+        return new Mutation<Crdt.ORSet>() {
+            @Override
+            public void apply(final Crdt.ORSet state, final String replica) {
+                state.add(element, replica + ":" + UUID.randomUUID().toString());
+            }
+        };
+    }
+
+    public static Mutation<Crdt.ORSet> remove(final String element) {
+        return new Mutation<Crdt.ORSet>() {
+            @Override
+            public void apply(final Crdt.ORSet state, final String replica) {
+                state.remove(element);
+            }
+        };
+    }
+
+    public static Mutation<Crdt.LwwRegister> set(final String value) {
+        return new Mutation<Crdt.LwwRegister>() {
+            @Override
+            public void apply(final Crdt.LwwRegister state, final String replica) {
+                state.set(value, System.currentTimeMillis(), replica);
+            }
+        };
+    }
+
+    private final KeyValueObject mObject;
+    private final Class<T> mType;
+    private final String mReplicaId;
+
+    public CrdtObject(final KeyValueObject object, final Class<T> type, final String replicaId) {
+        mObject = object;
+        mType = type;
+        mReplicaId = replicaId;
+    }
+
+    public KeyValueObject getKeyValueObject() {
+        return mObject;
+    }
+
+    public Response<T> get() {
+        return decode(mObject.get());
+    }
+
+    /**
+     * Applies the mutation and writes the state back. This is a GET and a
+     * conditional PUT, plus a GET and a second PUT when the first PUT is
+     * rejected and has to be merged: two to four round trips in all.
+     * Fails without any request unless etags are enabled.
+     */
+    public Response<T> update(final Mutation<T> mutation) {
+        if (!Pivotal.areEtagsEnabled()) {
+            return new Response<T>(null, new DataError(new IllegalStateException("CRDT updates require the OptimisticLocking collision strategy.")));
+        }
+
+        final Response<T> current = get();
+        if (current.isFailure()) {
+            return current;
+        }
+
+        final T state = current.object;
+        mutation.apply(state, mReplicaId);
+
+        try {
+            return decode(mObject.put(state.encode()));
+        } catch (final Exception e) {
+            Logger.ex(e);
+            return new Response<T>(state, new DataError(e));
+        }
+    }
+
+    /**
+     * Reads a response as this object's type. A missing or empty value is
+     * a new, empty state.
+     */
+    public Response<T> decode(final Response<KeyValue> response) {
+        if (response.isFailure() && !response.isNotFound()) {
+            return new Response<T>(null, response.error);
+        }
+
+        final String value = response.object != null ? response.object.value : null;
+
+        try {
+            if (response.isNotFound() || TextUtils.isEmpty(value)) {
+                return new Response<T>(mType.newInstance());
+            }
+
+            final Crdt<?> state = Crdt.decode(value);
+            if (!mType.isInstance(state)) {
+                throw new IllegalStateException("Value is not a " + mType.getSimpleName());
+            }
+            return new Response<T>(mType.cast(state));
+
+        } catch (final Exception e) {
+            Logger.ex(e);
+            return new Response<T>(null, new DataError(e));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+/**
+ * Resolves a rejected write of a {@link Crdt} by merging it with the copy
+ * on the server, which needs no base version and cannot lose updates.
+ * Other values are passed to the delegate, if any.
+ */
+public class CrdtResolver implements OfflineStore.ConflictResolver<KeyValue> {
+
+    private final OfflineStore.ConflictResolver<KeyValue> mDelegate;
+
+    public CrdtResolver(final OfflineStore.ConflictResolver<KeyValue> delegate) {
+        mDelegate = delegate;
+    }
+
+    public static boolean canMerge(final KeyValue object) {
+        return object != null && Crdt.decode(object.value) != null;
+    }
+
+    @Override
+    public KeyValue merge(final KeyValue base, final KeyValue local, final KeyValue remote) {
+        final Crdt<?> localState = local != null ? Crdt.decode(local.value) : null;
+
+        if (localState != null) {
+            final Crdt<?> remoteState = remote != null ? Crdt.decode(remote.value) : null;
+
+            if (remoteState == null && (remote == null || remote.value == null || remote.value.length() == 0)) {
+                return local;
+            }
+
+            final Crdt<?> merged = remoteState != null ? Crdt.merge(localState, remoteState) : null;
+            if (merged != null) {
+                try {
+                    return new KeyValue(local, merged.encode());
+                } catch (final Exception e) {
+                    Logger.ex(e);
+                    return null;
+                }
+            }
+        }
+
+        return mDelegate != null ? mDelegate.merge(base, local, remote) : null;
+    }
+}
@@ -11,18 +11,44 @@ public class Data {
         TokenProviderFactory.registerTokenProvider(provider);
     }
 
+    public static void registerExecutors(final DataExecutors executors) {
+        DataExecutors.register(executors);
+    }
+
+    public static void registerConflictResolver(final OfflineStore.ConflictResolver<KeyValue> resolver) {
+        KeyValueOfflineStore.registerConflictResolver(resolver);
+    }
+
     public static void registerConnectivityListener(final Context context, final ConnectivityListener connectivityListener) {
         ConnectivityReceiver.registerConnectivityListener(context, connectivityListener);
     }
 
     public static void sync(final Context context) {
-        final OfflineStore<KeyValue> offlineStore = KeyValueOfflineStore.create(context);
-        offlineStore.getRequestCache().executePending();
+        sync(context, RequestCache.Budget.UNLIMITED);
     }
 
     public static void syncInBackground(final Context context) {
-        final OfflineStore<KeyValue> offlineStore = KeyValueOfflineStore.create(context);
-        offlineStore.getRequestCache().executePendingAsync();
+        SyncScheduler.syncInBackground(context, RequestCache.Budget.UNLIMITED);
+    }
+
+    public static boolean sync(final Context context, final RequestCache.Budget budget) {
+        return SyncScheduler.sync(context, StoreRegistry.get(context).getRequestCache(), budget);
+    }
+
+    public static void syncInBackground(final Context context, final RequestCache.Budget budget) {
+        SyncScheduler.syncInBackground(context, budget);
+    }
+
+    public static int getPendingRequestCount(final Context context, final int priority) {
+        return StoreRegistry.get(context).getRequestCache().getPendingCount(priority);
+    }
+
+    public static PendingRequest.List<KeyValue> getDeadLetters(final Context context) {
+        return StoreRegistry.get(context).getRequestCache().getDeadLetters();
+    }
+
+    public static PendingRequest.List<KeyValue> clearDeadLetters(final Context context) {
+        return StoreRegistry.get(context).getRequestCache().clearDeadLetters();
     }
 
     public static void clearLocalCache(final Context context) {
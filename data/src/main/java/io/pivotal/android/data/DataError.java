@@ -3,6 +3,8 @@
  */
 package io.pivotal.android.data;
 
+import java.io.IOException;
+
 public class DataError extends Error {
 
     private int mCode = -1;
@@ -34,4 +36,15 @@ public class DataError extends Error {
     public boolean isNotFound() {
         return mCode == 404;
     }
+
+    public boolean isTransient() {
+        if (getCause() instanceof IOException) {
+            return true;
+        }
+        return mCode == 408 || mCode == 429 || mCode >= 500;
+    }
+
+    public boolean isRequestCacheFull() {
+        return getCause() instanceof RequestCacheFullException;
+    }
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads the SDK runs asynchronous work on: a small pool for disk
+ * access, a larger one for network calls and an executor that delivers
+ * results to listeners (the main thread unless configured otherwise).
+ */
+public class DataExecutors {
+
+    public static final int DISK_THREADS = 2;
+    public static final int NETWORK_THREADS = 4;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    public static final Executor IMMEDIATE = new Executor() {
+        @Override
+        public void execute(final Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private static DataExecutors sInstance;
+
+    public static synchronized DataExecutors getInstance() {
+        if (sInstance == null) {
+            sInstance = new DataExecutors(
+                newBackgroundExecutor("PCFData-Disk", DISK_THREADS),
+                newBackgroundExecutor("PCFData-Network", NETWORK_THREADS),
+                newMainThreadExecutor()
+            );
+        }
+        return sInstance;
+    }
+
+    /* package */ static synchronized void register(final DataExecutors executors) {
+        sInstance = executors;
+    }
+
+    private final Executor mDiskExecutor;
+    private final Executor mNetworkExecutor;
+    private final Executor mCallbackExecutor;
+
+    private Handler mTimer;
+
+    public DataExecutors(final Executor diskExecutor, final Executor networkExecutor, final Executor callbackExecutor) {
+        mDiskExecutor = diskExecutor;
+        mNetworkExecutor = networkExecutor;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    public Executor getDiskExecutor() {
+        return mDiskExecutor;
+    }
+
+    public Executor getNetworkExecutor() {
+        return mNetworkExecutor;
+    }
+
+    public Executor getCallbackExecutor() {
+        return mCallbackExecutor;
+    }
+
+    /**
+     * Runs the request on the worker executor and hands the response to
+     * the listener on the callback executor. The deadline set by the
+     * request's timeout starts counting on submission.
+     */
+    public <T> DataFuture<T> execute(final Executor worker, final DataStore<T> store, final Request<T> request, final DataStore.Listener<T> listener) {
+        return execute(worker, new DataFuture<T>(store, request, listener, mCallbackExecutor), request);
+    }
+
+    /* package */ <T> DataFuture<T> execute(final Executor worker, final Callable<Response<T>> task, final Request<T> request, final DataStore.Listener<T> listener) {
+        return execute(worker, new DataFuture<T>(task, request, listener, mCallbackExecutor), request);
+    }
+
+    private <T> DataFuture<T> execute(final Executor worker, final DataFuture<T> future, final Request<T> request) {
+        if (request.timeout > 0) {
+            future.setDeadline(getTimer(), request.timeout);
+        }
+
+        worker.execute(future);
+
+        return future;
+    }
+
+    private Handler getTimer() {
+        synchronized (this) {
+            if (mTimer == null) {
+                mTimer = new Handler(Looper.getMainLooper());
+            }
+            return mTimer;
+        }
+    }
+
+    public static Executor newBackgroundExecutor(final String name, final int threads) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new BackgroundThreadFactory(name)
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static Executor newMainThreadExecutor() {
+        final Handler handler = new Handler(Looper.getMainLooper());
+
+        return new Executor() {
+            @Override
+            public void execute(final Runnable runnable) {
+                handler.post(runnable);
+            }
+        };
+    }
+
+    private static final class BackgroundThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger();
+        private final String mName;
+
+        public BackgroundThreadFactory(final String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, mName + "-" + mCount.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.os.Handler;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Handle to a request running asynchronously. Cancelling it aborts the
+ * HTTP call in flight and suppresses the listener. When the request's
+ * timeout passes first, the call is aborted and the store answers from
+ * local data instead.
+ */
+public class DataFuture<T> extends FutureTask<Response<T>> {
+
+    private static final ThreadLocal<DataFuture<?>> sCurrent = new ThreadLocal<DataFuture<?>>();
+
+    private final Request<T> mRequest;
+    private final DataStore.Listener<T> mListener;
+    private final Executor mCallbackExecutor;
+
+    private final Runnable mExpire = new Runnable() {
+        @Override
+        public void run() {
+            expire();
+        }
+    };
+
+    private volatile boolean mExpired;
+    private Runnable mAbortAction;
+    private Handler mTimer;
+
+    public DataFuture(final DataStore<T> store, final Request<T> request, final DataStore.Listener<T> listener, final Executor callbackExecutor) {
+        this(new Callable<Response<T>>() {
+            @Override
+            public Response<T> call() throws Exception {
+                return store.execute(request);
+            }
+        }, request, listener, callbackExecutor);
+    }
+
+    /* package */ DataFuture(final Callable<Response<T>> task, final Request<T> request, final DataStore.Listener<T> listener, final Executor callbackExecutor) {
+        super(task);
+
+        mRequest = request;
+        mListener = listener;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * The task being run on the calling thread, or null.
+     */
+    public static DataFuture<?> current() {
+        return sCurrent.get();
+    }
+
+    @Override
+    public void run() {
+        sCurrent.set(this);
+        try {
+            super.run();
+        } finally {
+            sCurrent.remove();
+        }
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        final boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            Logger.d("Request cancelled: " + mRequest.object);
+            abort();
+        }
+        return cancelled;
+    }
+
+    public boolean isExpired() {
+        return mExpired;
+    }
+
+    /* package */ void setDeadline(final Handler timer, final long timeout) {
+        synchronized (this) {
+            mTimer = timer;
+        }
+        timer.postDelayed(mExpire, timeout);
+    }
+
+    /* package */ void expire() {
+        if (!isDone()) {
+            Logger.w("Request deadline expired: " + mRequest.object);
+            mExpired = true;
+            abort();
+        }
+    }
+
+    /**
+     * Registers how to abort the work currently in flight. It runs right
+     * away if the task has already been cancelled or has expired.
+     */
+    public void setAbortAction(final Runnable action) {
+        synchronized (this) {
+            mAbortAction = action;
+        }
+        if (action != null && (isCancelled() || isExpired())) {
+            action.run();
+        }
+    }
+
+    private void abort() {
+        final Runnable action;
+        synchronized (this) {
+            action = mAbortAction;
+        }
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    @Override
+    protected void done() {
+        final Handler timer;
+        synchronized (this) {
+            timer = mTimer;
+        }
+        if (timer != null) {
+            timer.removeCallbacks(mExpire);
+        }
+
+        if (mListener != null && !isCancelled()) {
+            final Response<T> response = getResponse();
+
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onResponse(response);
+                }
+            });
+        }
+    }
+
+    private Response<T> getResponse() {
+        try {
+            return get();
+        } catch (final Exception e) {
+            Logger.ex(e);
+            return new Response<T>(mRequest.object, new DataError(e));
+        }
+    }
+}
@@ -7,14 +7,86 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
 public class DataPersistence {
 
     private static final String EMPTY = "";
 
+    /**
+     * Receives every write to a namespace, whichever instance made it. A
+     * null key means the whole namespace was cleared. A key ending in ':'
+     * with a null value means every key starting with it was deleted, see
+     * {@link #deleteStrings}.
+     */
+    public static interface ChangeListener {
+        public void onChange(String key, String value);
+    }
+
+    // listeners are held weakly so that short-lived stores can be collected
+    private static final Map<String, Set<ChangeListener>> sListeners = new HashMap<String, Set<ChangeListener>>();
+
     private final SharedPreferences mPreferences;
+    private final String mNamespace;
 
     public DataPersistence(final Context context, final String namespace) {
         mPreferences = context.getSharedPreferences(namespace, Context.MODE_PRIVATE);
+        mNamespace = namespace;
+    }
+
+    public void addChangeListener(final ChangeListener listener) {
+        synchronized (sListeners) {
+            Set<ChangeListener> listeners = sListeners.get(mNamespace);
+            if (listeners == null) {
+                listeners = Collections.newSetFromMap(new WeakHashMap<ChangeListener, Boolean>());
+                sListeners.put(mNamespace, listeners);
+            }
+            listeners.add(listener);
+        }
+    }
+
+    public void removeChangeListener(final ChangeListener listener) {
+        synchronized (sListeners) {
+            final Set<ChangeListener> listeners = sListeners.get(mNamespace);
+            if (listeners != null) {
+                listeners.remove(listener);
+            }
+        }
+    }
+
+    /**
+     * Publishes a change to the listeners of this namespace. Storage
+     * engines other than SharedPreferences call this after each write.
+     */
+    protected void notifyChange(final String key, final String value) {
+        final List<ChangeListener> listeners;
+
+        synchronized (sListeners) {
+            final Set<ChangeListener> registered = sListeners.get(mNamespace);
+            if (registered == null || registered.isEmpty()) {
+                return;
+            }
+            listeners = new ArrayList<ChangeListener>(registered);
+        }
+
+        for (final ChangeListener listener : listeners) {
+            listener.onChange(key, value);
+        }
+    }
+
+    public String getNamespace() {
+        return mNamespace;
+    }
+
+    public Set<String> getKeys() {
+        return mPreferences.getAll().keySet();
     }
 
     public String getString(final String key) {
@@ -24,17 +96,44 @@ public class DataPersistence {
     @SuppressLint("CommitPrefEdits")
     public String putString(final String key, final String value) {
         mPreferences.edit().putString(key, value).commit();
+        notifyChange(key, value);
+        return value;
+    }
+
+    /**
+     * Like {@link #putString}, but writes to disk in the background, for
+     * state that is cheap to lose and written from the main thread.
+     */
+    public String applyString(final String key, final String value) {
+        mPreferences.edit().putString(key, value).apply();
+        notifyChange(key, value);
         return value;
     }
 
     @SuppressLint("CommitPrefEdits")
     public String deleteString(final String key) {
         mPreferences.edit().remove(key).commit();
+        notifyChange(key, null);
         return EMPTY;
     }
 
+    /**
+     * Deletes the keys, each prefixed with prefix, in a single commit and
+     * publishes one change for the prefix.
+     */
+    @SuppressLint("CommitPrefEdits")
+    public void deleteStrings(final String prefix, final Collection<String> keys) {
+        final SharedPreferences.Editor editor = mPreferences.edit();
+        for (final String key : keys) {
+            editor.remove(prefix + key);
+        }
+        editor.commit();
+        notifyChange(prefix, null);
+    }
+
     @SuppressLint("CommitPrefEdits")
     public void clear() {
         mPreferences.edit().clear().commit();
+        notifyChange(null, null);
     }
 }
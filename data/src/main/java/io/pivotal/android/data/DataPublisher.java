@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stream of responses for a single object. The first subscriber starts it
+ * (an observer on the store plus an initial GET), later subscribers share
+ * it and are handed the latest response, and cancelling the last
+ * subscription tears it down. Each subscriber receives at most as many
+ * responses as it has requested; while it has no demand only the most
+ * recent response is kept for it.
+ *
+ * <p>A response equal to the latest one is not published again, so the
+ * initial GET and the change it causes are seen once. Each subscriber is
+ * called from one thread at a time, whichever thread the response came
+ * from.
+ */
+public class DataPublisher<T> implements DataStore.Observer<T> {
+
+    public static interface Subscriber<T> {
+        public void onSubscribe(Subscription subscription);
+
+        public void onNext(Response<T> response);
+    }
+
+    public static interface Subscription {
+        public void request(long count);
+
+        public void cancel();
+    }
+
+    private final Object mLock = new Object();
+    private final List<DataSubscription> mSubscriptions = new ArrayList<DataSubscription>();
+
+    private final DataStore<T> mDataStore;
+    private final Request<T> mRequest;
+
+    private final DataStore.Listener<T> mInitialListener = new DataStore.Listener<T>() {
+        @Override
+        public void onResponse(final Response<T> response) {
+            publish(response, true);
+        }
+    };
+
+    private DataFuture<T> mFuture;
+    private Response<T> mLatest;
+
+    public DataPublisher(final DataStore<T> dataStore, final Request<T> request) {
+        mDataStore = dataStore;
+        mRequest = request;
+    }
+
+    public Subscription subscribe(final Subscriber<T> subscriber) {
+        final DataSubscription subscription = new DataSubscription(subscriber);
+
+        synchronized (mLock) {
+            mSubscriptions.add(subscription);
+
+            if (mSubscriptions.size() == 1) {
+                start();
+            } else if (mLatest != null) {
+                subscription.offer(mLatest);
+            }
+        }
+
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+
+        return subscription;
+    }
+
+    public int getSubscriberCount() {
+        synchronized (mLock) {
+            return mSubscriptions.size();
+        }
+    }
+
+    @Override
+    public void onResponse(final Response<T> response) {
+        publish(response, false);
+    }
+
+    /**
+     * Offers the response to every subscription. The initial GET only
+     * counts while nothing newer has been observed.
+     */
+    private void publish(final Response<T> response, final boolean initial) {
+        if (!matches(response)) {
+            return;
+        }
+
+        final List<DataSubscription> subscriptions;
+
+        synchronized (mLock) {
+            if (mSubscriptions.isEmpty() || (mLatest != null && (initial || isSame(mLatest, response)))) {
+                return;
+            }
+            mLatest = response;
+            subscriptions = new ArrayList<DataSubscription>(mSubscriptions);
+
+            // offered under the lock so concurrent responses reach every subscription in order
+            for (final DataSubscription subscription : subscriptions) {
+                subscription.offer(response);
+            }
+        }
+
+        for (final DataSubscription subscription : subscriptions) {
+            subscription.drain();
+        }
+    }
+
+    private void start() {
+        Logger.d("Publisher started: " + mRequest.object);
+
+        final String identifier = getIdentifier();
+        if (identifier != null) {
+            mDataStore.addObserver(identifier, this);
+        } else {
+            mDataStore.addObserver(this);
+        }
+        mFuture = mDataStore.execute(new Request.Get<T>(mRequest), mInitialListener);
+    }
+
+    private void stop() {
+        Logger.d("Publisher stopped: " + mRequest.object);
+
+        final String identifier = getIdentifier();
+        if (identifier != null) {
+            mDataStore.removeObserver(identifier, this);
+        } else {
+            mDataStore.removeObserver(this);
+        }
+
+        if (mFuture != null) {
+            mFuture.cancel(true);
+            mFuture = null;
+        }
+        mLatest = null;
+    }
+
+    private void remove(final DataSubscription subscription) {
+        synchronized (mLock) {
+            if (mSubscriptions.remove(subscription) && mSubscriptions.isEmpty()) {
+                stop();
+            }
+        }
+    }
+
+    private String getIdentifier() {
+        if (mRequest.object instanceof Identifiable) {
+            return ((Identifiable) mRequest.object).getIdentifier();
+        } else {
+            return null;
+        }
+    }
+
+    private boolean matches(final Response<T> response) {
+        if (response == null) {
+            return false;
+        }
+        final String identifier = getIdentifier();
+        if (identifier == null || !(response.object instanceof Identifiable)) {
+            return true;
+        }
+        return identifier.equals(((Identifiable) response.object).getIdentifier());
+    }
+
+    private static boolean isSame(final Response<?> latest, final Response<?> response) {
+        if (latest.error != null || response.error != null) {
+            return false;
+        }
+        return latest.object != null ? latest.object.equals(response.object) : response.object == null;
+    }
+
+    private final class DataSubscription implements Subscription {
+
+        private final Subscriber<T> mSubscriber;
+
+        private long mDemand;
+        private Response<T> mPending;
+        private boolean mCancelled;
+        private boolean mDraining;
+
+        public DataSubscription(final Subscriber<T> subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long count) {
+            if (count <= 0) {
+                return;
+            }
+            synchronized (this) {
+                mDemand = mDemand + count < 0 ? Long.MAX_VALUE : mDemand + count;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                mPending = null;
+            }
+            remove(this);
+        }
+
+        /* package */ void offer(final Response<T> response) {
+            synchronized (this) {
+                if (!mCancelled) {
+                    mPending = response;
+                }
+            }
+        }
+
+        /**
+         * Delivers pending responses while there is demand. A thread that
+         * finds another one draining leaves its response to that thread.
+         */
+        /* package */ void drain() {
+            synchronized (this) {
+                if (mDraining) {
+                    return;
+                }
+                mDraining = true;
+            }
+
+            while (true) {
+                final Response<T> response;
+
+                synchronized (this) {
+                    if (mCancelled || mPending == null || mDemand == 0) {
+                        mDraining = false;
+                        return;
+                    }
+                    response = mPending;
+                    mPending = null;
+
+                    if (mDemand != Long.MAX_VALUE) {
+                        mDemand--;
+                    }
+                }
+
+                try {
+                    mSubscriber.onNext(response);
+                } catch (final RuntimeException e) {
+                    synchronized (this) {
+                        mDraining = false;
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -7,12 +7,20 @@ public interface DataStore<T> {
 
     public Response<T> execute(final Request<T> request);
 
-    public void execute(final Request<T> request, final Listener<T> listener);
+    public DataFuture<T> execute(final Request<T> request, final Listener<T> listener);
 
     public boolean addObserver(final Observer<T> observer);
 
     public boolean removeObserver(final Observer<T> observer);
 
+    /**
+     * Registers an observer for one object identifier, or for all
+     * identifiers starting with a key that ends in ':'.
+     */
+    public boolean addObserver(final String key, final Observer<T> observer);
+
+    public boolean removeObserver(final String key, final Observer<T> observer);
+
 
     public static interface Observer<T> {
         public void onResponse(Response<T> response);
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Secondary indexes on top-level fields of the JSON values in a namespace.
+ * An index is filled from the stored values when it is added and is then
+ * kept current by change events, so each write parses its value once and
+ * queries never read values. Index definitions live in memory and are
+ * declared again by the app on each start.
+ */
+/* package */ class FieldIndex implements DataPersistence.ChangeListener {
+
+    private static final int BACKFILL_BATCH_SIZE = 100;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final Map<String, FieldIndex> sIndexes = new HashMap<String, FieldIndex>();
+
+    // booleans sort before numbers, numbers before strings
+    private static final Comparator<Object> VALUE_ORDER = new Comparator<Object>() {
+        @Override
+        public int compare(final Object a, final Object b) {
+            return FieldIndex.compare(a, b);
+        }
+    };
+
+    public static FieldIndex get(final DataPersistence persistence) {
+        synchronized (sIndexes) {
+            FieldIndex index = sIndexes.get(persistence.getNamespace());
+            if (index == null) {
+                index = new FieldIndex(persistence);
+                sIndexes.put(persistence.getNamespace(), index);
+            }
+            return index;
+        }
+    }
+
+    /* package */ static void reset() {
+        synchronized (sIndexes) {
+            sIndexes.clear();
+        }
+    }
+
+    private final Map<String, Map<String, Entries>> mCollections = new HashMap<String, Map<String, Entries>>();
+    private final DataPersistence mPersistence;
+
+    /* package */ FieldIndex(final DataPersistence persistence) {
+        mPersistence = persistence;
+        persistence.addChangeListener(this);
+    }
+
+    public synchronized boolean addIndex(final String collection, final String field) {
+        Map<String, Entries> fields = mCollections.get(collection);
+        if (fields == null) {
+            fields = new HashMap<String, Entries>();
+            mCollections.put(collection, fields);
+        }
+        if (fields.containsKey(field)) {
+            return false;
+        }
+
+        final Entries entries = new Entries();
+        fields.put(field, entries);
+
+        Logger.d("Add index: " + collection + "." + field);
+        backfill(collection, field, entries);
+        return true;
+    }
+
+    public synchronized boolean hasIndex(final String collection, final String field) {
+        return getEntries(collection, field) != null;
+    }
+
+    /**
+     * Returns the keys matching a query, read from the indexes only.
+     */
+    public synchronized List<String> query(final String collection, final Query query) {
+        final List<Query.Predicate> predicates = query.getPredicates();
+        final String orderBy = query.getOrderBy();
+
+        final Entries driver;
+        Query.Predicate range = null;
+
+        if (orderBy != null) {
+            driver = requireEntries(collection, orderBy);
+            range = findPredicate(predicates, orderBy);
+        } else if (!predicates.isEmpty()) {
+            range = predicates.get(0);
+            driver = requireEntries(collection, range.field);
+        } else {
+            throw new IllegalArgumentException("A query needs a predicate or an order");
+        }
+
+        final List<Entries> filters = new ArrayList<Entries>(predicates.size());
+        for (final Query.Predicate predicate : predicates) {
+            filters.add(requireEntries(collection, predicate.field));
+        }
+
+        NavigableMap<Object, TreeSet<String>> values = driver.getRange(range);
+        if (query.isDescending()) {
+            values = values.descendingMap();
+        }
+
+        final List<String> keys = new ArrayList<String>();
+        final int limit = query.getLimit();
+
+        for (final TreeSet<String> bucket : values.values()) {
+            final Collection<String> ordered = query.isDescending() ? bucket.descendingSet() : bucket;
+
+            for (final String key : ordered) {
+                if (matches(key, predicates, filters)) {
+                    keys.add(key);
+                    if (keys.size() >= limit) {
+                        return keys;
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public synchronized void onChange(final String identifier, final String value) {
+        if (identifier == null) {
+            for (final Map<String, Entries> fields : mCollections.values()) {
+                for (final Entries entries : fields.values()) {
+                    entries.clear();
+                }
+            }
+            return;
+        }
+
+        final int separator = identifier.indexOf(KeyIndex.SEPARATOR);
+        if (separator < 0) {
+            return;
+        }
+
+        final Map<String, Entries> fields = mCollections.get(identifier.substring(0, separator));
+        if (fields == null) {
+            return;
+        }
+
+        if (value == null && KeyIndex.isCollection(identifier)) {
+            for (final Entries entries : fields.values()) {
+                entries.clear();
+            }
+            return;
+        }
+
+        final String key = identifier.substring(separator + 1);
+        final JsonNode node = value != null ? parse(value) : null;
+
+        for (final Map.Entry<String, Entries> entry : fields.entrySet()) {
+            entry.getValue().remove(key);
+
+            if (node != null) {
+                entry.getValue().add(key, extract(node, entry.getKey()));
+            }
+        }
+    }
+
+    private void backfill(final String collection, final String field, final Entries entries) {
+        final KeyIndex keyIndex = KeyIndex.get(mPersistence);
+        List<String> keys = keyIndex.getKeys(collection, null, null, BACKFILL_BATCH_SIZE);
+
+        while (!keys.isEmpty()) {
+            for (final String key : keys) {
+                final JsonNode node = parse(mPersistence.getString(collection + KeyIndex.SEPARATOR + key));
+                if (node != null) {
+                    entries.add(key, extract(node, field));
+                }
+            }
+            keys = keyIndex.getKeys(collection, null, keys.get(keys.size() - 1), BACKFILL_BATCH_SIZE);
+        }
+    }
+
+    private Entries getEntries(final String collection, final String field) {
+        final Map<String, Entries> fields = mCollections.get(collection);
+        return fields != null ? fields.get(field) : null;
+    }
+
+    private Entries requireEntries(final String collection, final String field) {
+        final Entries entries = getEntries(collection, field);
+        if (entries == null) {
+            throw new IllegalArgumentException("No index on " + collection + "." + field);
+        }
+        return entries;
+    }
+
+    private static Query.Predicate findPredicate(final List<Query.Predicate> predicates, final String field) {
+        for (final Query.Predicate predicate : predicates) {
+            if (predicate.field.equals(field)) {
+                return predicate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(final String key, final List<Query.Predicate> predicates, final List<Entries> filters) {
+        for (int i = 0; i < predicates.size(); i++) {
+            if (!predicates.get(i).matches(filters.get(i).getValue(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* package */ static JsonNode parse(final String value) {
+        if (value == null || value.length() == 0) {
+            return null;
+        }
+        try {
+            final JsonNode node = MAPPER.readTree(value);
+            return node != null && node.isObject() ? node : null;
+        } catch (final Exception e) {
+            return null;
+        }
+    }
+
+    /* package */ static Object extract(final JsonNode node, final String field) {
+        final JsonNode value = node.get(field);
+
+        if (value == null) {
+            return null;
+        } else if (value.isNumber()) {
+            return value.asDouble();
+        } else if (value.isBoolean()) {
+            return value.asBoolean();
+        } else if (value.isTextual()) {
+            return value.asText();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Converts a query argument to the form values are indexed in.
+     */
+    /* package */ static Object normalize(final Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value == null || value instanceof Boolean || value instanceof String) {
+            return value;
+        } else {
+            throw new IllegalArgumentException("Unsupported value: " + value);
+        }
+    }
+
+    /* package */ static int compare(final Object a, final Object b) {
+        final int rankA = rank(a), rankB = rank(b);
+        if (rankA != rankB) {
+            return rankA < rankB ? -1 : 1;
+        } else if (a instanceof Boolean) {
+            return ((Boolean) a).compareTo((Boolean) b);
+        } else if (a instanceof Double) {
+            return ((Double) a).compareTo((Double) b);
+        } else {
+            return ((String) a).compareTo((String) b);
+        }
+    }
+
+    /* package */ static boolean isSameType(final Object a, final Object b) {
+        return rank(a) == rank(b);
+    }
+
+    /**
+     * The lowest value of the type of the given one.
+     */
+    private static Object getMin(final Object value) {
+        if (value instanceof Boolean) {
+            return Boolean.FALSE;
+        } else if (value instanceof Double) {
+            return Double.NEGATIVE_INFINITY;
+        } else {
+            return "";
+        }
+    }
+
+    /**
+     * The highest value of the type of the given one, or null for strings,
+     * which sort last.
+     */
+    private static Object getMax(final Object value) {
+        if (value instanceof Boolean) {
+            return Boolean.TRUE;
+        } else if (value instanceof Double) {
+            // NaN sorts after every other double
+            return Double.NaN;
+        } else {
+            return null;
+        }
+    }
+
+    private static int rank(final Object value) {
+        if (value instanceof Boolean) {
+            return 0;
+        } else if (value instanceof Double) {
+            return 1;
+        } else {
+            return 2;
+        }
+    }
+
+    private static final class Entries {
+
+        private final TreeMap<Object, TreeSet<String>> mKeysByValue = new TreeMap<Object, TreeSet<String>>(VALUE_ORDER);
+        private final Map<String, Object> mValuesByKey = new HashMap<String, Object>();
+
+        public void add(final String key, final Object value) {
+            if (value == null) {
+                return;
+            }
+            TreeSet<String> keys = mKeysByValue.get(value);
+            if (keys == null) {
+                keys = new TreeSet<String>();
+                mKeysByValue.put(value, keys);
+            }
+            keys.add(key);
+            mValuesByKey.put(key, value);
+        }
+
+        public void remove(final String key) {
+            final Object value = mValuesByKey.remove(key);
+            if (value == null) {
+                return;
+            }
+            final Set<String> keys = mKeysByValue.get(value);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                mKeysByValue.remove(value);
+            }
+        }
+
+        public Object getValue(final String key) {
+            return mValuesByKey.get(key);
+        }
+
+        public void clear() {
+            mKeysByValue.clear();
+            mValuesByKey.clear();
+        }
+
+        /**
+         * Returns the entries in the range of the predicate, with an open
+         * end closed at the first or last value of the other bound's type.
+         */
+        public NavigableMap<Object, TreeSet<String>> getRange(final Query.Predicate predicate) {
+            if (predicate == null || (predicate.lower == null && predicate.upper == null)) {
+                return mKeysByValue;
+            }
+
+            final Object lower = predicate.lower != null ? predicate.lower : getMin(predicate.upper);
+            final Object upper = predicate.upper != null ? predicate.upper : getMax(predicate.lower);
+            final boolean lowerInclusive = predicate.lower == null || predicate.lowerInclusive;
+            final boolean upperInclusive = predicate.upper == null || predicate.upperInclusive;
+
+            if (upper == null) {
+                return mKeysByValue.tailMap(lower, lowerInclusive);
+            } else if (!isSameType(lower, upper) || compare(lower, upper) > 0) {
+                return new TreeMap<Object, TreeSet<String>>(VALUE_ORDER);
+            } else {
+                return mKeysByValue.subMap(lower, lowerInclusive, upper, upperInclusive);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Sorted keys of every collection in a namespace, loaded once from storage
+ * and then kept current by its change events. Pages are read from a
+ * cursor, so a query costs the page it returns rather than the whole
+ * collection.
+ */
+/* package */ class KeyIndex implements DataPersistence.ChangeListener {
+
+    public static final char SEPARATOR = ':';
+
+    private static final NavigableSet<String> EMPTY = new TreeSet<String>();
+
+    // the size of a range view is counted by walking it, so pages are sized from the limit
+    private static final int MAX_PAGE_CAPACITY = 64;
+
+    private static final Map<String, KeyIndex> sIndexes = new HashMap<String, KeyIndex>();
+
+    public static KeyIndex get(final DataPersistence persistence) {
+        synchronized (sIndexes) {
+            KeyIndex index = sIndexes.get(persistence.getNamespace());
+            if (index == null) {
+                index = new KeyIndex(persistence);
+                sIndexes.put(persistence.getNamespace(), index);
+            }
+            return index;
+        }
+    }
+
+    /* package */ static void reset() {
+        synchronized (sIndexes) {
+            sIndexes.clear();
+        }
+    }
+
+    private final Map<String, TreeSet<String>> mCollections = new HashMap<String, TreeSet<String>>();
+    private final DataPersistence mPersistence;
+
+    private boolean mLoaded;
+
+    /* package */ KeyIndex(final DataPersistence persistence) {
+        mPersistence = persistence;
+
+        // listen before loading so that no write falls between the two
+        persistence.addChangeListener(this);
+    }
+
+    /**
+     * Returns up to limit keys of a collection that start with prefix and
+     * sort after cursor, in order. A null prefix or cursor matches all.
+     */
+    public synchronized List<String> getKeys(final String collection, final String prefix, final String cursor, final int limit) {
+        final NavigableSet<String> keys = getRange(collection, prefix, cursor);
+        final List<String> page = new ArrayList<String>(Math.min(limit, MAX_PAGE_CAPACITY));
+
+        for (final String key : keys) {
+            if (page.size() >= limit) {
+                break;
+            }
+            page.add(key);
+        }
+        return page;
+    }
+
+    public synchronized boolean hasKeysAfter(final String collection, final String prefix, final String cursor) {
+        return !getRange(collection, prefix, cursor).isEmpty();
+    }
+
+    public synchronized int size(final String collection) {
+        load();
+        final TreeSet<String> keys = mCollections.get(collection);
+        return keys != null ? keys.size() : 0;
+    }
+
+    @Override
+    public synchronized void onChange(final String identifier, final String value) {
+        if (!mLoaded) {
+            return;
+        }
+
+        if (identifier == null) {
+            mCollections.clear();
+        } else if (value == null && isCollection(identifier)) {
+            mCollections.remove(identifier.substring(0, identifier.length() - 1));
+        } else if (value == null) {
+            remove(identifier);
+        } else {
+            add(identifier);
+        }
+    }
+
+    private NavigableSet<String> getRange(final String collection, final String prefix, final String cursor) {
+        load();
+
+        final TreeSet<String> keys = mCollections.get(collection);
+        if (keys == null) {
+            return EMPTY;
+        }
+
+        final boolean hasPrefix = prefix != null && prefix.length() > 0;
+        final String upper = hasPrefix ? prefix + Character.MAX_VALUE : null;
+
+        // the cursor only narrows the range when it sorts after the prefix
+        final boolean afterCursor = cursor != null && (!hasPrefix || cursor.compareTo(prefix) >= 0);
+        final String lower = afterCursor ? cursor : (hasPrefix ? prefix : null);
+
+        if (lower == null) {
+            return keys;
+        } else if (upper == null) {
+            return keys.tailSet(lower, !afterCursor);
+        } else if (lower.compareTo(upper) >= 0) {
+            return EMPTY;
+        } else {
+            return keys.subSet(lower, !afterCursor, upper, false);
+        }
+    }
+
+    /**
+     * Whether a change is for a whole collection, see
+     * {@link DataPersistence#deleteStrings}.
+     */
+    /* package */ static boolean isCollection(final String identifier) {
+        return identifier.indexOf(SEPARATOR) == identifier.length() - 1;
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        for (final String identifier : mPersistence.getKeys()) {
+            add(identifier);
+        }
+        mLoaded = true;
+    }
+
+    private void add(final String identifier) {
+        final int separator = identifier.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return;
+        }
+
+        final String collection = identifier.substring(0, separator);
+        TreeSet<String> keys = mCollections.get(collection);
+        if (keys == null) {
+            keys = new TreeSet<String>();
+            mCollections.put(collection, keys);
+        }
+        keys.add(identifier.substring(separator + 1));
+    }
+
+    private void remove(final String identifier) {
+        final int separator = identifier.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return;
+        }
+
+        final String collection = identifier.substring(0, separator);
+        final TreeSet<String> keys = mCollections.get(collection);
+        if (keys != null && keys.remove(identifier.substring(separator + 1)) && keys.isEmpty()) {
+            mCollections.remove(collection);
+        }
+    }
+}
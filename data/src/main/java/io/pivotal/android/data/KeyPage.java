@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import java.util.List;
+
+/**
+ * One page of keys from a collection. Pass the cursor to the next query to
+ * continue after the last key; it is null when there are no more keys.
+ */
+public class KeyPage {
+
+    public final List<String> keys;
+    public final String cursor;
+
+    public KeyPage(final List<String> keys, final String cursor) {
+        this.keys = keys;
+        this.cursor = cursor;
+    }
+
+    public boolean hasMore() {
+        return cursor != null;
+    }
+
+    @Override
+    public String toString() {
+        return "keys: " + keys + ", cursor: " + cursor;
+    }
+}
@@ -3,13 +3,31 @@
  */
 package io.pivotal.android.data;
 
-public class KeyValue {
+import android.text.TextUtils;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+public class KeyValue implements Identifiable {
     public String key, value, collection;
 
+    // the fields are public, so the cached identifier remembers what it was built from
+    private String mIdentifier, mIdentifierCollection, mIdentifierKey;
+
     public KeyValue() {}
 
     public KeyValue(final KeyValue object) {
-        this(object.collection, object.key, object.value);
+        this(object, object.value);
+    }
+
+    /**
+     * Copies the collection and key of another object, sharing its cached
+     * identifier, with a different value.
+     */
+    public KeyValue(final KeyValue object, final String value) {
+        this(object.collection, object.key, value);
+        mIdentifier = object.getIdentifier();
+        mIdentifierCollection = object.collection;
+        mIdentifierKey = object.key;
     }
 
     public KeyValue(final String collection, final String key, final String value) {
@@ -18,6 +36,39 @@ public class KeyValue {
         this.value = value;
     }
 
+    @JsonIgnore
+    @Override
+    public String getIdentifier() {
+        if (mIdentifier == null || mIdentifierCollection != collection || mIdentifierKey != key) {
+            mIdentifier = collection + ":" + key;
+            mIdentifierCollection = collection;
+            mIdentifierKey = key;
+        }
+        return mIdentifier;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof KeyValue)) {
+            return false;
+        }
+        final KeyValue other = (KeyValue) o;
+        return TextUtils.equals(collection, other.collection)
+                && TextUtils.equals(key, other.key)
+                && TextUtils.equals(value, other.value);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = collection != null ? collection.hashCode() : 0;
+        result = 31 * result + (key != null ? key.hashCode() : 0);
+        result = 31 * result + (value != null ? value.hashCode() : 0);
+        return result;
+    }
+
     @Override
     public String toString() {
         return "key: " + key + ", value: " + value;
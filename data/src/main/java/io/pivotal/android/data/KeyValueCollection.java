@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * The locally stored keys of a collection. Listing reads an in-memory index
+ * instead of the whole store and clearing only affects this device.
+ */
+public class KeyValueCollection {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    public static KeyValueCollection create(final Context context, final String collection) {
+        return new KeyValueCollection(context, StoreRegistry.get(context).getLocalStore(), collection);
+    }
+
+    private final Context mContext;
+    private final KeyValueLocalStore mLocalStore;
+    private final String mCollection;
+
+    public KeyValueCollection(final Context context, final KeyValueLocalStore localStore, final String collection) {
+        mContext = context;
+        mLocalStore = localStore;
+        mCollection = collection;
+    }
+
+    public String getCollection() {
+        return mCollection;
+    }
+
+    public KeyPage getKeys(final String cursor) {
+        return getKeys(null, cursor, DEFAULT_PAGE_SIZE);
+    }
+
+    public KeyPage getKeys(final String prefix, final String cursor, final int limit) {
+        return mLocalStore.getKeys(mCollection, prefix, cursor, limit);
+    }
+
+    public int getSize() {
+        return mLocalStore.getSize(mCollection);
+    }
+
+    public boolean addIndex(final String field) {
+        return mLocalStore.addIndex(mCollection, field);
+    }
+
+    public List<KeyValue> query(final Query query) {
+        return mLocalStore.query(mCollection, query);
+    }
+
+    public LiveQuery observe(final Query query, final LiveQuery.Listener listener) {
+        return mLocalStore.observeQuery(mCollection, query, listener);
+    }
+
+    public boolean addTextIndex() {
+        return mLocalStore.addTextIndex(mCollection);
+    }
+
+    public List<KeyValue> search(final String text, final int offset, final int limit) {
+        return mLocalStore.search(mCollection, text, offset, limit);
+    }
+
+    public KeyValueObject getObject(final String key) {
+        return KeyValueObject.create(mContext, mCollection, key);
+    }
+
+    public void clear() {
+        Logger.d("Clear collection: " + mCollection);
+        mLocalStore.clear(mCollection);
+    }
+}
@@ -4,8 +4,9 @@
 package io.pivotal.android.data;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class KeyValueLocalStore extends LocalStore<KeyValue> {
 
@@ -29,8 +30,10 @@ public class KeyValueLocalStore extends LocalStore<KeyValue> {
     private Response<KeyValue> executeRequest(final Request<KeyValue> request) {
         try {
 
-            final KeyValue responseObject = new KeyValue(request.object);
-            responseObject.value = executeRequestForMethod(request);
+            final String value = executeRequestForMethod(request);
+
+            // requests are not modified once issued, so an unchanged object is shared
+            final KeyValue responseObject = value == request.object.value ? request.object : new KeyValue(request.object, value);
 
             return new Response<KeyValue>(responseObject);
 
@@ -46,16 +49,32 @@ public class KeyValueLocalStore extends LocalStore<KeyValue> {
 
         switch (request.method) {
             case Request.Methods.GET:
-                Logger.d("Get: " + request.object);
+                if (Logger.isDebugEnabled()) {
+                    Logger.d("Get: " + request.object);
+                }
                 return getPersistence().getString(identifier);
 
             case Request.Methods.PUT:
-                Logger.d("Put: " + request.object);
-                return getPersistence().putString(identifier, request.object.value);
+                if (Logger.isDebugEnabled()) {
+                    Logger.d("Put: " + request.object);
+                }
+                setWriting(identifier);
+                try {
+                    return getPersistence().putString(identifier, request.object.value);
+                } finally {
+                    setWriting(null);
+                }
 
             case Request.Methods.DELETE:
-                Logger.d("Delete: " + request.object);
-                return getPersistence().deleteString(identifier);
+                if (Logger.isDebugEnabled()) {
+                    Logger.d("Delete: " + request.object);
+                }
+                setWriting(identifier);
+                try {
+                    return getPersistence().deleteString(identifier);
+                } finally {
+                    setWriting(null);
+                }
 
             default:
                 throw new UnsupportedOperationException();
@@ -63,15 +82,131 @@ public class KeyValueLocalStore extends LocalStore<KeyValue> {
     }
 
     private static String getIdentifier(final KeyValue object) {
-        return object.collection + ":" + object.key;
+        // cached on the object, so repeated requests do not rebuild it
+        return object.getIdentifier();
+    }
+
+    /**
+     * Lists the keys of a collection in order, starting after the cursor
+     * of a previous page. A null prefix or cursor matches every key.
+     */
+    public KeyPage getKeys(final String collection, final String prefix, final String cursor, final int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+
+        final KeyIndex index = getKeyIndex();
+        final List<String> keys = index.getKeys(collection, prefix, cursor, limit);
+
+        final String last = keys.isEmpty() ? null : keys.get(keys.size() - 1);
+        final boolean hasMore = last != null && index.hasKeysAfter(collection, prefix, last);
+
+        return new KeyPage(keys, hasMore ? last : null);
+    }
+
+    public int getSize(final String collection) {
+        return getKeyIndex().size(collection);
     }
 
-    // TODO make observers listen to shared prefs?
-    protected static class ObserverProxy implements OnSharedPreferenceChangeListener {
+    /**
+     * Deletes every stored object of a collection in a single commit.
+     * Observers are notified once, with an empty key for the collection.
+     */
+    public void clear(final String collection) {
+        final List<String> keys = getKeyIndex().getKeys(collection, null, null, Integer.MAX_VALUE);
 
-        @Override
-        public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key) {
+        if (!keys.isEmpty()) {
+            getPersistence().deleteStrings(collection + KeyIndex.SEPARATOR, keys);
+        }
+    }
+
+    /**
+     * Indexes a top-level field of the JSON values in a collection so that
+     * it can be used by {@link #query(String, Query)}. Returns false when
+     * the field is already indexed.
+     */
+    public boolean addIndex(final String collection, final String field) {
+        return getFieldIndex().addIndex(collection, field);
+    }
+
+    /**
+     * Returns the objects of a collection that match a query. Matching keys
+     * are found through the indexes; only the results are read.
+     */
+    public List<KeyValue> query(final String collection, final Query query) {
+        if (Logger.isDebugEnabled()) {
+            Logger.d("Query: " + collection + ", " + query);
+        }
+
+        final List<String> keys = getFieldIndex().query(collection, query);
+        return getObjects(collection, keys);
+    }
 
+    private List<KeyValue> getObjects(final String collection, final List<String> keys) {
+        final List<KeyValue> objects = new ArrayList<KeyValue>(keys.size());
+
+        for (final String key : keys) {
+            final String value = getPersistence().getString(collection + KeyIndex.SEPARATOR + key);
+            objects.add(new KeyValue(collection, key, value));
         }
+        return objects;
+    }
+
+    /**
+     * Runs a query and keeps its result current, notifying the listener on
+     * the main thread of every insertion, update and removal.
+     */
+    public LiveQuery observeQuery(final String collection, final Query query, final LiveQuery.Listener listener) {
+        final LiveQuery liveQuery = new LiveQuery(getPersistence(), collection, query, listener, getExecutors().getCallbackExecutor());
+        liveQuery.start();
+        return liveQuery;
+    }
+
+    /**
+     * Maintains a full-text index over the values of a collection so that
+     * it can be used by {@link #search(String, String, int, int)}.
+     * Returns false when the collection is already indexed.
+     */
+    public boolean addTextIndex(final String collection) {
+        return getTextIndex().addIndex(collection);
+    }
+
+    /**
+     * Returns a page of the objects of a collection whose values contain
+     * every word of the text, treating the last word as a prefix, best
+     * matches first.
+     */
+    public List<KeyValue> search(final String collection, final String text, final int offset, final int limit) {
+        if (offset < 0 || limit <= 0 || offset > Integer.MAX_VALUE - limit) {
+            throw new IllegalArgumentException("invalid offset or limit");
+        }
+
+        final List<String> keys = getTextIndex().search(collection, text, offset, limit);
+        return getObjects(collection, keys);
+    }
+
+    /* package */ TextIndex getTextIndex() {
+        return TextIndex.get(getPersistence());
+    }
+
+    /* package */ FieldIndex getFieldIndex() {
+        return FieldIndex.get(getPersistence());
+    }
+
+    /* package */ KeyIndex getKeyIndex() {
+        return KeyIndex.get(getPersistence());
+    }
+
+    @Override
+    protected Response<KeyValue> createChangeResponse(final String identifier, final String value) {
+        final int separator = identifier.indexOf(':');
+        if (separator < 0) {
+            return null;
+        }
+
+        final String collection = identifier.substring(0, separator);
+        final String key = identifier.substring(separator + 1);
+
+        return new Response<KeyValue>(new KeyValue(collection, key, value != null ? value : ""));
     }
 }
@@ -11,74 +11,108 @@ import io.pivotal.android.data.DataStore.Observer;
 public class KeyValueObject {
 
     public static KeyValueObject create(final Context context, final String collection, final String key) {
-        final DataStore<KeyValue> dataStore = KeyValueOfflineStore.create(context);
+        final DataStore<KeyValue> dataStore = KeyValueOfflineStore.create(context, collection);
         return new KeyValueObject(dataStore, collection, key);
     }
 
     private final DataStore<KeyValue> mDataStore;
     private final String mCollection, mKey;
+    private final KeyValue mPrototype;
 
     private boolean mForce;
+    private int mPriority = Request.Priorities.NORMAL;
+    private long mTimeout;
+
+    private DataPublisher<KeyValue> mPublisher;
 
     public KeyValueObject(final DataStore<KeyValue> dataStore, final String collection, final String key) {
         mDataStore = dataStore;
         mCollection = collection;
         mKey = key;
+        mPrototype = new KeyValue(collection, key, null);
     }
 
     public void setShouldForceRequest(final boolean force) {
         mForce = force;
     }
 
+    public void setPriority(final int priority) {
+        mPriority = priority;
+    }
+
+    public void setTimeout(final long timeout) {
+        mTimeout = timeout;
+    }
+
+    public long getTimeout() {
+        return mTimeout;
+    }
+
     protected Request<KeyValue> createRequest(final int method, final String value) {
-        Logger.d("REQUEST: Collection: " + mCollection + ", Key: " + mKey + ", Value: " + value + ", Force: " + mForce);
-        final KeyValue object = new KeyValue(mCollection, mKey, value);
-        return new Request<KeyValue>(method, object, mForce);
+        if (Logger.isDebugEnabled()) {
+            Logger.d("REQUEST: Collection: " + mCollection + ", Key: " + mKey + ", Value: " + value + ", Force: " + mForce + ", Priority: " + mPriority);
+        }
+        final KeyValue object = new KeyValue(mPrototype, value);
+        final Request<KeyValue> request = new Request<KeyValue>(method, object, mForce);
+        request.priority = mPriority;
+        request.timeout = mTimeout;
+        return request;
     }
 
     public Response<KeyValue> get() {
-        Logger.d("Get: " + mKey);
         final Request<KeyValue> request = createRequest(Request.Methods.GET, null);
         return mDataStore.execute(request);
     }
 
-    public void get(final Listener<KeyValue> listener) {
-        Logger.d("Get: " + mKey);
+    public DataFuture<KeyValue> get(final Listener<KeyValue> listener) {
         final Request<KeyValue> request = createRequest(Request.Methods.GET, null);
-        mDataStore.execute(request, listener);
+        return mDataStore.execute(request, listener);
     }
 
     public Response<KeyValue> put(final String value) {
-        Logger.d("Put: " + mKey + ", " + value);
         final Request<KeyValue> request = createRequest(Request.Methods.PUT, value);
         return mDataStore.execute(request);
     }
 
-    public void put(final String value, final Listener<KeyValue> listener) {
-        Logger.d("Put: " + mKey + ", " + value);
+    public DataFuture<KeyValue> put(final String value, final Listener<KeyValue> listener) {
         final Request<KeyValue> request = createRequest(Request.Methods.PUT, value);
-        mDataStore.execute(request, listener);
+        return mDataStore.execute(request, listener);
     }
 
     public Response<KeyValue> delete() {
-        Logger.d("Delete: " + mKey);
         final Request<KeyValue> request = createRequest(Request.Methods.DELETE, null);
         return mDataStore.execute(request);
     }
 
-    public void delete(final Listener<KeyValue> listener) {
-        Logger.d("Delete: " + mKey);
+    public DataFuture<KeyValue> delete(final Listener<KeyValue> listener) {
         final Request<KeyValue> request = createRequest(Request.Methods.DELETE, null);
-        mDataStore.execute(request, listener);
+        return mDataStore.execute(request, listener);
+    }
+
+    /**
+     * Returns the stream of responses for this key, shared by all of its
+     * subscribers.
+     */
+    public DataPublisher<KeyValue> observe() {
+        synchronized (this) {
+            if (mPublisher == null) {
+                mPublisher = new DataPublisher<KeyValue>(mDataStore, createRequest(Request.Methods.GET, null));
+            }
+            return mPublisher;
+        }
     }
 
+    /**
+     * Observes this key only, not the rest of the store it shares with
+     * other objects.
+     */
     public boolean addObserver(final Observer<KeyValue> observer) {
         Logger.d("Add observer: " + observer);
-        return mDataStore.addObserver(observer);
+        return mDataStore.addObserver(mPrototype.getIdentifier(), observer);
     }
 
     public boolean removeObserver(final Observer<KeyValue> observer) {
         Logger.d("Remove observer: " + observer);
-        return mDataStore.removeObserver(observer);
+        return mDataStore.removeObserver(mPrototype.getIdentifier(), observer);
     }
 }
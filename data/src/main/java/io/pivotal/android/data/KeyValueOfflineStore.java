@@ -4,16 +4,62 @@
 package io.pivotal.android.data;
 
 import android.content.Context;
+import android.text.TextUtils;
 
 public class KeyValueOfflineStore extends OfflineStore<KeyValue> {
 
+    private static ConflictResolver<KeyValue> sConflictResolver;
+
+    static void registerConflictResolver(final ConflictResolver<KeyValue> resolver) {
+        sConflictResolver = resolver;
+    }
+
+    /**
+     * Creates a store with its own observers on top of the components
+     * shared through the {@link StoreRegistry}.
+     */
     public static KeyValueOfflineStore create(final Context context) {
-        final LocalStore<KeyValue> localStore = new KeyValueLocalStore(context);
-        final RemoteStore<KeyValue> remoteStore = new KeyValueRemoteStore(context);
-        return new KeyValueOfflineStore(context, localStore, remoteStore);
+        return create(StoreRegistry.get(context));
+    }
+
+    /**
+     * Returns the store shared by every object in the collection, so that
+     * objects do not each add their own handlers and change listener.
+     * Observers added to it stay registered until they are removed.
+     */
+    public static KeyValueOfflineStore create(final Context context, final String collection) {
+        return StoreRegistry.get(context).getOfflineStore(collection);
+    }
+
+    /* package */ static KeyValueOfflineStore create(final StoreRegistry registry) {
+        final LocalStore<KeyValue> localStore = new KeyValueLocalStore(new ObserverHandler<KeyValue>(), registry.getDataPersistence());
+        final RemoteStore<KeyValue> remoteStore = new KeyValueRemoteStore(new ObserverHandler<KeyValue>(), registry.getRemoteClient());
+        final KeyValueOfflineStore offlineStore = new KeyValueOfflineStore(registry.getContext(), localStore, remoteStore);
+        offlineStore.setRequestCache(registry.getRequestCache());
+        return offlineStore;
     }
 
     public KeyValueOfflineStore(final Context context, final LocalStore<KeyValue> localStore, final RemoteStore<KeyValue> remoteStore) {
         super(context, localStore, remoteStore);
     }
+
+    @Override
+    protected ConflictResolver<KeyValue> getConflictResolver() {
+        final ConflictResolver<KeyValue> resolver = super.getConflictResolver();
+        return new CrdtResolver(resolver != null ? resolver : sConflictResolver);
+    }
+
+    @Override
+    protected boolean canResolveConflict(final Request<KeyValue> request) {
+        if (request.method != Request.Methods.PUT) {
+            return false;
+        }
+        final ConflictResolver<KeyValue> resolver = super.getConflictResolver();
+        return resolver != null || sConflictResolver != null || CrdtResolver.canMerge(request.object);
+    }
+
+    @Override
+    protected boolean hasValue(final KeyValue object) {
+        return object != null && !TextUtils.isEmpty(object.value);
+    }
 }
@@ -7,9 +7,26 @@ import android.content.Context;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class KeyValueRemoteStore extends RemoteStore<KeyValue> {
 
+    // larger values are streamed from the stored string, by clients that can, instead of copied to a byte[]
+    /* package */ static final int STREAMING_THRESHOLD = RemoteClient.Default.Transfers.SEGMENT_SIZE;
+
+    private static final int URL_CACHE_SIZE = 64;
+
+    // urls of recently used keys, valid for mServiceUrl
+    private final Map<String, String> mUrls = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+            return size() > URL_CACHE_SIZE;
+        }
+    };
+
+    private String mServiceUrl;
+
     public KeyValueRemoteStore(final Context context) {
         this(new ObserverHandler<KeyValue>(), new RemoteClient.Default(context));
     }
@@ -19,17 +36,13 @@ public class KeyValueRemoteStore extends RemoteStore<KeyValue> {
     }
 
     @Override
-    public Response<KeyValue> execute(final Request<KeyValue> request) {
-        final Response<KeyValue> response = executeRequest(request);
-        getHandler().notifyResponse(response);
-        return response;
-    }
-
-    private Response<KeyValue> executeRequest(final Request<KeyValue> request) {
+    protected Response<KeyValue> executeRequest(final Request<KeyValue> request) {
         try {
 
-            final KeyValue responseObject = new KeyValue(request.object);
-            responseObject.value = executeRequestForMethod(request);
+            final String value = executeRequestForMethod(request);
+
+            // requests are not modified once issued, so an unchanged object is shared
+            final KeyValue responseObject = value == request.object.value ? request.object : new KeyValue(request.object, value);
 
             return new Response<KeyValue>(responseObject);
 
@@ -45,16 +58,25 @@ public class KeyValueRemoteStore extends RemoteStore<KeyValue> {
 
         switch (request.method) {
             case Request.Methods.GET:
-                Logger.d("Get: " + request.object);
+                if (Logger.isDebugEnabled()) {
+                    Logger.d("Get: " + request.object);
+                }
                 return getClient().get(url, request.force);
 
             case Request.Methods.PUT:
-                Logger.d("Put: " + request.object);
+                if (Logger.isDebugEnabled()) {
+                    Logger.d("Put: " + request.object);
+                }
+                if (isLarge(request.object) && getClient() instanceof RemoteClient.Streaming) {
+                    return ((RemoteClient.Streaming) getClient()).putValue(url, request.object.value, request.force);
+                }
                 final byte[] entity = getEntity(request.object);
                 return getClient().put(url, entity, request.force);
 
             case Request.Methods.DELETE:
-                Logger.d("Delete: " + request.object);
+                if (Logger.isDebugEnabled()) {
+                    Logger.d("Delete: " + request.object);
+                }
                 return getClient().delete(url, request.force);
 
             default:
@@ -63,7 +85,34 @@ public class KeyValueRemoteStore extends RemoteStore<KeyValue> {
     }
 
     protected String getUrl(final KeyValue keyValue) throws MalformedURLException {
-        return new URL(Pivotal.getServiceUrl() + "/" + keyValue.collection + "/" + keyValue.key).toString();
+        final String identifier = keyValue.getIdentifier();
+
+        synchronized (mUrls) {
+            final String serviceUrl = getServiceUrl();
+
+            String url = mUrls.get(identifier);
+            if (url == null) {
+                url = serviceUrl + "/" + keyValue.collection + "/" + keyValue.key;
+                mUrls.put(identifier, url);
+            }
+            return url;
+        }
+    }
+
+    private String getServiceUrl() throws MalformedURLException {
+        final String serviceUrl = Pivotal.getServiceUrl();
+
+        // only the service url can make the result malformed, so it is parsed once
+        if (serviceUrl == null || !serviceUrl.equals(mServiceUrl)) {
+            new URL(serviceUrl);
+            mServiceUrl = serviceUrl;
+            mUrls.clear();
+        }
+        return serviceUrl;
+    }
+
+    private static boolean isLarge(final KeyValue keyValue) {
+        return keyValue.value != null && keyValue.value.length() > STREAMING_THRESHOLD;
     }
 
     protected byte[] getEntity(final KeyValue keyValue) {
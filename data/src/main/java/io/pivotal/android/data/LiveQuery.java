@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+/**
+ * The result of a {@link Query} kept current as the collection changes.
+ * Each write is matched against the query on its own, so the cost of an
+ * update is that of the changed object rather than of the result, and
+ * listeners receive only what was inserted, updated or removed.
+ *
+ * <p>The store holds live queries weakly: keep a reference while
+ * observing and {@link #close()} it when done.
+ */
+public class LiveQuery implements DataPersistence.ChangeListener {
+
+    public static interface Listener {
+        public void onChanged(LiveQuery query, Changes changes);
+    }
+
+    public static class Changes {
+        public final List<KeyValue> inserted = new ArrayList<KeyValue>();
+        public final List<KeyValue> updated = new ArrayList<KeyValue>();
+        public final List<String> removed = new ArrayList<String>();
+
+        public boolean isEmpty() {
+            return inserted.isEmpty() && updated.isEmpty() && removed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "inserted: " + inserted + ", updated: " + updated + ", removed: " + removed;
+        }
+    }
+
+    private final Object mLock = new Object();
+
+    private final DataPersistence mPersistence;
+    private final String mCollection;
+    private final Query mQuery;
+    private final Listener mListener;
+    private final Executor mExecutor;
+
+    // ordered by the sort value, then by key
+    private final TreeSet<String> mKeys;
+    private final Map<String, Object> mSortValues = new HashMap<String, Object>();
+
+    private boolean mMayHaveMore;
+    private boolean mClosed;
+
+    /* package */ LiveQuery(final DataPersistence persistence, final String collection, final Query query, final Listener listener, final Executor executor) {
+        mPersistence = persistence;
+        mCollection = collection;
+        mQuery = query;
+        mListener = listener;
+        mExecutor = executor;
+        mKeys = new TreeSet<String>(new SortOrder());
+    }
+
+    /**
+     * Loads the initial result through the indexes and starts following
+     * writes. The initial result is delivered as insertions.
+     */
+    /* package */ void start() {
+        final Changes changes = new Changes();
+
+        synchronized (mLock) {
+            // listen first so that no write falls between loading and listening
+            mPersistence.addChangeListener(this);
+            refill(null, changes);
+        }
+
+        deliver(changes);
+    }
+
+    public void close() {
+        synchronized (mLock) {
+            mClosed = true;
+            mKeys.clear();
+            mSortValues.clear();
+        }
+        mPersistence.removeChangeListener(this);
+    }
+
+    public Query getQuery() {
+        return mQuery;
+    }
+
+    public List<String> getKeys() {
+        synchronized (mLock) {
+            return new ArrayList<String>(mKeys);
+        }
+    }
+
+    public int size() {
+        synchronized (mLock) {
+            return mKeys.size();
+        }
+    }
+
+    @Override
+    public void onChange(final String identifier, final String value) {
+        final Changes changes = new Changes();
+
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+
+            if (identifier == null) {
+                clear(changes);
+
+            } else {
+                final int separator = identifier.indexOf(KeyIndex.SEPARATOR);
+                if (separator < 0 || !mCollection.equals(identifier.substring(0, separator))) {
+                    return;
+                }
+
+                if (value == null && KeyIndex.isCollection(identifier)) {
+                    clear(changes);
+                } else {
+                    apply(identifier.substring(separator + 1), value, changes);
+                }
+            }
+        }
+
+        deliver(changes);
+    }
+
+    private void clear(final Changes changes) {
+        changes.removed.addAll(mKeys);
+        mKeys.clear();
+        mSortValues.clear();
+        mMayHaveMore = false;
+    }
+
+    private void apply(final String key, final String value, final Changes changes) {
+        final boolean contained = mSortValues.containsKey(key);
+        final JsonNode node = value != null ? FieldIndex.parse(value) : null;
+        final Object sortValue = value != null ? getSortValue(key, node) : null;
+
+        if (sortValue == null || !matches(node)) {
+            if (contained) {
+                remove(key);
+                changes.removed.add(key);
+
+                if (mMayHaveMore && mKeys.size() < mQuery.getLimit()) {
+                    refill(key, changes);
+                }
+            }
+            return;
+        }
+
+        if (contained) {
+            remove(key);
+            add(key, sortValue);
+
+            if (mMayHaveMore && mKeys.last().equals(key)) {
+                // the object may now rank below others that are not loaded
+                remove(key);
+                refill(key, changes);
+                add(key, sortValue);
+
+                if (mKeys.size() > mQuery.getLimit()) {
+                    final String last = mKeys.last();
+                    remove(last);
+                    mMayHaveMore = true;
+
+                    if (last.equals(key)) {
+                        changes.removed.add(key);
+                        return;
+                    }
+                    removeInserted(changes, last);
+                }
+            }
+            changes.updated.add(new KeyValue(mCollection, key, value));
+
+        } else {
+            add(key, sortValue);
+
+            if (mKeys.size() > mQuery.getLimit()) {
+                final String last = mKeys.last();
+                remove(last);
+                mMayHaveMore = true;
+
+                if (last.equals(key)) {
+                    return;
+                }
+                changes.removed.add(last);
+            }
+            changes.inserted.add(new KeyValue(mCollection, key, value));
+        }
+    }
+
+    /**
+     * Tops up the result from the indexes after it lost members, skipping
+     * the key being changed since the indexes may not have seen it yet.
+     */
+    private void refill(final String changedKey, final Changes changes) {
+        final int limit = mQuery.getLimit();
+
+        // the changed key may still hold a place in the indexes, so ask for one more
+        final int size = changedKey != null && limit != Query.NO_LIMIT ? limit + 1 : limit;
+        final List<String> keys;
+
+        if (mQuery.getPredicates().isEmpty() && mQuery.getOrderBy() == null) {
+            keys = KeyIndex.get(mPersistence).getKeys(mCollection, null, null, size);
+        } else {
+            keys = FieldIndex.get(mPersistence).query(mCollection, mQuery.copy(size));
+        }
+
+        for (final String key : keys) {
+            if (key.equals(changedKey) || mSortValues.containsKey(key)) {
+                continue;
+            }
+
+            final String value = mPersistence.getString(mCollection + KeyIndex.SEPARATOR + key);
+            final JsonNode node = FieldIndex.parse(value);
+            final Object sortValue = getSortValue(key, node);
+
+            if (sortValue != null && mKeys.size() < limit) {
+                add(key, sortValue);
+                changes.inserted.add(new KeyValue(mCollection, key, value));
+            }
+        }
+
+        mMayHaveMore = keys.size() >= size;
+    }
+
+    private boolean matches(final JsonNode node) {
+        if (mQuery.getPredicates().isEmpty()) {
+            return true;
+        } else if (node == null) {
+            return false;
+        }
+        for (final Query.Predicate predicate : mQuery.getPredicates()) {
+            if (!predicate.matches(FieldIndex.extract(node, predicate.field))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Orders like {@link FieldIndex#query(String, Query)}: by the order
+     * field, else by the first predicate's field, else by key.
+     */
+    private Object getSortValue(final String key, final JsonNode node) {
+        final String field = getSortField();
+        if (field == null) {
+            return key;
+        }
+        return node != null ? FieldIndex.extract(node, field) : null;
+    }
+
+    private String getSortField() {
+        if (mQuery.getOrderBy() != null) {
+            return mQuery.getOrderBy();
+        } else if (!mQuery.getPredicates().isEmpty()) {
+            return mQuery.getPredicates().get(0).field;
+        } else {
+            return null;
+        }
+    }
+
+    private static void removeInserted(final Changes changes, final String key) {
+        for (int i = 0; i < changes.inserted.size(); i++) {
+            if (changes.inserted.get(i).key.equals(key)) {
+                changes.inserted.remove(i);
+                return;
+            }
+        }
+    }
+
+    private void add(final String key, final Object sortValue) {
+        mSortValues.put(key, sortValue);
+        mKeys.add(key);
+    }
+
+    private void remove(final String key) {
+        mKeys.remove(key);
+        mSortValues.remove(key);
+    }
+
+    private void deliver(final Changes changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onChanged(LiveQuery.this, changes);
+            }
+        });
+    }
+
+    private final class SortOrder implements Comparator<String> {
+
+        @Override
+        public int compare(final String a, final String b) {
+            final int result = FieldIndex.compare(mSortValues.get(a), mSortValues.get(b));
+            if (result != 0) {
+                return mQuery.isDescending() ? -result : result;
+            }
+            final int keys = a.compareTo(b);
+            return mQuery.isDescending() ? -keys : keys;
+        }
+    }
+}
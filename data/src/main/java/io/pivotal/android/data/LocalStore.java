@@ -4,9 +4,6 @@
 package io.pivotal.android.data;
 
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.os.AsyncTask;
 
 public abstract class LocalStore<T> implements DataStore<T> {
 
@@ -14,6 +11,10 @@ public abstract class LocalStore<T> implements DataStore<T> {
 
     private final ObserverHandler<T> mHandler;
     private final DataPersistence mPersistence;
+    private final ObserverProxy mObserverProxy = new ObserverProxy();
+
+    // the key this store is writing on the current thread, already notified by execute
+    private final ThreadLocal<String> mWriting = new ThreadLocal<String>();
 
     public LocalStore(final Context context) {
         this(new ObserverHandler<T>(), new DataPersistence(context, DATA_PREFIX));
@@ -22,6 +23,10 @@ public abstract class LocalStore<T> implements DataStore<T> {
     public LocalStore(final ObserverHandler<T> handler, final DataPersistence persistence) {
         mHandler = handler;
         mPersistence = persistence;
+
+        if (persistence != null) {
+            persistence.addChangeListener(mObserverProxy);
+        }
     }
 
     protected ObserverHandler<T> getHandler() {
@@ -33,21 +38,13 @@ public abstract class LocalStore<T> implements DataStore<T> {
     }
 
     @Override
-    public void execute(final Request<T> request, final Listener<T> listener) {
-        new AsyncTask<Void, Void, Response<T>>() {
-
-            @Override
-            protected Response<T> doInBackground(final Void... params) {
-                return LocalStore.this.execute(request);
-            }
+    public DataFuture<T> execute(final Request<T> request, final Listener<T> listener) {
+        final DataExecutors executors = getExecutors();
+        return executors.execute(executors.getDiskExecutor(), this, request, listener);
+    }
 
-            @Override
-            protected void onPostExecute(final Response<T> resp) {
-                if (listener != null) {
-                    listener.onResponse(resp);
-                }
-            }
-        }.execute();
+    protected DataExecutors getExecutors() {
+        return DataExecutors.getInstance();
     }
 
     @Override
@@ -60,13 +57,67 @@ public abstract class LocalStore<T> implements DataStore<T> {
         return mHandler.removeObserver(observer);
     }
 
-    protected static class ObserverProxy implements OnSharedPreferenceChangeListener {
+    @Override
+    public boolean addObserver(final String key, final Observer<T> observer) {
+        return mHandler.addObserver(key, observer);
+    }
 
-        @Override
-        public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key) {
+    @Override
+    public boolean removeObserver(final String key, final Observer<T> observer) {
+        return mHandler.removeObserver(key, observer);
+    }
 
+    /**
+     * Marks the key written on the current thread, or clears it with null,
+     * so the change is not notified a second time through the proxy.
+     */
+    protected void setWriting(final String key) {
+        if (key != null) {
+            mWriting.set(key);
+        } else {
+            mWriting.remove();
         }
     }
 
-    // TODO change observers back to listening to shared prefs?
+    /**
+     * Turns a change written to storage, by this or any other store, into
+     * a response for observers. Returns null to ignore the change.
+     */
+    protected Response<T> createChangeResponse(final String key, final String value) {
+        return null;
+    }
+
+    /**
+     * Forwards changes to storage for the keys observers are interested
+     * in. Storage keys are the identifiers of the objects they hold. A
+     * deleted collection is a single change, which observers of its keys
+     * also receive as a delete of their key.
+     */
+    protected class ObserverProxy implements DataPersistence.ChangeListener {
+
+        @Override
+        public void onChange(final String key, final String value) {
+            if (key == null || key.equals(mWriting.get())) {
+                return;
+            }
+
+            if (value == null && KeyIndex.isCollection(key)) {
+                for (final String identifier : mHandler.getObservedIdentifiers(key)) {
+                    notifyChange(identifier, null);
+                }
+            }
+
+            if (mHandler.hasObservers(key)) {
+                notifyChange(key, value);
+            }
+        }
+
+        private void notifyChange(final String key, final String value) {
+            final Response<T> response = createChangeResponse(key, value);
+
+            if (response != null) {
+                mHandler.notifyResponse(response);
+            }
+        }
+    }
 }
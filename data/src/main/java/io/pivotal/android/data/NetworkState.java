@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Build;
+
+/**
+ * Process-wide snapshot of the active network. It is queried once and then
+ * refreshed on connectivity broadcasts, so requests read it without going
+ * to the ConnectivityManager.
+ */
+public class NetworkState {
+
+    public static final int TYPE_NONE = -1;
+
+    public static final NetworkState DISCONNECTED = new NetworkState(false, TYPE_NONE, false);
+
+    private static volatile NetworkState sCurrent;
+    private static boolean sReceiverRegistered;
+
+    public final boolean connected;
+    public final int type;
+    public final boolean metered;
+
+    public NetworkState(final boolean connected, final int type, final boolean metered) {
+        this.connected = connected;
+        this.type = type;
+        this.metered = metered;
+    }
+
+    public static NetworkState get(final Context context) {
+        final NetworkState state = sCurrent;
+        if (state != null) {
+            return state;
+        }
+
+        registerReceiver(context);
+        return refresh(context);
+    }
+
+    public static boolean isConnected(final Context context) {
+        return get(context).connected;
+    }
+
+    public static NetworkState refresh(final Context context) {
+        final NetworkState state = query(context);
+
+        if (!state.equals(sCurrent)) {
+            Logger.d("Network state: " + state);
+        }
+
+        sCurrent = state;
+        return state;
+    }
+
+    /* package */ static void set(final NetworkState state) {
+        sCurrent = state;
+    }
+
+    private static NetworkState query(final Context context) {
+        final ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        final NetworkInfo activeNetwork = manager.getActiveNetworkInfo();
+
+        if (activeNetwork == null || !activeNetwork.isConnected()) {
+            return DISCONNECTED;
+        }
+
+        final int type = activeNetwork.getType();
+        final boolean metered;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            metered = manager.isActiveNetworkMetered();
+        } else {
+            metered = type != ConnectivityManager.TYPE_WIFI;
+        }
+
+        return new NetworkState(true, type, metered);
+    }
+
+    private static synchronized void registerReceiver(final Context context) {
+        final Context applicationContext = context.getApplicationContext();
+
+        if (sReceiverRegistered || applicationContext == null) {
+            return;
+        }
+
+        // the manifest receiver is disabled when no listener is registered
+        final IntentFilter filter = new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION);
+        applicationContext.registerReceiver(new StateReceiver(), filter);
+
+        sReceiverRegistered = true;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof NetworkState)) return false;
+
+        final NetworkState state = (NetworkState) o;
+        return connected == state.connected && type == state.type && metered == state.metered;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = connected ? 1 : 0;
+        result = 31 * result + type;
+        result = 31 * result + (metered ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "NetworkState{connected=" + connected + ", type=" + type + ", metered=" + metered + "}";
+    }
+
+    private static final class StateReceiver extends BroadcastReceiver {
+
+        @Override
+        public void onReceive(final Context context, final Intent intent) {
+            refresh(context);
+        }
+    }
+}
@@ -4,59 +4,367 @@
 package io.pivotal.android.data;
 
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
 
+/**
+ * Delivers responses to observers registered for everything, for a single
+ * object identifier or, with a key ending in {@link #PREFIX_SEPARATOR},
+ * for every identifier starting with that prefix (e.g. "collection:").
+ * Notifications are coalesced per identifier, so a burst of updates to
+ * one key is delivered once without dropping updates to other keys.
+ *
+ * <p>Observers are kept in copy-on-write sets and are called without any
+ * lock held, on the thread selected by the {@link DispatchModes dispatch
+ * mode}. A {@link BatchObserver} receives everything since the previous
+ * frame in a single call.
+ */
 public class ObserverHandler<T> extends Handler {
 
+    public static final char PREFIX_SEPARATOR = ':';
+
+    /**
+     * {@link #IMMEDIATE} calls observers synchronously on the thread that
+     * made the change. A store holding a lock while it writes defers them
+     * with {@link #hold()} until it has released the lock, but a slow
+     * observer still delays the writer that triggered it.
+     */
+    public static final class DispatchModes {
+        public static final int MAIN = 0;
+        public static final int BACKGROUND = 1;
+        public static final int IMMEDIATE = 2;
+    }
+
+    public static interface BatchObserver<T> extends DataStore.Observer<T> {
+        public void onResponses(List<Response<T>> responses);
+    }
+
+    static final int FRAME_DELAY = 16;
+
     private static final int MSG_NOTIFY = 1000;
+    private static final int MSG_FRAME = 1001;
     private static final int MSG_DELAY = 100;
 
+    private static final String NO_IDENTIFIER = "";
+
+    private static final ThreadLocal<Held> sHeld = new ThreadLocal<Held>();
+
+    private static Executor sBackgroundExecutor;
+
     private final Object mLock = new Object();
-    private final Set<DataStore.Observer<T>> mObservers = new HashSet<DataStore.Observer<T>>();
+    private final Set<DataStore.Observer<T>> mObservers = new CopyOnWriteArraySet<DataStore.Observer<T>>();
+    private final Map<String, Set<DataStore.Observer<T>>> mKeyObservers = new ConcurrentHashMap<String, Set<DataStore.Observer<T>>>();
+    private final Map<String, Set<DataStore.Observer<T>>> mPrefixObservers = new ConcurrentHashMap<String, Set<DataStore.Observer<T>>>();
+    private final Map<String, Response<T>> mPending = new HashMap<String, Response<T>>();
+    private final Map<BatchObserver<T>, List<Response<T>>> mBatches = new LinkedHashMap<BatchObserver<T>, List<Response<T>>>();
+
+    private volatile int mDispatchMode = DispatchModes.MAIN;
+    private boolean mFrameScheduled;
+
+    public ObserverHandler() {
+        // stores may be created on worker threads, observers run on the main thread
+        super(Looper.getMainLooper());
+    }
 
     public boolean addObserver(final DataStore.Observer<T> observer) {
         Logger.d("Add Observer: " + observer);
-        synchronized (mLock) {
-            return mObservers.add(observer);
-        }
+        return mObservers.add(observer);
     }
 
     public boolean removeObserver(final DataStore.Observer<T> observer) {
         Logger.d("Remove Observer: " + observer);
+        return mObservers.remove(observer);
+    }
+
+    public boolean addObserver(final String key, final DataStore.Observer<T> observer) {
+        Logger.d("Add Observer: " + observer + ", key: " + key);
         synchronized (mLock) {
-            return mObservers.remove(observer);
+            final Map<String, Set<DataStore.Observer<T>>> index = getIndex(key);
+            Set<DataStore.Observer<T>> observers = index.get(key);
+            if (observers == null) {
+                observers = new CopyOnWriteArraySet<DataStore.Observer<T>>();
+                index.put(key, observers);
+            }
+            return observers.add(observer);
+        }
+    }
+
+    public boolean removeObserver(final String key, final DataStore.Observer<T> observer) {
+        Logger.d("Remove Observer: " + observer + ", key: " + key);
+        synchronized (mLock) {
+            final Map<String, Set<DataStore.Observer<T>>> index = getIndex(key);
+            final Set<DataStore.Observer<T>> observers = index.get(key);
+            if (observers == null || !observers.remove(observer)) {
+                return false;
+            }
+            if (observers.isEmpty()) {
+                index.remove(key);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Whether any observer would be notified of a response for the
+     * identifier.
+     */
+    public boolean hasObservers(final String identifier) {
+        if (!mObservers.isEmpty() || mKeyObservers.containsKey(identifier)) {
+            return true;
         }
+
+        if (!mPrefixObservers.isEmpty()) {
+            for (int i = identifier.indexOf(PREFIX_SEPARATOR); i >= 0; i = identifier.indexOf(PREFIX_SEPARATOR, i + 1)) {
+                if (mPrefixObservers.containsKey(identifier.substring(0, i + 1))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the identifiers starting with prefix that have observers of
+     * their own.
+     */
+    public List<String> getObservedIdentifiers(final String prefix) {
+        final List<String> identifiers = new ArrayList<String>();
+        for (final String identifier : mKeyObservers.keySet()) {
+            if (identifier.startsWith(prefix)) {
+                identifiers.add(identifier);
+            }
+        }
+        return identifiers;
     }
 
     public Set<DataStore.Observer<T>> getObservers() {
         return mObservers;
     }
 
+    public void setDispatchMode(final int dispatchMode) {
+        mDispatchMode = dispatchMode;
+    }
+
+    /**
+     * Holds back immediate notifications made on the calling thread until
+     * the matching {@link #release()}, e.g. while a lock is held. Calls
+     * may be nested.
+     */
+    public static void hold() {
+        Held held = sHeld.get();
+        if (held == null) {
+            held = new Held();
+            sHeld.set(held);
+        }
+        held.depth++;
+    }
+
+    /**
+     * Ends a {@link #hold()}, running the held notifications once the
+     * outermost hold is released.
+     */
+    public static void release() {
+        final Held held = sHeld.get();
+        if (held == null || held.depth == 0 || --held.depth > 0 || held.notifications.isEmpty()) {
+            return;
+        }
+
+        // the holder stays with the thread, so writes that notify nobody allocate nothing
+        final List<Runnable> notifications = new ArrayList<Runnable>(held.notifications);
+        held.notifications.clear();
+
+        for (final Runnable notification : notifications) {
+            notification.run();
+        }
+    }
+
     public void notifyResponse(final Response<T> response) {
-        final Message msg = obtainMessage(MSG_NOTIFY, response);
+        if (mDispatchMode == DispatchModes.IMMEDIATE) {
+            notifyImmediately(response);
+            return;
+        }
+
+        final String identifier = getIdentifier(response);
 
-        removeMessages(MSG_NOTIFY);
-        sendMessageDelayed(msg, MSG_DELAY);
+        synchronized (mLock) {
+            // a message for this identifier is already on its way and will pick up the latest response
+            if (mPending.put(identifier, response) != null) {
+                return;
+            }
+        }
+
+        sendMessageDelayed(obtainMessage(MSG_NOTIFY, identifier), MSG_DELAY);
+    }
+
+    private void notifyImmediately(final Response<T> response) {
+        if (mObservers.isEmpty() && mKeyObservers.isEmpty() && mPrefixObservers.isEmpty()) {
+            return;
+        }
+
+        final Held held = sHeld.get();
+
+        if (held == null || held.depth == 0) {
+            notifyObservers(response);
+            return;
+        }
+
+        held.notifications.add(new Runnable() {
+            @Override
+            public void run() {
+                notifyObservers(response);
+            }
+        });
     }
 
     @Override
     public void handleMessage(final Message msg) {
         if (msg.what == MSG_NOTIFY) {
+            final Response<T> response;
+
             synchronized (mLock) {
-                notifyObservers(msg);
+                response = mPending.remove(msg.obj);
+            }
+
+            if (response != null) {
+                dispatch(new Runnable() {
+                    @Override
+                    public void run() {
+                        notifyObservers(response);
+                    }
+                });
             }
+
+        } else if (msg.what == MSG_FRAME) {
+            flushBatches();
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void notifyObservers(final Message msg) {
-        for (final DataStore.Observer<T> observer : mObservers) {
-            final Response<T> response = (Response<T>) msg.obj;
-            Logger.d("Notify Observer response: " + response);
-            observer.onResponse(response);
+    private void dispatch(final Runnable runnable) {
+        if (mDispatchMode == DispatchModes.BACKGROUND) {
+            getBackgroundExecutor().execute(runnable);
+        } else {
+            runnable.run();
         }
     }
+
+    private void notifyObservers(final Response<T> response) {
+        final String identifier = getIdentifier(response);
+        final Set<DataStore.Observer<T>> keyObservers = mKeyObservers.get(identifier);
+
+        // the common case has only global observers, which need no merging
+        if (keyObservers == null && mPrefixObservers.isEmpty()) {
+            notifyObservers(mObservers, response);
+            return;
+        }
+
+        final Set<DataStore.Observer<T>> observers = new LinkedHashSet<DataStore.Observer<T>>(mObservers);
+
+        addAll(observers, keyObservers);
+
+        if (!mPrefixObservers.isEmpty()) {
+            for (int i = identifier.indexOf(PREFIX_SEPARATOR); i >= 0; i = identifier.indexOf(PREFIX_SEPARATOR, i + 1)) {
+                addAll(observers, mPrefixObservers.get(identifier.substring(0, i + 1)));
+            }
+        }
+
+        notifyObservers(observers, response);
+    }
+
+    private void notifyObservers(final Set<DataStore.Observer<T>> observers, final Response<T> response) {
+        for (final DataStore.Observer<T> observer : observers) {
+            if (observer instanceof BatchObserver) {
+                addToBatch((BatchObserver<T>) observer, response);
+            } else {
+                if (Logger.isDebugEnabled()) {
+                    Logger.d("Notify Observer response: " + response);
+                }
+                observer.onResponse(response);
+            }
+        }
+    }
+
+    private void addToBatch(final BatchObserver<T> observer, final Response<T> response) {
+        final boolean scheduleFrame;
+
+        synchronized (mLock) {
+            List<Response<T>> batch = mBatches.get(observer);
+            if (batch == null) {
+                batch = new ArrayList<Response<T>>();
+                mBatches.put(observer, batch);
+            }
+            batch.add(response);
+
+            scheduleFrame = !mFrameScheduled;
+            mFrameScheduled = true;
+        }
+
+        if (scheduleFrame) {
+            sendEmptyMessageDelayed(MSG_FRAME, FRAME_DELAY);
+        }
+    }
+
+    private void flushBatches() {
+        final Map<BatchObserver<T>, List<Response<T>>> batches;
+
+        synchronized (mLock) {
+            batches = new LinkedHashMap<BatchObserver<T>, List<Response<T>>>(mBatches);
+            mBatches.clear();
+            mFrameScheduled = false;
+        }
+
+        for (final Map.Entry<BatchObserver<T>, List<Response<T>>> entry : batches.entrySet()) {
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    Logger.d("Notify Observer " + entry.getValue().size() + " responses.");
+                    entry.getKey().onResponses(entry.getValue());
+                }
+            });
+        }
+    }
+
+    private Map<String, Set<DataStore.Observer<T>>> getIndex(final String key) {
+        final boolean isPrefix = key.length() > 0 && key.charAt(key.length() - 1) == PREFIX_SEPARATOR;
+        return isPrefix ? mPrefixObservers : mKeyObservers;
+    }
+
+    private static <T> void addAll(final Set<DataStore.Observer<T>> observers, final Set<DataStore.Observer<T>> additions) {
+        if (additions != null) {
+            observers.addAll(additions);
+        }
+    }
+
+    private static String getIdentifier(final Response<?> response) {
+        if (response != null && response.object instanceof Identifiable) {
+            final String identifier = ((Identifiable) response.object).getIdentifier();
+            return identifier != null ? identifier : NO_IDENTIFIER;
+        } else {
+            return NO_IDENTIFIER;
+        }
+    }
+
+    private static synchronized Executor getBackgroundExecutor() {
+        if (sBackgroundExecutor == null) {
+            // a single thread keeps notifications in order
+            sBackgroundExecutor = DataExecutors.newBackgroundExecutor("PCFData-Observers", 1);
+        }
+        return sBackgroundExecutor;
+    }
+
+    private static final class Held {
+
+        public int depth;
+        public final List<Runnable> notifications = new ArrayList<Runnable>();
+    }
 }
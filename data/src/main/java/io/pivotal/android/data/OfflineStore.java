@@ -4,15 +4,59 @@
 package io.pivotal.android.data;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.HashSet;
+import java.util.Set;
 
 public class OfflineStore<T> implements DataStore<T> {
 
+    public static final class ReadPolicies {
+        public static final int NETWORK_FIRST = 0;
+        public static final int STALE_WHILE_REVALIDATE = 1;
+    }
+
+    public static final class WritePolicies {
+        public static final int WRITE_THROUGH = 0;
+        public static final int WRITE_BACK = 1;
+    }
+
+    static final long FLUSH_DELAY = 1000;
+    static final long FLUSH_MAX_DELAY = 5000;
+    static final int FLUSH_BATCH_SIZE = 20;
+
+    private final Set<String> mRevalidating = new HashSet<String>();
+
+    // local writes made by this store, so revalidation can compare and set
+    private final Object mWriteLock = new Object();
+
     private final Context mContext;
     private final LocalStore<T> mLocalStore;
     private final RemoteStore<T> mRemoteStore;
 
-    private RequestCache<T> mRequestCache;
+    private volatile RequestCache<T> mRequestCache;
+    private ConflictResolver<T> mConflictResolver;
+    private int mReadPolicy = ReadPolicies.NETWORK_FIRST;
+    private int mWritePolicy = WritePolicies.WRITE_THROUGH;
+    private Handler mFlushHandler;
+    private long mFlushDeadline;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (OfflineStore.this) {
+                mFlushDeadline = 0;
+            }
+            getExecutors().getNetworkExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        }
+    };
 
     public OfflineStore(final Context context, final LocalStore<T> localStore, final RemoteStore<T> remoteStore) {
         mContext = context;
@@ -25,15 +69,21 @@ public class OfflineStore<T> implements DataStore<T> {
 
         switch (request.method) {
             case Request.Methods.GET:
-                Logger.d("Get: " + request.object);
+                if (Logger.isDebugEnabled()) {
+                    Logger.d("Get: " + request.object);
+                }
                 return get(request);
 
             case Request.Methods.PUT:
-                Logger.d("Put: " + request.object);
+                if (Logger.isDebugEnabled()) {
+                    Logger.d("Put: " + request.object);
+                }
                 return executeWithFallback(request);
 
             case Request.Methods.DELETE:
-                Logger.d("Delete: " + request.object);
+                if (Logger.isDebugEnabled()) {
+                    Logger.d("Delete: " + request.object);
+                }
                 return executeWithFallback(request);
 
             default:
@@ -42,26 +92,25 @@ public class OfflineStore<T> implements DataStore<T> {
     }
 
     @Override
-    public void execute(final Request<T> request, final Listener<T> listener) {
-        new AsyncTask<Void, Void, Response<T>>() {
-
-            @Override
-            protected Response<T> doInBackground(final Void... params) {
-                return OfflineStore.this.execute(request);
-            }
+    public DataFuture<T> execute(final Request<T> request, final Listener<T> listener) {
+        final DataExecutors executors = getExecutors();
+        return executors.execute(executors.getNetworkExecutor(), this, request, listener);
+    }
 
-            @Override
-            protected void onPostExecute(final Response<T> response) {
-                if (listener != null) {
-                    listener.onResponse(response);
-                }
-            }
-        }.execute();
+    protected DataExecutors getExecutors() {
+        return DataExecutors.getInstance();
     }
 
     protected Response<T> get(final Request<T> request) {
-        if (isConnected()) {
-            return executeGetRemotely(request);
+        if (isExpired()) {
+            return mLocalStore.execute(request);
+
+        } else if (isConnected()) {
+            if (mReadPolicy == ReadPolicies.STALE_WHILE_REVALIDATE) {
+                return executeGetLocallyAndRevalidate(request);
+            } else {
+                return executeGetRemotely(request);
+            }
 
         } else {
             return queueGet(request);
@@ -69,22 +118,73 @@ public class OfflineStore<T> implements DataStore<T> {
     }
 
     protected Response<T> executeWithFallback(final Request<T> request) {
-        if (isConnected()) {
-            return executeRemotely(request);
+        if (isConnected() && !isExpired()) {
+            if (isWriteBack(request)) {
+                return executeWriteBack(request);
+            } else {
+                return executeRemotely(request);
+            }
 
         } else {
             return queueWithFallback(request);
         }
     }
 
+    private boolean isWriteBack(final Request<T> request) {
+        // requests replayed from the cache are already being flushed
+        return mWritePolicy == WritePolicies.WRITE_BACK && !(request instanceof PendingRequest);
+    }
+
+    private Response<T> executeWriteBack(final Request<T> request) {
+        final Response<T> response = queueWithFallback(request);
+
+        if (!response.isRequestCacheFull()) {
+            scheduleFlush();
+        }
+
+        return response;
+    }
+
+    /**
+     * Pushes write-back requests to the server once writes have been quiet
+     * for {@link #FLUSH_DELAY}, in batches of {@link #FLUSH_BATCH_SIZE}.
+     * A steady stream of writes still flushes within {@link #FLUSH_MAX_DELAY}.
+     */
+    protected void scheduleFlush() {
+        final long delay;
+        synchronized (this) {
+            if (mFlushHandler == null) {
+                mFlushHandler = new Handler(Looper.getMainLooper());
+            }
+            delay = getFlushDelay(SystemClock.elapsedRealtime());
+        }
+        mFlushHandler.removeCallbacks(mFlush);
+        mFlushHandler.postDelayed(mFlush, delay);
+    }
+
+    /* package */ synchronized long getFlushDelay(final long now) {
+        if (mFlushDeadline == 0) {
+            mFlushDeadline = now + FLUSH_MAX_DELAY;
+        }
+        return Math.max(0, Math.min(FLUSH_DELAY, mFlushDeadline - now));
+    }
+
+    private void flush() {
+        final RequestCache.Budget budget = new RequestCache.Budget(FLUSH_BATCH_SIZE, 0);
+
+        // the scheduler continues with the rest of the queue
+        SyncScheduler.sync(mContext, getRequestCache(), budget);
+    }
+
     private Response<T> executeGetRemotely(final Request<T> request) {
         final Response<T> response = mRemoteStore.execute(request);
 
-        if (response.isSuccess()) {
-            return executePutLocally(request, response);
+        if (response.isFailure() && isExpired()) {
+            Logger.d("Deadline expired, reading locally: " + request.object);
+            return mLocalStore.execute(request);
 
-        } else if (response.isNotFound()) {
-            return executeDeleteLocally(request, response);
+        } else if (response.isSuccess() || response.isNotFound()) {
+            return applyRemotely(request, response);
 
         } else if (response.isNotModified()) {
             return mLocalStore.execute(request);
@@ -94,6 +194,137 @@ public class OfflineStore<T> implements DataStore<T> {
         }
     }
 
+    /**
+     * Stores the server value, unless a write-back request for the object
+     * is still queued, in which case the local edit is newer and is read
+     * instead.
+     */
+    private Response<T> applyRemotely(final Request<T> request, final Response<T> response) {
+        ObserverHandler.hold();
+        try {
+            synchronized (mWriteLock) {
+                if (mWritePolicy == WritePolicies.WRITE_BACK && hasPendingWrite(request)) {
+                    Logger.d("Write pending, reading locally: " + request.object);
+                    return mLocalStore.execute(request);
+
+                } else if (response.isSuccess()) {
+                    return executePutLocally(request, response);
+
+                } else {
+                    return executeDeleteLocally(request, response);
+                }
+            }
+        } finally {
+            ObserverHandler.release();
+        }
+    }
+
+    private Response<T> executeGetLocallyAndRevalidate(final Request<T> request) {
+        final Response<T> response = mLocalStore.execute(request);
+
+        if (response.isFailure() || !hasValue(response.object)) {
+            return executeGetRemotely(request);
+        }
+
+        revalidateInBackground(request, response.object);
+
+        return response;
+    }
+
+    private void revalidateInBackground(final Request<T> request, final T local) {
+        final String identifier = getIdentifier(request);
+
+        if (identifier != null) {
+            synchronized (mRevalidating) {
+                if (!mRevalidating.add(identifier)) {
+                    return;
+                }
+            }
+        }
+
+        getExecutors().getNetworkExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    revalidate(request, local);
+                } finally {
+                    if (identifier != null) {
+                        synchronized (mRevalidating) {
+                            mRevalidating.remove(identifier);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Applies the server value only if the local value is still the one
+     * that was returned and no write for the object is waiting to be
+     * replayed, so a newer local edit is never overwritten.
+     */
+    protected void revalidate(final Request<T> request, final T local) {
+        final Response<T> response = mRemoteStore.executeRequest(request);
+
+        if (response.isSuccess() && isEqual(local, response.object)) {
+            return;
+        }
+
+        if (!response.isSuccess() && !response.isNotFound()) {
+            return;
+        }
+
+        ObserverHandler.hold();
+        try {
+            synchronized (mWriteLock) {
+                if (hasPendingWrite(request)) {
+                    Logger.d("Write pending, revalidation discarded: " + request.object);
+                    return;
+                }
+
+                final Response<T> current = mLocalStore.execute(new Request.Get<T>(request));
+
+                if (current.isFailure() || !isEqual(local, current.object)) {
+                    Logger.d("Changed locally, revalidation discarded: " + request.object);
+                    return;
+                }
+
+                if (response.isSuccess()) {
+                    executePutLocally(request, response);
+                } else {
+                    executeDeleteLocally(request, response);
+                }
+            }
+        } finally {
+            ObserverHandler.release();
+        }
+    }
+
+    private boolean hasPendingWrite(final Request<T> request) {
+        final String identifier = getIdentifier(request);
+        return identifier != null && getRequestCache().hasPendingWrites(identifier);
+    }
+
+    /**
+     * Whether a locally stored object is usable as an immediate result
+     * under {@link ReadPolicies#STALE_WHILE_REVALIDATE}.
+     */
+    protected boolean hasValue(final T object) {
+        return object != null;
+    }
+
+    private static boolean isEqual(final Object a, final Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static String getIdentifier(final Request<?> request) {
+        if (request.object instanceof Identifiable) {
+            return ((Identifiable) request.object).getIdentifier();
+        } else {
+            return null;
+        }
+    }
+
     private Response<T> executeDeleteLocally(final Request<T> request, final Response<T> response) {
         final Request<T> delete = new Request.Delete<T>(request);
 
@@ -112,32 +343,96 @@ public class OfflineStore<T> implements DataStore<T> {
     private Response<T> executeRemotely(final Request<T> request) {
         final Response<T> response = mRemoteStore.execute(request);
 
-        if (response.isSuccess()) {
-            return mLocalStore.execute(request);
+        if (response.isFailure() && isExpired()) {
+            Logger.d("Deadline expired, queueing: " + request.object);
+            return queueWithFallback(request);
+
+        } else if (response.isSuccess()) {
+            ObserverHandler.hold();
+            try {
+                synchronized (mWriteLock) {
+                    return mLocalStore.execute(request);
+                }
+            } finally {
+                ObserverHandler.release();
+            }
+
+        } else if (response.hasPreconditionFailed() && canResolveConflict(request)) {
+            return resolveConflict(request, response);
 
         } else {
             return response;
         }
     }
 
+    protected boolean canResolveConflict(final Request<T> request) {
+        return request.method == Request.Methods.PUT && getConflictResolver() != null;
+    }
+
+    private Response<T> resolveConflict(final Request<T> request, final Response<T> response) {
+        final Request<T> get = new Request.Get<T>(request.object, true);
+        final Response<T> current = mRemoteStore.execute(get);
+
+        if (current.isFailure() && !current.isNotFound()) {
+            return response;
+        }
+
+        final T remote = current.isSuccess() ? current.object : null;
+        final T base = request.fallback != null ? request.fallback : mLocalStore.execute(new Request.Get<T>(request)).object;
+        final T merged = getConflictResolver().merge(base, request.object, remote);
+
+        Logger.d("Conflict resolved: " + merged);
+
+        if (merged == null) {
+            return response;
+        }
+
+        final Request<T> put = new Request.Put<T>(request);
+        put.object = merged;
+
+        final Response<T> retry = mRemoteStore.execute(put);
+
+        if (retry.isSuccess()) {
+            return mLocalStore.execute(put);
+
+        } else {
+            return retry;
+        }
+    }
+
     private Response<T> queueGet(final Request<T> request) {
         final Response<T> response = mLocalStore.execute(request);
 
-        getRequestCache().queue(request);
+        try {
+            getRequestCache().queue(request);
+        } catch (final RequestCacheFullException e) {
+            Logger.w("Get not queued: " + e.getMessage());
+        }
 
         return response;
     }
 
     private Response<T> queueWithFallback(final Request<T> request) {
-        final Request<T> get = new Request.Get<T>(request);
-        final Response<T> fallback = mLocalStore.execute(get);
-        final Response<T> response = mLocalStore.execute(request);
-
-        request.fallback = fallback.object;
-
-        getRequestCache().queue(request);
+        ObserverHandler.hold();
+        try {
+            synchronized (mWriteLock) {
+                final Request<T> get = new Request.Get<T>(request);
+                final Response<T> fallback = mLocalStore.execute(get);
+
+                request.fallback = fallback.object;
+
+                try {
+                    getRequestCache().queue(request);
+                } catch (final RequestCacheFullException e) {
+                    Logger.ex(e);
+                    return new Response<T>(request.object, new DataError(e));
+                }
 
-        return response;
+                return mLocalStore.execute(request);
+            }
+        } finally {
+            ObserverHandler.release();
+        }
     }
 
     @Override
@@ -152,16 +447,86 @@ public class OfflineStore<T> implements DataStore<T> {
                 && mRemoteStore.removeObserver(observer);
     }
 
+    @Override
+    public boolean addObserver(final String key, final Observer<T> observer) {
+        return mLocalStore.addObserver(key, observer)
+                && mRemoteStore.addObserver(key, observer);
+    }
+
+    @Override
+    public boolean removeObserver(final String key, final Observer<T> observer) {
+        return mLocalStore.removeObserver(key, observer)
+                && mRemoteStore.removeObserver(key, observer);
+    }
+
+    public void setReadPolicy(final int readPolicy) {
+        mReadPolicy = readPolicy;
+    }
+
+    public void setWritePolicy(final int writePolicy) {
+        mWritePolicy = writePolicy;
+    }
+
+    /**
+     * Selects the thread observers of this store are called on, see
+     * {@link ObserverHandler.DispatchModes}.
+     */
+    public void setObserverDispatchMode(final int dispatchMode) {
+        mLocalStore.getHandler().setDispatchMode(dispatchMode);
+        mRemoteStore.getHandler().setDispatchMode(dispatchMode);
+    }
+
+    /**
+     * Resolves conflicts for requests this store sends itself. Queued
+     * requests are replayed by the store that owns the request cache and
+     * use that store's resolver instead.
+     */
+    public void setConflictResolver(final ConflictResolver<T> resolver) {
+        mConflictResolver = resolver;
+    }
+
+    protected ConflictResolver<T> getConflictResolver() {
+        return mConflictResolver;
+    }
+
     protected boolean isConnected() {
-        return Connectivity.isConnected(mContext);
+        return NetworkState.isConnected(mContext);
+    }
+
+    /**
+     * Whether the asynchronous execution running on this thread has passed
+     * its deadline.
+     */
+    protected boolean isExpired() {
+        final DataFuture<?> future = DataFuture.current();
+        return future != null && future.isExpired();
     }
 
     public RequestCache<T> getRequestCache() {
-        if (mRequestCache == null) {
+        RequestCache<T> requestCache = mRequestCache;
+        if (requestCache == null) {
             synchronized (this) {
-                mRequestCache = new RequestCache.Default<T>(mContext, this, mLocalStore);
+                requestCache = mRequestCache;
+                if (requestCache == null) {
+                    requestCache = new RequestCache.Default<T>(mContext, this, mLocalStore);
+                    mRequestCache = requestCache;
+                }
             }
         }
-        return mRequestCache;
+        return requestCache;
+    }
+
+    public void setRequestCache(final RequestCache<T> requestCache) {
+        mRequestCache = requestCache;
+    }
+
+    /**
+     * Invoked when a PUT is rejected with 412 Precondition Failed. Receives
+     * the value the edit was based on, the local edit and the current server
+     * value (null if it was deleted) and returns the value to retry with, or
+     * null to give up and report the original failure.
+     */
+    public static interface ConflictResolver<T> {
+        public T merge(T base, T local, T remote);
     }
-}
\ No newline at end of file
+}
@@ -4,16 +4,155 @@
 package io.pivotal.android.data;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.UUID;
 
 public class PendingRequest<T> extends Request<T> {
 
+    public String id;
+    public int attempts;
+    public long retryAt;
+    public int errorCode;
+
     public PendingRequest() {}
 
     public PendingRequest(final Request<T> request) {
         super(request);
+        this.id = UUID.randomUUID().toString();
+    }
+
+    public boolean isDue(final long now) {
+        return retryAt <= now;
     }
 
     public static class List<T> extends ArrayList<PendingRequest<T>> {
         public static final long serialVersionUID = 0L;
     }
+
+    /**
+     * Splits pending requests into one FIFO lane per priority and hands
+     * them out highest priority first. A lower lane that has been passed
+     * over {@link #MAX_SKIPS} times is served next so that a steady stream
+     * of interactive requests cannot starve background work.
+     *
+     * <p>Requests for the same identifier keep their queued order: when a
+     * request is due to be served, an earlier one for its identifier that
+     * waits in a lower lane is served in its place.
+     */
+    public static class Lanes<T> {
+
+        static final int MAX_SKIPS = 4;
+
+        private static final int LANE_COUNT = Priorities.BACKGROUND + 1;
+
+        private final java.util.List<LinkedList<PendingRequest<T>>> mLanes;
+        private final Map<String, LinkedList<PendingRequest<T>>> mIdentifiers = new HashMap<String, LinkedList<PendingRequest<T>>>();
+        private final int[] mSkips = new int[LANE_COUNT];
+
+        public Lanes() {
+            mLanes = new ArrayList<LinkedList<PendingRequest<T>>>(LANE_COUNT);
+            for (int i = 0; i < LANE_COUNT; i++) {
+                mLanes.add(new LinkedList<PendingRequest<T>>());
+            }
+        }
+
+        public Lanes(final java.util.List<PendingRequest<T>> requests) {
+            this();
+            for (final PendingRequest<T> request : requests) {
+                add(request);
+            }
+        }
+
+        public void add(final PendingRequest<T> request) {
+            mLanes.get(getLane(request.priority)).addLast(request);
+
+            final String identifier = getIdentifier(request);
+            if (identifier != null) {
+                LinkedList<PendingRequest<T>> requests = mIdentifiers.get(identifier);
+                if (requests == null) {
+                    requests = new LinkedList<PendingRequest<T>>();
+                    mIdentifiers.put(identifier, requests);
+                }
+                requests.addLast(request);
+            }
+        }
+
+        public PendingRequest<T> poll() {
+            final int lane = getNextLane();
+            if (lane < 0) {
+                return null;
+            }
+
+            for (int i = lane + 1; i < LANE_COUNT; i++) {
+                if (!mLanes.get(i).isEmpty()) {
+                    mSkips[i]++;
+                }
+            }
+            mSkips[lane] = 0;
+
+            final PendingRequest<T> next = mLanes.get(lane).getFirst();
+            final String identifier = getIdentifier(next);
+
+            if (identifier == null) {
+                return mLanes.get(lane).removeFirst();
+            }
+
+            final LinkedList<PendingRequest<T>> requests = mIdentifiers.get(identifier);
+            final PendingRequest<T> first = requests.removeFirst();
+            if (requests.isEmpty()) {
+                mIdentifiers.remove(identifier);
+            }
+
+            mLanes.get(getLane(first.priority)).remove(first);
+            return first;
+        }
+
+        public int size(final int priority) {
+            return mLanes.get(getLane(priority)).size();
+        }
+
+        public int size() {
+            int size = 0;
+            for (final LinkedList<PendingRequest<T>> lane : mLanes) {
+                size += lane.size();
+            }
+            return size;
+        }
+
+        public boolean isEmpty() {
+            return size() == 0;
+        }
+
+        private int getNextLane() {
+            for (int i = 0; i < LANE_COUNT; i++) {
+                if (mSkips[i] >= MAX_SKIPS && !mLanes.get(i).isEmpty()) {
+                    return i;
+                }
+            }
+            for (int i = 0; i < LANE_COUNT; i++) {
+                if (!mLanes.get(i).isEmpty()) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /* package */ static String getIdentifier(final PendingRequest<?> request) {
+            if (request.object instanceof Identifiable) {
+                return ((Identifiable) request.object).getIdentifier();
+            } else {
+                return null;
+            }
+        }
+
+        private static int getLane(final int priority) {
+            if (priority < Priorities.INTERACTIVE || priority > Priorities.BACKGROUND) {
+                return Priorities.NORMAL;
+            } else {
+                return priority;
+            }
+        }
+    }
 }
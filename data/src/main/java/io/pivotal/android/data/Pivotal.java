@@ -19,6 +19,11 @@ import java.util.Properties;
     private static final class Keys {
         private static final String SERVICE_URL = "pivotal.data.serviceUrl";
         private static final String COLLISION_STRATEGY = "pivotal.data.collisionStrategy";
+        private static final String SEGMENTED_UPLOADS = "pivotal.data.segmentedUploads";
+        private static final String REQUEST_CACHE_MAX_REQUESTS = "pivotal.data.requestCache.maxRequests";
+        private static final String REQUEST_CACHE_MAX_BYTES = "pivotal.data.requestCache.maxBytes";
+        private static final String REQUEST_CACHE_OVERFLOW_POLICY = "pivotal.data.requestCache.overflowPolicy";
+        private static final String REQUEST_CACHE_MAX_ATTEMPTS = "pivotal.data.requestCache.maxAttempts";
     }
 
     private static final String[] LOCATIONS = {
@@ -81,4 +86,47 @@ import java.util.Properties;
             return false;
         }
     }
+
+    /**
+     * Whether the service accepts a PUT carrying a Content-Range, so large
+     * values may be uploaded in segments. Off unless configured.
+     */
+    public static boolean areSegmentedUploadsEnabled() {
+        return Boolean.parseBoolean(getString(Keys.SEGMENTED_UPLOADS, "false"));
+    }
+
+    public static int getRequestCacheMaxRequests() {
+        return getInt(Keys.REQUEST_CACHE_MAX_REQUESTS, RequestCacheQueue.Limits.DEFAULT_MAX_REQUESTS);
+    }
+
+    public static int getRequestCacheMaxBytes() {
+        return getInt(Keys.REQUEST_CACHE_MAX_BYTES, RequestCacheQueue.Limits.DEFAULT_MAX_BYTES);
+    }
+
+    public static String getRequestCacheOverflowPolicy() {
+        return getString(Keys.REQUEST_CACHE_OVERFLOW_POLICY, RequestCacheQueue.OverflowPolicies.COMPACT_THEN_RETRY);
+    }
+
+    public static int getRequestCacheMaxAttempts() {
+        return getInt(Keys.REQUEST_CACHE_MAX_ATTEMPTS, RequestCacheExecutor.Retries.DEFAULT_MAX_ATTEMPTS);
+    }
+
+    private static String getString(final String key, final String defaultValue) {
+        try {
+            return get(key);
+        } catch (final IllegalStateException e) {
+            return defaultValue;
+        }
+    }
+
+    private static int getInt(final String key, final int defaultValue) {
+        try {
+            return Integer.parseInt(get(key));
+        } catch (final IllegalStateException e) {
+            return defaultValue;
+        } catch (final NumberFormatException e) {
+            Logger.ex(e);
+            return defaultValue;
+        }
+    }
 }
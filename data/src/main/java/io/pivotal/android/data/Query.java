@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Predicates, ordering and a limit over top-level fields of the JSON values
+ * in a collection. Every field used must be indexed, see
+ * {@link KeyValueLocalStore#addIndex(String, String)}; objects without a
+ * value for a field used by the query are not returned.
+ */
+public class Query {
+
+    public static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    public static class Predicate {
+        public final String field;
+        public final Object lower, upper;
+        public final boolean lowerInclusive, upperInclusive;
+
+        public Predicate(final String field, final Object lower, final boolean lowerInclusive, final Object upper, final boolean upperInclusive) {
+            this.field = field;
+            this.lower = FieldIndex.normalize(lower);
+            this.lowerInclusive = lowerInclusive;
+            this.upper = FieldIndex.normalize(upper);
+            this.upperInclusive = upperInclusive;
+        }
+
+        /**
+         * Whether the value lies in the range. Only values of the type of
+         * the bounds match, so an open-ended range does not run on into
+         * the values of another type.
+         */
+        public boolean matches(final Object value) {
+            if (value == null) {
+                return false;
+            }
+            if ((lower != null && !FieldIndex.isSameType(value, lower)) || (upper != null && !FieldIndex.isSameType(value, upper))) {
+                return false;
+            }
+            if (lower != null) {
+                final int result = FieldIndex.compare(value, lower);
+                if (result < 0 || (result == 0 && !lowerInclusive)) {
+                    return false;
+                }
+            }
+            if (upper != null) {
+                final int result = FieldIndex.compare(value, upper);
+                if (result > 0 || (result == 0 && !upperInclusive)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return field + " in " + (lowerInclusive ? "[" : "(") + lower + ", " + upper + (upperInclusive ? "]" : ")");
+        }
+    }
+
+    private final List<Predicate> mPredicates = new ArrayList<Predicate>();
+
+    private String mOrderBy;
+    private boolean mDescending;
+    private int mLimit = NO_LIMIT;
+
+    public Query whereEqualTo(final String field, final Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value cannot be null");
+        }
+        return where(new Predicate(field, value, true, value, true));
+    }
+
+    public Query whereGreaterThan(final String field, final Object value) {
+        return where(new Predicate(field, value, false, null, false));
+    }
+
+    public Query whereGreaterThanOrEqualTo(final String field, final Object value) {
+        return where(new Predicate(field, value, true, null, false));
+    }
+
+    public Query whereLessThan(final String field, final Object value) {
+        return where(new Predicate(field, null, false, value, false));
+    }
+
+    public Query whereLessThanOrEqualTo(final String field, final Object value) {
+        return where(new Predicate(field, null, false, value, true));
+    }
+
+    public Query where(final Predicate predicate) {
+        mPredicates.add(predicate);
+        return this;
+    }
+
+    public Query orderBy(final String field) {
+        return orderBy(field, false);
+    }
+
+    public Query orderBy(final String field, final boolean descending) {
+        mOrderBy = field;
+        mDescending = descending;
+        return this;
+    }
+
+    public Query limit(final int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        mLimit = limit;
+        return this;
+    }
+
+    /* package */ Query copy(final int limit) {
+        final Query query = new Query();
+        query.mPredicates.addAll(mPredicates);
+        query.mOrderBy = mOrderBy;
+        query.mDescending = mDescending;
+        query.mLimit = limit;
+        return query;
+    }
+
+    public List<Predicate> getPredicates() {
+        return mPredicates;
+    }
+
+    public String getOrderBy() {
+        return mOrderBy;
+    }
+
+    public boolean isDescending() {
+        return mDescending;
+    }
+
+    public int getLimit() {
+        return mLimit;
+    }
+
+    @Override
+    public String toString() {
+        return "where: " + mPredicates + ", order by: " + mOrderBy + (mDescending ? " desc" : "") + ", limit: " + mLimit;
+    }
+}
@@ -8,6 +8,7 @@ import android.os.Build;
 import android.text.TextUtils;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
@@ -16,13 +17,18 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 
 public interface RemoteClient {
 
@@ -34,7 +40,19 @@ public interface RemoteClient {
     public String delete(String url, boolean force) throws Exception;
 
 
-    public static class Default implements RemoteClient {
+    /**
+     * Implemented by clients that can send a value without materializing
+     * its bytes. Unless the service answers with a body, the value itself
+     * is returned, not a copy.
+     */
+    public static interface Streaming {
+        public String putValue(String url, String value, boolean force) throws Exception;
+    }
+
+
+    public static class Default implements RemoteClient, Streaming {
+
+        private static final String USER_AGENT = "PCFData/" + BuildConfig.SDK_VERSION + "; Android Version " + Build.VERSION.RELEASE + " (Build " + Build.ID + ")";
 
         public static final class Timeouts {
             public static final int CONNECTION = 4000;
@@ -47,44 +65,242 @@ public interface RemoteClient {
             public static final String IF_NONE_MATCH = "If-None-Match";
             public static final String ETAG = "Etag";
             public static final String USER_AGENT = "User-Agent";
+            public static final String RANGE = "Range";
+            public static final String IF_RANGE = "If-Range";
+            public static final String CONTENT_RANGE = "Content-Range";
+        }
+
+        /**
+         * Values larger than a segment are downloaded through a file and,
+         * when segmented uploads are enabled, uploaded in segments,
+         * recording progress after each one.
+         */
+        public static final class Transfers {
+            public static final int SEGMENT_SIZE = 256 * 1024;
+            public static final int BUFFER_SIZE = 8 * 1024;
+            public static final String DIRECTORY = "PCFData-Transfers";
         }
 
         private final EtagStore mEtagStore;
+        private final TransferStore mTransferStore;
         private final Context mContext;
 
         public Default(final Context context) {
-            mEtagStore = new EtagStore(context);
-            mContext = context;
+            this(context, new EtagStore(context), new TransferStore(context));
         }
 
         public Default(final Context context, final EtagStore store) {
-            mEtagStore = store;
+            this(context, store, context != null ? new TransferStore(context) : null);
+        }
+
+        public Default(final Context context, final EtagStore etagStore, final TransferStore transferStore) {
+            mEtagStore = etagStore;
+            mTransferStore = transferStore;
             mContext = context;
         }
 
         @Override
         public String get(final String url, final boolean force) throws Exception {
             final HttpGet request = new HttpGet(url);
-            return execute(request, force);
+
+            if (!isTransferEnabled()) {
+                return execute(request, force);
+            }
+
+            final TransferStore.Transfer transfer = mTransferStore.get(TransferStore.Directions.DOWNLOAD, url);
+
+            // only bytes received under the same etag can be continued
+            if (transfer != null && getTransferFile(url).length() >= transfer.offset) {
+                request.addHeader(Headers.RANGE, "bytes=" + transfer.offset + "-");
+                request.addHeader(Headers.IF_RANGE, transfer.tag);
+            }
+
+            return execute(request, force, true, transfer);
         }
 
         @Override
         public String put(final String url, final byte[] entity, final boolean force) throws Exception {
-            final HttpPut request = new HttpPut(url);
-            request.setEntity(new ByteArrayEntity(entity));
+            String result = null;
+
+            if (entity != null && entity.length > Transfers.SEGMENT_SIZE && isSegmentedUploadEnabled()) {
+                final String fingerprint = entity.length + "-" + TransferStore.digest(entity);
+
+                result = putSegments(url, entity.length, fingerprint, force, new Segments() {
+                    @Override
+                    public HttpEntity get(final long start, final long end) {
+                        return new InputStreamEntity(new ByteArrayInputStream(entity, (int) start, (int) (end - start)), end - start);
+                    }
+                });
+            }
+
+            if (result == null) {
+                final HttpPut request = new HttpPut(url);
+                request.setEntity(new ByteArrayEntity(entity));
+                result = execute(request, force);
+            }
 
-            final String result = execute(request, force);
             return TextUtils.isEmpty(result) ? new String(entity) : result;
         }
 
+        @Override
+        public String putValue(final String url, final String value, final boolean force) throws Exception {
+            final ValueEntity.Segments valueSegments = new ValueEntity.Segments(value, Transfers.SEGMENT_SIZE);
+            final long length = valueSegments.getLength();
+            String result = null;
+
+            if (length > Transfers.SEGMENT_SIZE && isSegmentedUploadEnabled()) {
+                final String fingerprint = length + "-" + TransferStore.digest(new ValueEntity(value, 0, length).getContent());
+
+                result = putSegments(url, length, fingerprint, force, new Segments() {
+                    @Override
+                    public HttpEntity get(final long start, final long end) {
+                        return valueSegments.get(start, end);
+                    }
+                });
+            }
+
+            if (result == null) {
+                final HttpPut request = new HttpPut(url);
+                request.setEntity(new ValueEntity(value, 0, length));
+                result = execute(request, force);
+            }
+
+            return TextUtils.isEmpty(result) ? value : result;
+        }
+
         @Override
         public String delete(final String url, final boolean force) throws Exception {
             final HttpDelete request = new HttpDelete(url);
             return execute(request, force);
         }
 
+        private static interface Segments {
+            public HttpEntity get(long start, long end);
+        }
+
+        /**
+         * Sends an entity in {@link Transfers#SEGMENT_SIZE} segments, each
+         * carrying a Content-Range. The service acknowledges a segment with
+         * 202 Accepted and answers the last one like a whole PUT; a 416
+         * means it no longer holds the earlier segments. Any other answer
+         * to a segment abandons the upload and returns null, so the entity
+         * is sent whole instead.
+         */
+        private String putSegments(final String url, final long length, final String fingerprint, final boolean force, final Segments segments) throws Exception {
+            final TransferStore.Transfer transfer = mTransferStore.get(TransferStore.Directions.UPLOAD, url);
+
+            // an upload only continues with the very same bytes
+            long offset = transfer != null && fingerprint.equals(transfer.tag) ? transfer.offset : 0;
+            String result = null;
+
+            if (offset > 0) {
+                Logger.d("Resuming upload at " + offset + " of " + length + ": " + url);
+            }
+
+            while (offset < length) {
+                final long end = Math.min(offset + Transfers.SEGMENT_SIZE, length);
+
+                final HttpPut request = new HttpPut(url);
+                request.setEntity(segments.get(offset, end));
+                request.addHeader(Headers.CONTENT_RANGE, "bytes " + offset + "-" + (end - 1) + "/" + length);
+
+                try {
+                    if (end == length) {
+                        result = execute(request, force);
+
+                    } else if (!putSegment(request, force)) {
+                        Logger.w("Upload segment not accepted, sending whole: " + url);
+                        mTransferStore.remove(TransferStore.Directions.UPLOAD, url);
+                        return null;
+                    }
+                } catch (final DataHttpException e) {
+                    if (e.getStatusCode() == 416 && offset > 0) {
+                        Logger.w("Upload segments lost, restarting: " + url);
+                        mTransferStore.remove(TransferStore.Directions.UPLOAD, url);
+                        offset = 0;
+                        continue;
+                    }
+                    throw e;
+                }
+
+                offset = end;
+
+                if (offset < length) {
+                    mTransferStore.put(TransferStore.Directions.UPLOAD, url, new TransferStore.Transfer(offset, fingerprint));
+                }
+            }
+
+            mTransferStore.remove(TransferStore.Directions.UPLOAD, url);
+
+            return result;
+        }
+
+        /**
+         * Sends a segment other than the last and returns whether the
+         * service accepted it with 202. A service without partial PUT
+         * support rejects the Content-Range with 400, 405 or 501, or
+         * stores the segment as the whole value.
+         */
+        protected boolean putSegment(final HttpUriRequest request, final boolean force) throws Exception {
+            final DataFuture<?> future = setAbortAction(request);
+
+            try {
+                final HttpResponse response = executeRequest(request, force);
+                final int statusCode = response.getStatusLine().getStatusCode();
+
+                if (statusCode == 400 || statusCode == 405 || statusCode == 501) {
+                    getResponseBody(response);
+                    return false;
+                }
+
+                // keeps the etag of a segment stored as the value, which the whole PUT replaces
+                handleResponse(response, request.getURI().toString());
+
+                return statusCode == 202;
+            } finally {
+                clearAbortAction(future);
+            }
+        }
+
         protected String execute(final HttpUriRequest request, final boolean force) throws Exception {
-            final String url = request.getURI().toString();
+            return execute(request, force, false, null);
+        }
+
+        private String execute(final HttpUriRequest request, final boolean force, final boolean download, final TransferStore.Transfer transfer) throws Exception {
+            final DataFuture<?> future = setAbortAction(request);
+
+            try {
+                final String url = request.getURI().toString();
+                final HttpResponse response = executeRequest(request, force);
+                return download ? handleDownload(response, url, transfer) : handleResponse(response, url);
+            } finally {
+                clearAbortAction(future);
+            }
+        }
+
+        private static DataFuture<?> setAbortAction(final HttpUriRequest request) {
+            final DataFuture<?> future = DataFuture.current();
+
+            if (future != null) {
+                future.setAbortAction(new Runnable() {
+                    @Override
+                    public void run() {
+                        Logger.v("Aborting request: " + request.getURI());
+                        request.abort();
+                    }
+                });
+            }
+
+            return future;
+        }
+
+        private static void clearAbortAction(final DataFuture<?> future) {
+            if (future != null) {
+                future.setAbortAction(null);
+            }
+        }
+
+        private HttpResponse executeRequest(final HttpUriRequest request, final boolean force) throws Exception {
             final HttpClient httpClient = getHttpClient();
 
             addHeaders(request, force);
@@ -102,13 +318,15 @@ public interface RemoteClient {
                 response = httpClient.execute(request);
             }
 
-            return handleResponse(response, url);
+            return response;
         }
 
         protected void addHeaders(final HttpUriRequest request, final boolean force) throws Exception {
             final String url = request.getURI().toString();
 
-            Logger.v("Request Url: " + url);
+            if (Logger.isDebugEnabled()) {
+                Logger.v("Request Url: " + url);
+            }
 
             addAuthHeader(request);
 
@@ -144,7 +362,9 @@ public interface RemoteClient {
         protected void addAuthHeader(final HttpUriRequest request) {
             final String accessToken = provideAccessToken();
             if (accessToken != null) {
-                Logger.v("Request Header - " + Headers.AUTHORIZATION + ": Bearer " + accessToken);
+                if (Logger.isDebugEnabled()) {
+                    Logger.v("Request Header - " + Headers.AUTHORIZATION + ": Bearer " + accessToken);
+                }
                 request.addHeader(Headers.AUTHORIZATION, "Bearer " + accessToken);
             } else {
                 Logger.e("Request Header - No access token found.");
@@ -160,18 +380,26 @@ public interface RemoteClient {
                 if (!TextUtils.isEmpty(etag)) {
                     if (request instanceof HttpGet) {
                         request.addHeader(Headers.IF_NONE_MATCH, etag);
-                        Logger.v("Request Header - " + Headers.IF_NONE_MATCH + ": " + etag);
+                        if (Logger.isDebugEnabled()) {
+                            Logger.v("Request Header - " + Headers.IF_NONE_MATCH + ": " + etag);
+                        }
                     } else {
                         request.addHeader(Headers.IF_MATCH, etag);
-                        Logger.v("Request Header - " + Headers.IF_MATCH + ": " + etag);
+                        if (Logger.isDebugEnabled()) {
+                            Logger.v("Request Header - " + Headers.IF_MATCH + ": " + etag);
+                        }
                     }
                 } else {
                     if (request instanceof HttpGet) {
                         request.addHeader(Headers.IF_MATCH, "*");
-                        Logger.v("Request Header - " + Headers.IF_MATCH + ": *");
+                        if (Logger.isDebugEnabled()) {
+                            Logger.v("Request Header - " + Headers.IF_MATCH + ": *");
+                        }
                     } else {
                         request.addHeader(Headers.IF_NONE_MATCH, "*");
-                        Logger.v("Request Header - " + Headers.IF_NONE_MATCH + ": *");
+                        if (Logger.isDebugEnabled()) {
+                            Logger.v("Request Header - " + Headers.IF_NONE_MATCH + ": *");
+                        }
                     }
                 }
             } else {
@@ -180,9 +408,7 @@ public interface RemoteClient {
         }
 
         protected void addUserAgentHeader(final HttpUriRequest request) {
-            final String sdkVersion = String.format("PCFData/%s;", BuildConfig.SDK_VERSION);
-            final String androidVersion = String.format("Android Version %s (Build %s)", Build.VERSION.RELEASE, Build.ID);
-            request.addHeader(Headers.USER_AGENT, sdkVersion + " " + androidVersion);
+            request.addHeader(Headers.USER_AGENT, USER_AGENT);
         }
 
 
@@ -200,7 +426,9 @@ public interface RemoteClient {
         protected String handleResponse(final HttpResponse response, final String url) throws Exception {
             final StatusLine statusLine = response.getStatusLine();
 
-            Logger.v("Response Status: " + statusLine);
+            if (Logger.isDebugEnabled()) {
+                Logger.v("Response Status: " + statusLine);
+            }
 
             final int statusCode = statusLine.getStatusCode();
             final String reasonPhrase = statusLine.getReasonPhrase();
@@ -213,23 +441,136 @@ public interface RemoteClient {
                 throw new DataHttpException(statusCode, reasonPhrase);
             }
 
-            if (Pivotal.areEtagsEnabled()) {
-                final Header header = response.getFirstHeader(Headers.ETAG);
-                final String etag = header != null ? header.getValue() : "";
+            // an accepted upload segment is not a stored version yet
+            if (Pivotal.areEtagsEnabled() && statusCode != 202) {
+                putEtag(response, url);
+            }
 
+            return getResponseBody(response);
+        }
+
+        private void putEtag(final HttpResponse response, final String url) {
+            final Header header = response.getFirstHeader(Headers.ETAG);
+            final String etag = header != null ? header.getValue() : "";
+
+            if (Logger.isDebugEnabled()) {
                 Logger.v("Response Header - " + Headers.ETAG + ": " + etag + ", url: " + url);
+            }
 
-                mEtagStore.put(url, etag);
+            mEtagStore.put(url, etag);
+        }
+
+        /**
+         * Receives a large body into a file, recording the offset after
+         * every segment, so that an interrupted download continues with a
+         * Range request. The etag is stored only once the whole body has
+         * arrived, otherwise the next request would be answered 304.
+         */
+        private String handleDownload(final HttpResponse response, final String url, final TransferStore.Transfer transfer) throws Exception {
+            final int statusCode = response.getStatusLine().getStatusCode();
+            final HttpEntity entity = response.getEntity();
+            final boolean isLarge = entity != null && entity.getContentLength() > Transfers.SEGMENT_SIZE;
+
+            if (statusCode != 206 && (statusCode != 200 || !isLarge)) {
+                if (transfer != null) {
+                    discardDownload(url);
+                }
+                return handleResponse(response, url);
             }
 
-            return getResponseBody(response);
+            final Header etag = response.getFirstHeader(Headers.ETAG);
+            final String tag = etag != null ? etag.getValue() : null;
+            final long offset = statusCode == 206 ? getRangeStart(response) : 0;
+
+            if (statusCode == 206 && (transfer == null || offset != transfer.offset)) {
+                discardDownload(url);
+                throw new IOException("Unexpected range in response: " + url);
+            }
+
+            if (Logger.isDebugEnabled()) {
+                Logger.v("Response Status: " + response.getStatusLine() + ", receiving from " + offset);
+            }
+
+            final File file = getTransferFile(url);
+            final InputStream inputStream = entity.getContent();
+            final RandomAccessFile output = new RandomAccessFile(file, "rw");
+
+            try {
+                output.setLength(offset);
+                output.seek(offset);
+
+                final byte[] buffer = new byte[Transfers.BUFFER_SIZE];
+                long position = offset, recorded = offset;
+                int read;
+
+                while ((read = inputStream.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                    position += read;
+
+                    // without an etag the bytes could not be validated on resume
+                    if (tag != null && position - recorded >= Transfers.SEGMENT_SIZE) {
+                        mTransferStore.put(TransferStore.Directions.DOWNLOAD, url, new TransferStore.Transfer(position, tag));
+                        recorded = position;
+                    }
+                }
+            } finally {
+                inputStream.close();
+                output.close();
+            }
+
+            final String result = StreamUtils.consumeAndClose(new FileInputStream(file));
+
+            discardDownload(url);
+
+            if (Pivotal.areEtagsEnabled()) {
+                putEtag(response, url);
+            }
+
+            return result;
+        }
+
+        private void discardDownload(final String url) {
+            mTransferStore.remove(TransferStore.Directions.DOWNLOAD, url);
+            getTransferFile(url).delete();
+        }
+
+        private static long getRangeStart(final HttpResponse response) throws IOException {
+            // e.g. "bytes 262144-1048575/1048576"
+            final Header header = response.getFirstHeader(Headers.CONTENT_RANGE);
+            final String value = header != null ? header.getValue() : "";
+            final int start = value.indexOf(' ') + 1;
+            final int end = value.indexOf('-', start);
+
+            try {
+                return Long.parseLong(value.substring(start, end).trim());
+            } catch (final RuntimeException e) {
+                throw new IOException("Invalid " + Headers.CONTENT_RANGE + ": " + value);
+            }
+        }
+
+        private boolean isTransferEnabled() {
+            return mContext != null && mTransferStore != null;
+        }
+
+        private boolean isSegmentedUploadEnabled() {
+            return isTransferEnabled() && Pivotal.areSegmentedUploadsEnabled();
+        }
+
+        /* package */ File getTransferFile(final String url) {
+            final File directory = new File(mContext.getCacheDir(), Transfers.DIRECTORY);
+            if (!directory.isDirectory()) {
+                directory.mkdirs();
+            }
+            return new File(directory, TransferStore.digest(url.getBytes()));
         }
 
         protected String getResponseBody(final HttpResponse response) throws IOException {
             final InputStream inputStream = response.getEntity().getContent();
             final String result = StreamUtils.consumeAndClose(inputStream);
 
-            Logger.v("Response Body: " + result);
+            if (Logger.isDebugEnabled()) {
+                Logger.v("Response Body: " + result);
+            }
 
             return result;
         }
@@ -4,7 +4,6 @@
 package io.pivotal.android.data;
 
 import android.content.Context;
-import android.os.AsyncTask;
 
 public abstract class RemoteStore<T> implements DataStore<T> {
 
@@ -29,21 +28,25 @@ public abstract class RemoteStore<T> implements DataStore<T> {
     }
 
     @Override
-    public void execute(final Request<T> request, final Listener<T> listener) {
-        new AsyncTask<Void, Void, Response<T>>() {
+    public Response<T> execute(final Request<T> request) {
+        final Response<T> response = executeRequest(request);
+        getHandler().notifyResponse(response);
+        return response;
+    }
 
-            @Override
-            protected Response<T> doInBackground(final Void... params) {
-                return RemoteStore.this.execute(request);
-            }
+    /**
+     * Executes the request against the server without notifying observers.
+     */
+    protected abstract Response<T> executeRequest(final Request<T> request);
 
-            @Override
-            protected void onPostExecute(final Response<T> resp) {
-                if (listener != null) {
-                    listener.onResponse(resp);
-                }
-            }
-        }.execute();
+    @Override
+    public DataFuture<T> execute(final Request<T> request, final Listener<T> listener) {
+        final DataExecutors executors = getExecutors();
+        return executors.execute(executors.getNetworkExecutor(), this, request, listener);
+    }
+
+    protected DataExecutors getExecutors() {
+        return DataExecutors.getInstance();
     }
 
     @Override
@@ -55,4 +58,14 @@ public abstract class RemoteStore<T> implements DataStore<T> {
     public boolean removeObserver(final Observer<T> observer) {
         return mHandler.removeObserver(observer);
     }
+
+    @Override
+    public boolean addObserver(final String key, final Observer<T> observer) {
+        return mHandler.addObserver(key, observer);
+    }
+
+    @Override
+    public boolean removeObserver(final String key, final Observer<T> observer) {
+        return mHandler.removeObserver(key, observer);
+    }
 }
@@ -3,6 +3,7 @@
  */
 package io.pivotal.android.data;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
 public class Request<T> {
@@ -13,8 +14,22 @@ public class Request<T> {
         public static final int DELETE = 3;
     }
 
+    public static final class Priorities {
+        public static final int INTERACTIVE = 0;
+        public static final int NORMAL = 1;
+        public static final int BACKGROUND = 2;
+    }
+
     public int method;
     public boolean force;
+    public int priority = Priorities.NORMAL;
+
+    /**
+     * Milliseconds an asynchronous execution may take before the store
+     * falls back to local data, or 0 for no deadline. Not persisted.
+     */
+    @JsonIgnore
+    public long timeout;
 
     @JsonTypeInfo(
         use = JsonTypeInfo.Id.NAME,
@@ -34,6 +49,7 @@ public class Request<T> {
 
     public Request(final Request<T> request) {
         this(request.method, request.object, request.fallback, request.force);
+        this.priority = request.priority;
     }
 
     public Request(final int method, final T object) {
@@ -55,6 +71,7 @@ public class Request<T> {
 
         public Get(final Request<T> request) {
             this(request.object, request.fallback, request.force);
+            this.priority = request.priority;
         }
 
         public Get(final T object) {
@@ -74,6 +91,7 @@ public class Request<T> {
 
         public Put(final Request<T> request) {
             this(request.object, request.fallback, request.force);
+            this.priority = request.priority;
         }
 
         public Put(final T object) {
@@ -93,6 +111,7 @@ public class Request<T> {
 
         public Delete(final Request<T> request) {
             this(request.object, request.fallback, request.force);
+            this.priority = request.priority;
         }
 
         public Delete(final T object) {
@@ -4,30 +4,92 @@
 package io.pivotal.android.data;
 
 import android.content.Context;
-import android.os.AsyncTask;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public interface RequestCache<T> {
 
-    public void queue(final Request<T> request);
+    public void queue(final Request<T> request) throws RequestCacheFullException;
 
     public void executePending();
 
     public void executePendingAsync();
 
+    public boolean executePending(final Budget budget);
+
+    public int getPendingCount(final int priority);
+
+    /**
+     * @return the earliest time at which a request waiting to be retried
+     * is due, or 0 if no request is waiting.
+     */
+    public long getNextRetryAt();
+
+    public boolean hasPendingWrites(final String identifier);
+
+    public PendingRequest.List<T> getDeadLetters();
+
+    public PendingRequest.List<T> clearDeadLetters();
+
+    /**
+     * Limits how much of the backlog a single sync session replays. A value
+     * of zero leaves that dimension unbounded.
+     */
+    public static class Budget {
+
+        public static final Budget UNLIMITED = new Budget(0, 0);
+
+        public final int maxRequests;
+        public final long maxDuration;
+
+        public Budget(final int maxRequests, final long maxDuration) {
+            this.maxRequests = maxRequests;
+            this.maxDuration = maxDuration;
+        }
+
+        public boolean isExhausted(final int executed, final long elapsed) {
+            final boolean requestsExhausted = maxRequests > 0 && executed >= maxRequests;
+            final boolean timeExhausted = maxDuration > 0 && elapsed >= maxDuration;
+            return requestsExhausted || timeExhausted;
+        }
+    }
+
     public static class Default<T> implements RequestCache<T> {
 
         private static final String REQUEST_CACHE = "PCFData:RequestCache";
+        private static final String DEAD_LETTERS = "PCFData:DeadLetters";
+
+        // caches share the persisted queue, so only one replays it at a time
+        private static final Object SESSION_LOCK = new Object();
 
         private final RequestCacheQueue<T> mQueue;
+        private final RequestCacheQueue<T> mDeadLetters;
         private final RequestCacheExecutor<T> mExecutor;
 
         public Default(final Context context, final OfflineStore<T> offlineStore, final DataStore<T> fallbackStore) {
             mQueue = new RequestCacheQueue<T>(new DataPersistence(context, REQUEST_CACHE));
-            mExecutor = new RequestCacheExecutor<T>(offlineStore, fallbackStore);
+            mDeadLetters = new RequestCacheQueue<T>(new DataPersistence(context, DEAD_LETTERS));
+            mExecutor = new RequestCacheExecutor<T>(offlineStore, fallbackStore, mQueue, mDeadLetters, Pivotal.getRequestCacheMaxAttempts());
+
+            mQueue.setDropListener(new RequestCacheQueue.DropListener<T>() {
+                @Override
+                public void onDropped(final PendingRequest<T> request) {
+                    mExecutor.discard(request);
+                }
+            });
         }
 
         public Default(final RequestCacheQueue<T> queue, final RequestCacheExecutor<T> executor) {
+            this(queue, null, executor);
+        }
+
+        public Default(final RequestCacheQueue<T> queue, final RequestCacheQueue<T> deadLetters, final RequestCacheExecutor<T> executor) {
             mQueue = queue;
+            mDeadLetters = deadLetters;
             mExecutor = executor;
         }
 
@@ -36,29 +98,141 @@ public interface RequestCache<T> {
         }
 
         @Override
-        public void queue(final Request<T> request) {
+        public void queue(final Request<T> request) throws RequestCacheFullException {
             final PendingRequest<T> pendingRequest = createPendingRequest(request);
             mQueue.add(pendingRequest);
         }
 
         @Override
         public void executePending() {
-            final PendingRequest.List<T> requests = mQueue.empty();
+            synchronized (SESSION_LOCK) {
+                final PendingRequest.List<T> requests = mQueue.empty();
 
-            mExecutor.execute(requests);
+                mExecutor.execute(requests);
+            }
         }
 
         @Override
         public void executePendingAsync() {
-            new AsyncTask<Void, Void, Void>() {
-
+            DataExecutors.getInstance().getNetworkExecutor().execute(new Runnable() {
                 @Override
-                protected Void doInBackground(final Void... params) {
+                public void run() {
                     executePending();
-                    return null;
                 }
+            });
+        }
+
+        /**
+         * Replays pending requests in priority order until the budget runs
+         * out. Requests stay in the persisted queue while they are replayed
+         * and the finished ones are removed together afterwards, so an
+         * interrupted session replays them again rather than losing them.
+         * Once a request waits to be retried, later requests for the same
+         * identifier wait behind it.
+         *
+         * @return true if requests that are due remain in the queue.
+         */
+        @Override
+        public boolean executePending(final Budget budget) {
+            synchronized (SESSION_LOCK) {
+                return executeSession(budget);
+            }
+        }
+
+        private boolean executeSession(final Budget budget) {
+            final PendingRequest.Lanes<T> lanes = new PendingRequest.Lanes<T>(mQueue.peek());
+            final List<PendingRequest<T>> finished = new ArrayList<PendingRequest<T>>();
+            final Set<String> deferred = new HashSet<String>();
+            final long start = SystemClock.elapsedRealtime();
+            final long now = System.currentTimeMillis();
+
+            int executed = 0;
+
+            try {
+                while (!lanes.isEmpty() && !budget.isExhausted(executed, SystemClock.elapsedRealtime() - start)) {
+                    final PendingRequest<T> request = lanes.poll();
+                    final String identifier = PendingRequest.Lanes.getIdentifier(request);
+
+                    if (identifier != null && deferred.contains(identifier)) {
+                        continue;
+                    }
+
+                    if (!request.isDue(now)) {
+                        if (identifier != null) {
+                            deferred.add(identifier);
+                        }
+                        continue;
+                    }
+
+                    if (mExecutor.execute(request)) {
+                        finished.add(request);
+                    } else if (identifier != null) {
+                        deferred.add(identifier);
+                    }
+                    executed++;
+                }
+            } finally {
+                if (!finished.isEmpty()) {
+                    mQueue.remove(finished);
+                }
+            }
+
+            Logger.d("Sync session executed " + executed + " requests, " + lanes.size() + " remaining.");
+
+            return hasDueRequests();
+        }
+
+        private boolean hasDueRequests() {
+            final Set<String> deferred = new HashSet<String>();
+            final long now = System.currentTimeMillis();
+
+            for (final PendingRequest<T> request : mQueue.peek()) {
+                final String identifier = PendingRequest.Lanes.getIdentifier(request);
+
+                if (identifier != null && deferred.contains(identifier)) {
+                    continue;
+                }
+                if (request.isDue(now)) {
+                    return true;
+                }
+                if (identifier != null) {
+                    deferred.add(identifier);
+                }
+            }
+            return false;
+        }
 
-            }.execute();
+        @Override
+        public int getPendingCount(final int priority) {
+            return mQueue.getDepth(priority);
+        }
+
+        @Override
+        public long getNextRetryAt() {
+            final long now = System.currentTimeMillis();
+            long nextRetryAt = 0;
+
+            for (final PendingRequest<T> request : mQueue.peek()) {
+                if (!request.isDue(now) && (nextRetryAt == 0 || request.retryAt < nextRetryAt)) {
+                    nextRetryAt = request.retryAt;
+                }
+            }
+            return nextRetryAt;
+        }
+
+        @Override
+        public boolean hasPendingWrites(final String identifier) {
+            return mQueue.hasWrites(identifier);
+        }
+
+        @Override
+        public PendingRequest.List<T> getDeadLetters() {
+            return mDeadLetters != null ? mDeadLetters.peek() : new PendingRequest.List<T>();
+        }
+
+        @Override
+        public PendingRequest.List<T> clearDeadLetters() {
+            return mDeadLetters != null ? mDeadLetters.empty() : new PendingRequest.List<T>();
         }
     }
 
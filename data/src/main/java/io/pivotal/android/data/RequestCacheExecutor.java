@@ -3,45 +3,165 @@
  */
 package io.pivotal.android.data;
 
+import java.util.HashSet;
+import java.util.Set;
+
 public class RequestCacheExecutor<T> {
 
+    public static final class Retries {
+        public static final int DEFAULT_MAX_ATTEMPTS = 5;
+        public static final long BASE_DELAY = 30 * 1000;
+        public static final long MAX_DELAY = 60 * 60 * 1000;
+    }
+
     private final OfflineStore<T> mOfflineStore;
     private final DataStore<T> mFallbackStore;
+    private final RequestCacheQueue<T> mQueue;
+    private final RequestCacheQueue<T> mDeadLetters;
+    private final int mMaxAttempts;
 
     public RequestCacheExecutor(final OfflineStore<T> offlineStore, final DataStore<T> fallbackStore) {
+        this(offlineStore, fallbackStore, null, null, Retries.DEFAULT_MAX_ATTEMPTS);
+    }
+
+    public RequestCacheExecutor(final OfflineStore<T> offlineStore, final DataStore<T> fallbackStore, final RequestCacheQueue<T> queue, final RequestCacheQueue<T> deadLetters, final int maxAttempts) {
         mOfflineStore = offlineStore;
         mFallbackStore = fallbackStore;
+        mQueue = queue;
+        mDeadLetters = deadLetters;
+        mMaxAttempts = maxAttempts;
     }
 
+    /**
+     * Executes the requests in lane order. Once a request is queued again
+     * to be retried, later requests for its identifier are queued behind
+     * it rather than executed, so the retry cannot overwrite them.
+     */
     public void execute(final PendingRequest.List<T> requests) {
-        for (final PendingRequest<T> request : requests) {
-            execute(request);
+        final PendingRequest.Lanes<T> lanes = new PendingRequest.Lanes<T>(requests);
+        final Set<String> deferred = new HashSet<String>();
+
+        while (!lanes.isEmpty()) {
+            final PendingRequest<T> request = lanes.poll();
+            final String identifier = PendingRequest.Lanes.getIdentifier(request);
+
+            if (identifier != null && deferred.contains(identifier) && requeue(request)) {
+                continue;
+            }
+
+            if (!execute(request) && identifier != null) {
+                deferred.add(identifier);
+            }
         }
     }
 
-    private void execute(final PendingRequest<T> request) {
+    /**
+     * @return true if the request is done with, false if it was queued
+     * again to be retried later.
+     */
+    public boolean execute(final PendingRequest<T> request) {
+
+        if (!request.isDue(System.currentTimeMillis()) && requeue(request)) {
+            return false;
+        }
 
         switch (request.method) {
             case Request.Methods.GET:
                 mOfflineStore.execute(request);
-                break;
+                return true;
 
             case Request.Methods.PUT:
             case Request.Methods.DELETE:
-                executeWithFallback(request);
-                break;
+                return executeWithFallback(request);
 
             default:
                 throw new UnsupportedOperationException();
         }
     }
 
-    private void executeWithFallback(final PendingRequest<T> request) {
+    private boolean executeWithFallback(final PendingRequest<T> request) {
         final Response<T> response = mOfflineStore.execute(request);
         if (response.isFailure()) {
-            final Request<T> put = new Request.Put<T>(request);
-            put.object = request.fallback;
-            mFallbackStore.execute(put);
+            request.errorCode = response.error != null ? response.error.getCode() : -1;
+
+            if (isRetryable(request, response)) {
+                return !retry(request);
+            } else {
+                executeFallback(request);
+                deadLetter(request);
+            }
+        }
+        return true;
+    }
+
+    private boolean isRetryable(final PendingRequest<T> request, final Response<T> response) {
+        return mQueue != null && response.error != null
+                && response.error.isTransient()
+                && request.attempts + 1 < mMaxAttempts;
+    }
+
+    private boolean retry(final PendingRequest<T> request) {
+        request.attempts++;
+        request.retryAt = System.currentTimeMillis() + getBackoff(request.attempts);
+
+        Logger.w("Retrying request (attempt " + request.attempts + ") at " + request.retryAt + ": " + request.object);
+
+        if (requeue(request)) {
+            return true;
         }
+
+        executeFallback(request);
+        deadLetter(request);
+        return false;
+    }
+
+    private boolean requeue(final PendingRequest<T> request) {
+        if (mQueue == null) {
+            return false;
+        }
+        try {
+            mQueue.add(request);
+            return true;
+        } catch (final RequestCacheFullException e) {
+            Logger.ex(e);
+            return false;
+        }
+    }
+
+    /**
+     * Gives up on a write that will not be replayed: restores its fallback
+     * locally, unless a later write for the object is still queued and
+     * holds the local value, and keeps it as a dead letter.
+     */
+    public void discard(final PendingRequest<T> request) {
+        final String identifier = PendingRequest.Lanes.getIdentifier(request);
+
+        if (mQueue == null || identifier == null || !mQueue.hasWrites(identifier)) {
+            executeFallback(request);
+        }
+        deadLetter(request);
+    }
+
+    private void executeFallback(final PendingRequest<T> request) {
+        final Request<T> put = new Request.Put<T>(request);
+        put.object = request.fallback;
+        mFallbackStore.execute(put);
+    }
+
+    private void deadLetter(final PendingRequest<T> request) {
+        if (mDeadLetters == null) {
+            return;
+        }
+        try {
+            Logger.w("Dead letter (code " + request.errorCode + "): " + request.object);
+            mDeadLetters.add(request);
+        } catch (final RequestCacheFullException e) {
+            Logger.ex(e);
+        }
+    }
+
+    /* package */ static long getBackoff(final int attempts) {
+        final int exponent = Math.min(Math.max(attempts - 1, 0), 30);
+        return Math.min(Retries.BASE_DELAY << exponent, Retries.MAX_DELAY);
     }
 }
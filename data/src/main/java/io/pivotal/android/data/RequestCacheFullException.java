@@ -0,0 +1,11 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+public class RequestCacheFullException extends Exception {
+
+    public RequestCacheFullException(final String message) {
+        super(message);
+    }
+}
@@ -5,47 +5,249 @@ package io.pivotal.android.data;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
 public class RequestCacheQueue<T> {
 
     private static final String REQUEST_KEY = "PCFData:Requests";
 
+    public static final class OverflowPolicies {
+        public static final String REJECT = "Reject";
+        public static final String DROP_OLDEST_BACKGROUND = "DropOldestBackground";
+        public static final String COMPACT_THEN_RETRY = "CompactThenRetry";
+    }
+
+    public static class Limits {
+
+        public static final int DEFAULT_MAX_REQUESTS = 1000;
+        public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+        public final int maxRequests;
+        public final int maxBytes;
+        public final String overflowPolicy;
+
+        public Limits(final int maxRequests, final int maxBytes, final String overflowPolicy) {
+            this.maxRequests = maxRequests;
+            this.maxBytes = maxBytes;
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        public static Limits fromProperties() {
+            final int maxRequests = Pivotal.getRequestCacheMaxRequests();
+            final int maxBytes = Pivotal.getRequestCacheMaxBytes();
+            final String overflowPolicy = Pivotal.getRequestCacheOverflowPolicy();
+            return new Limits(maxRequests, maxBytes, overflowPolicy);
+        }
+    }
+
+    /**
+     * Receives writes dropped to make room under
+     * {@link OverflowPolicies#DROP_OLDEST_BACKGROUND}, so that their
+     * fallback can be applied.
+     */
+    public static interface DropListener<T> {
+        public void onDropped(PendingRequest<T> request);
+    }
+
     private final Object LOCK = new Object();
 
     private final DataPersistence mPersistence;
+    private final Limits mLimits;
+
+    // the persisted queue is read once and then written through
+    private PendingRequest.List<T> mRequests;
+    private int mPersistedLength;
+
+    // queues of other stores sharing the namespace invalidate this copy when they write
+    private volatile boolean mStale;
+    private volatile String mWritten;
+    private final DataPersistence.ChangeListener mChangeListener;
+
+    private DropListener<T> mDropListener;
 
     public RequestCacheQueue(final DataPersistence persistence) {
+        this(persistence, Limits.fromProperties());
+    }
+
+    public RequestCacheQueue(final DataPersistence persistence, final Limits limits) {
         mPersistence = persistence;
+        mLimits = limits;
+        mChangeListener = new DataPersistence.ChangeListener() {
+            @Override
+            public void onChange(final String key, final String value) {
+                if (key == null || (REQUEST_KEY.equals(key) && value != mWritten)) {
+                    mStale = true;
+                }
+            }
+        };
+
+        if (persistence != null) {
+            persistence.addChangeListener(mChangeListener);
+        }
     }
 
-    public void add(final PendingRequest<T> request) {
-        final PendingRequest.List<T> requests;
+    public void setDropListener(final DropListener<T> listener) {
+        mDropListener = listener;
+    }
+
+    /**
+     * Queues the request, or updates it in place if a request with the
+     * same id is still queued, as when a replayed request is retried.
+     */
+    public void add(final PendingRequest<T> request) throws RequestCacheFullException {
+        final List<PendingRequest<T>> dropped;
 
         synchronized (LOCK) {
-            requests = getRequests();
+            final PendingRequest.List<T> requests = getCachedRequests();
+            final int index = indexOf(requests, request.id);
+
+            if (index >= 0) {
+                requests.set(index, request);
+                putRequests(requests);
+                return;
+            }
+
+            final int length = mPersistedLength + getLength(request) + 1;
             requests.add(request);
+
+            if (exceedsLimits(requests.size(), length)) {
+                dropped = applyOverflowPolicy(requests, request, length);
+            } else {
+                dropped = Collections.emptyList();
+            }
+
             putRequests(requests);
         }
+
+        notifyDropped(dropped);
     }
 
     public PendingRequest.List<T> empty() {
         final PendingRequest.List<T> requests;
 
         synchronized (LOCK) {
-            requests = getRequests();
+            requests = getCachedRequests();
             deleteRequests();
+            mRequests = new PendingRequest.List<T>();
+            mStale = false;
         }
 
         return requests;
     }
 
+    public PendingRequest.List<T> peek() {
+        synchronized (LOCK) {
+            final PendingRequest.List<T> requests = getCachedRequests();
+
+            // requests queued before ids were introduced need one to be removable
+            if (assignIds(requests)) {
+                putRequests(requests);
+            }
+
+            final PendingRequest.List<T> copy = new PendingRequest.List<T>();
+            copy.addAll(requests);
+            return copy;
+        }
+    }
+
+    public boolean remove(final PendingRequest<T> request) {
+        return remove(Collections.singletonList(request)) > 0;
+    }
+
+    /**
+     * Removes the requests with the ids of the given ones and persists the
+     * queue once.
+     *
+     * @return the number of requests removed.
+     */
+    public int remove(final List<PendingRequest<T>> removals) {
+        final Set<String> ids = new HashSet<String>();
+        for (final PendingRequest<T> request : removals) {
+            if (request.id != null) {
+                ids.add(request.id);
+            }
+        }
+
+        synchronized (LOCK) {
+            final PendingRequest.List<T> requests = getCachedRequests();
+            final int size = requests.size();
+
+            for (int i = size - 1; i >= 0; i--) {
+                if (ids.contains(requests.get(i).id)) {
+                    requests.remove(i);
+                }
+            }
+
+            final int removed = size - requests.size();
+            if (removed > 0) {
+                putRequests(requests);
+            }
+            return removed;
+        }
+    }
+
+    public int getDepth(final int priority) {
+        final PendingRequest.List<T> requests;
+
+        synchronized (LOCK) {
+            requests = getCachedRequests();
+        }
+
+        return new PendingRequest.Lanes<T>(requests).size(priority);
+    }
+
+    /**
+     * Whether a PUT or DELETE for the object with the given identifier is
+     * waiting to be replayed.
+     */
+    public boolean hasWrites(final String identifier) {
+        synchronized (LOCK) {
+            for (final PendingRequest<T> request : getCachedRequests()) {
+                if (request.method != Request.Methods.GET && identifier.equals(getIdentifier(request))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static int indexOf(final PendingRequest.List<?> requests, final String id) {
+        if (id != null) {
+            for (int i = 0; i < requests.size(); i++) {
+                if (id.equals(requests.get(i).id)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private PendingRequest.List<T> getCachedRequests() {
+        if (mRequests == null || mStale) {
+            mStale = false;
+            mRequests = getRequests();
+        }
+        return mRequests;
+    }
+
     @SuppressWarnings("unchecked")
     protected PendingRequest.List<T> getRequests() {
         try {
             final ObjectMapper mapper = new ObjectMapper();
             mapper.registerSubtypes(KeyValue.class);
             final String serialized = mPersistence.getString(REQUEST_KEY);
+            mPersistedLength = serialized.length();
             return mapper.readValue(serialized, PendingRequest.List.class);
         } catch (final Exception e) {
+            mPersistedLength = 0;
             return new PendingRequest.List<T>();
         }
     }
@@ -54,7 +256,9 @@ public class RequestCacheQueue<T> {
         try {
             final ObjectMapper mapper = new ObjectMapper();
             final String data = mapper.writeValueAsString(requests);
+            mWritten = data;
             mPersistence.putString(REQUEST_KEY, data);
+            mPersistedLength = data.length();
         } catch (final Exception e) {
             // do nothing
         }
@@ -62,5 +266,190 @@ public class RequestCacheQueue<T> {
 
     protected void deleteRequests() {
         mPersistence.deleteString(REQUEST_KEY);
+        mPersistedLength = 0;
+    }
+
+    private List<PendingRequest<T>> applyOverflowPolicy(final PendingRequest.List<T> requests, final PendingRequest<T> request, final int length) throws RequestCacheFullException {
+        final String policy = mLimits.overflowPolicy;
+
+        Logger.w("Request cache limits exceeded (policy: " + policy + ").");
+
+        if (OverflowPolicies.DROP_OLDEST_BACKGROUND.equals(policy)) {
+            return dropOldestBackground(requests, request, length);
+
+        } else if (OverflowPolicies.COMPACT_THEN_RETRY.equals(policy)) {
+            final PendingRequest.List<T> original = new PendingRequest.List<T>();
+            original.addAll(requests);
+
+            compact(requests);
+
+            // compaction may fold earlier writes into the rejected request, so restore what is persisted
+            if (exceedsLimits(requests.size(), getLength(requests))) {
+                requests.clear();
+                requests.addAll(original);
+                reject(requests, request);
+            }
+            return Collections.emptyList();
+
+        } else {
+            reject(requests, request);
+            return Collections.emptyList();
+        }
+    }
+
+    private void reject(final PendingRequest.List<T> requests, final PendingRequest<T> request) throws RequestCacheFullException {
+        requests.remove(request);
+        throw new RequestCacheFullException("Request cache is full (" + requests.size() + " requests).");
+    }
+
+    /**
+     * Picks the oldest background requests to drop in one pass, counting
+     * down the size of the queue as it goes, and removes them together.
+     */
+    private List<PendingRequest<T>> dropOldestBackground(final PendingRequest.List<T> requests, final PendingRequest<T> request, final int length) throws RequestCacheFullException {
+        final Set<PendingRequest<T>> dropped = Collections.newSetFromMap(new IdentityHashMap<PendingRequest<T>, Boolean>());
+        int remainingCount = requests.size();
+        int remainingLength = length;
+
+        for (final PendingRequest<T> pending : requests) {
+            if (!exceedsLimits(remainingCount, remainingLength)) {
+                break;
+            }
+            if (pending != request && pending.priority == Request.Priorities.BACKGROUND) {
+                dropped.add(pending);
+                remainingCount--;
+
+                if (mLimits.maxBytes > 0) {
+                    remainingLength -= getLength(pending) + 1;
+                }
+            }
+        }
+
+        if (exceedsLimits(remainingCount, remainingLength)) {
+            reject(requests, request);
+        }
+
+        final List<PendingRequest<T>> kept = new ArrayList<PendingRequest<T>>(remainingCount);
+        final List<PendingRequest<T>> removed = new ArrayList<PendingRequest<T>>(dropped.size());
+
+        for (final PendingRequest<T> pending : requests) {
+            if (dropped.contains(pending)) {
+                Logger.w("Dropping background request: " + pending.object);
+                removed.add(pending);
+            } else {
+                kept.add(pending);
+            }
+        }
+
+        requests.clear();
+        requests.addAll(kept);
+        return removed;
+    }
+
+    private void notifyDropped(final List<PendingRequest<T>> dropped) {
+        final DropListener<T> listener = mDropListener;
+        if (listener == null) {
+            return;
+        }
+        for (final PendingRequest<T> request : dropped) {
+            if (request.method != Request.Methods.GET) {
+                listener.onDropped(request);
+            }
+        }
+    }
+
+    /**
+     * Collapses requests for the same object into the latest one. A write
+     * keeps the fallback of the earliest write it replaces, so a failed
+     * replay still restores the value from before the device went offline.
+     */
+    protected void compact(final PendingRequest.List<T> requests) {
+        final Map<String, PendingRequest<T>> firstWrites = new HashMap<String, PendingRequest<T>>();
+        final Map<String, Integer> lastWrites = new HashMap<String, Integer>();
+        final Map<String, Integer> lastGets = new HashMap<String, Integer>();
+        final Map<String, Integer> priorities = new HashMap<String, Integer>();
+
+        for (int i = 0; i < requests.size(); i++) {
+            final PendingRequest<T> request = requests.get(i);
+            final String identifier = getIdentifier(request);
+
+            if (identifier == null) {
+                continue;
+            }
+
+            if (request.method == Request.Methods.GET) {
+                lastGets.put(identifier, i);
+            } else {
+                if (!firstWrites.containsKey(identifier)) {
+                    firstWrites.put(identifier, request);
+                }
+                lastWrites.put(identifier, i);
+            }
+
+            final Integer priority = priorities.get(identifier);
+            if (priority == null || request.priority < priority) {
+                priorities.put(identifier, request.priority);
+            }
+        }
+
+        final PendingRequest.List<T> compacted = new PendingRequest.List<T>();
+
+        for (int i = 0; i < requests.size(); i++) {
+            final PendingRequest<T> request = requests.get(i);
+            final String identifier = getIdentifier(request);
+
+            if (identifier == null) {
+                compacted.add(request);
+
+            } else if (request.method == Request.Methods.GET) {
+                if (lastGets.get(identifier) == i) {
+                    compacted.add(request);
+                }
+
+            } else if (lastWrites.get(identifier) == i) {
+                request.fallback = firstWrites.get(identifier).fallback;
+                request.priority = priorities.get(identifier);
+                compacted.add(request);
+            }
+        }
+
+        Logger.d("Compacted request cache from " + requests.size() + " to " + compacted.size() + " requests.");
+
+        requests.clear();
+        requests.addAll(compacted);
+    }
+
+    private static boolean assignIds(final PendingRequest.List<?> requests) {
+        boolean assigned = false;
+        for (final PendingRequest<?> request : requests) {
+            if (request.id == null) {
+                request.id = UUID.randomUUID().toString();
+                assigned = true;
+            }
+        }
+        return assigned;
+    }
+
+    private boolean exceedsLimits(final int count, final int length) {
+        final boolean tooMany = mLimits.maxRequests > 0 && count > mLimits.maxRequests;
+        final boolean tooLarge = mLimits.maxBytes > 0 && length > mLimits.maxBytes;
+        return tooMany || tooLarge;
+    }
+
+    private static String getIdentifier(final PendingRequest<?> request) {
+        if (request.object instanceof Identifiable) {
+            return ((Identifiable) request.object).getIdentifier();
+        } else {
+            return null;
+        }
+    }
+
+    private static int getLength(final Object object) {
+        try {
+            final ObjectMapper mapper = new ObjectMapper();
+            return mapper.writeValueAsString(object).length();
+        } catch (final Exception e) {
+            return 0;
+        }
     }
 }
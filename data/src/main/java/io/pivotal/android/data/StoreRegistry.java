@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.content.Context;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide home of the components that are expensive to build or must
+ * be unique: the persisted data, the HTTP client with its etag cache and
+ * the request cache with its lock. Stores created for individual objects
+ * are thin wrappers around these.
+ */
+/* package */ class StoreRegistry {
+
+    private static StoreRegistry sInstance;
+
+    public static synchronized StoreRegistry get(final Context context) {
+        if (sInstance == null) {
+            sInstance = new StoreRegistry(getApplicationContext(context));
+        }
+        return sInstance;
+    }
+
+    /* package */ static synchronized void reset() {
+        sInstance = null;
+    }
+
+    private final Context mContext;
+    private final DataPersistence mDataPersistence;
+    private final RemoteClient mRemoteClient;
+    private final KeyValueLocalStore mLocalStore;
+    private final KeyValueOfflineStore mOfflineStore;
+    private final RequestCache<KeyValue> mRequestCache;
+    private final Map<String, KeyValueOfflineStore> mCollectionStores = new HashMap<String, KeyValueOfflineStore>();
+
+    private StoreRegistry(final Context context) {
+        mContext = context;
+        mDataPersistence = new DataPersistence(context, KeyValueLocalStore.DATA_PREFIX);
+        mRemoteClient = new RemoteClient.Default(context, new EtagStore(context));
+
+        mLocalStore = new KeyValueLocalStore(new ObserverHandler<KeyValue>(), mDataPersistence);
+        final RemoteStore<KeyValue> remoteStore = new KeyValueRemoteStore(new ObserverHandler<KeyValue>(), mRemoteClient);
+
+        mOfflineStore = new KeyValueOfflineStore(context, mLocalStore, remoteStore);
+        mRequestCache = new RequestCache.Default<KeyValue>(context, mOfflineStore, mLocalStore);
+        mOfflineStore.setRequestCache(mRequestCache);
+    }
+
+    public Context getContext() {
+        return mContext;
+    }
+
+    public DataPersistence getDataPersistence() {
+        return mDataPersistence;
+    }
+
+    public RemoteClient getRemoteClient() {
+        return mRemoteClient;
+    }
+
+    public KeyValueLocalStore getLocalStore() {
+        return mLocalStore;
+    }
+
+    /**
+     * The store that replays the request cache and backs the {@link Data}
+     * helpers. Replayed requests are resolved with the conflict resolver
+     * registered through {@link Data#registerConflictResolver} and written
+     * through, whatever the store that queued them was configured with.
+     */
+    public KeyValueOfflineStore getOfflineStore() {
+        return mOfflineStore;
+    }
+
+    public synchronized KeyValueOfflineStore getOfflineStore(final String collection) {
+        KeyValueOfflineStore offlineStore = mCollectionStores.get(collection);
+        if (offlineStore == null) {
+            offlineStore = KeyValueOfflineStore.create(this);
+            mCollectionStores.put(collection, offlineStore);
+        }
+        return offlineStore;
+    }
+
+    public RequestCache<KeyValue> getRequestCache() {
+        return mRequestCache;
+    }
+
+    private static Context getApplicationContext(final Context context) {
+        final Context applicationContext = context.getApplicationContext();
+        return applicationContext != null ? applicationContext : context;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Coordinates background replays of the request cache. At most one sync
+ * runs per process; triggers that arrive while it runs are merged into a
+ * single follow-up. Connectivity triggers are debounced, and whether work
+ * is still outstanding is persisted so it can be resumed after a restart.
+ * A sync that throws is retried with the request cache's backoff, and
+ * requests waiting to be retried are replayed when the first is due.
+ */
+/* package */ class SyncScheduler {
+
+    static final long CONTINUATION_DELAY = 5 * 1000;
+    static final long DEBOUNCE_DELAY = 2 * 1000;
+
+    private static final String SYNC_STATE = "PCFData:SyncState";
+    private static final String PENDING_KEY = "PCFData:SyncPending";
+    private static final String LAST_SYNC_KEY = "PCFData:LastSync";
+
+    private static final Object LOCK = new Object();
+    private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+    private static boolean sRunning;
+    private static boolean sFollowUp;
+    private static RequestCache.Budget sFollowUpBudget;
+    private static Runnable sDebounced;
+    private static Runnable sScheduled;
+    private static int sFailures;
+    private static Boolean sPending;
+
+    public static void requestSync(final Context context, final RequestCache.Budget budget) {
+        final Context applicationContext = context.getApplicationContext();
+
+        setPending(applicationContext, true);
+
+        synchronized (LOCK) {
+            if (sDebounced != null) {
+                sHandler.removeCallbacks(sDebounced);
+            }
+
+            sDebounced = new Runnable() {
+                @Override
+                public void run() {
+                    syncInBackground(applicationContext, budget);
+                }
+            };
+
+            sHandler.postDelayed(sDebounced, DEBOUNCE_DELAY);
+        }
+    }
+
+    public static void syncInBackground(final Context context, final RequestCache.Budget budget) {
+        final Context applicationContext = context.getApplicationContext();
+
+        if (!start(applicationContext, budget)) {
+            return;
+        }
+
+        DataExecutors.getInstance().getNetworkExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                execute(applicationContext, getRequestCache(applicationContext), budget);
+            }
+        });
+    }
+
+    /**
+     * Replays the request cache on the calling thread, or merges into a
+     * follow-up if a sync is already in flight.
+     *
+     * @return true if requests remain to be replayed.
+     */
+    public static boolean sync(final Context context, final RequestCache<?> requestCache, final RequestCache.Budget budget) {
+        final Context applicationContext = context.getApplicationContext();
+
+        if (!start(applicationContext, budget)) {
+            return true;
+        }
+
+        return execute(applicationContext, requestCache, budget);
+    }
+
+    private static boolean start(final Context context, final RequestCache.Budget budget) {
+        setPending(context, true);
+
+        synchronized (LOCK) {
+            if (sRunning) {
+                Logger.d("Sync in flight, merging into follow-up.");
+                sFollowUp = true;
+                sFollowUpBudget = budget;
+                return false;
+            }
+            sRunning = true;
+            return true;
+        }
+    }
+
+    private static boolean execute(final Context context, final RequestCache<?> requestCache, final RequestCache.Budget budget) {
+        boolean remaining = true;
+        long nextRetryAt = 0;
+        boolean failed = true;
+        try {
+            remaining = requestCache.executePending(budget);
+            nextRetryAt = requestCache.getNextRetryAt();
+            failed = false;
+        } catch (final RuntimeException e) {
+            Logger.w("Sync failed.", e);
+        } finally {
+            onSyncFinished(context, budget, remaining, nextRetryAt, failed);
+        }
+        return remaining;
+    }
+
+    /**
+     * Restarts a sync left unfinished by a previous process.
+     */
+    public static void resumePending(final Context context) {
+        if (isPending(context) && NetworkState.isConnected(context)) {
+            Logger.d("Resuming pending sync.");
+            requestSync(context, RequestCache.Budget.UNLIMITED);
+        }
+    }
+
+    /* package */ static void cancelRequestedSync() {
+        synchronized (LOCK) {
+            if (sDebounced != null) {
+                sHandler.removeCallbacks(sDebounced);
+                sDebounced = null;
+            }
+            if (sScheduled != null) {
+                sHandler.removeCallbacks(sScheduled);
+                sScheduled = null;
+            }
+        }
+    }
+
+    /* package */ static boolean isScheduled() {
+        synchronized (LOCK) {
+            return sScheduled != null;
+        }
+    }
+
+    /* package */ static boolean isRunning() {
+        synchronized (LOCK) {
+            return sRunning;
+        }
+    }
+
+    /* package */ static boolean isPending(final Context context) {
+        synchronized (LOCK) {
+            if (sPending == null) {
+                sPending = Boolean.parseBoolean(getPersistence(context).getString(PENDING_KEY));
+            }
+            return sPending;
+        }
+    }
+
+    /* package */ static long getLastSync(final Context context) {
+        try {
+            return Long.parseLong(getPersistence(context).getString(LAST_SYNC_KEY));
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /* package */ static int getFailures() {
+        synchronized (LOCK) {
+            return sFailures;
+        }
+    }
+
+    private static void onSyncFinished(final Context context, final RequestCache.Budget budget, final boolean remaining, final long nextRetryAt, final boolean failed) {
+        final boolean followUp;
+        final RequestCache.Budget followUpBudget;
+        final int failures;
+
+        synchronized (LOCK) {
+            sRunning = false;
+            followUp = sFollowUp;
+            followUpBudget = sFollowUpBudget;
+            sFollowUp = false;
+            sFollowUpBudget = null;
+            sFailures = failed ? sFailures + 1 : 0;
+            failures = sFailures;
+        }
+
+        getPersistence(context).applyString(LAST_SYNC_KEY, String.valueOf(System.currentTimeMillis()));
+
+        if (failed) {
+            // a sync that throws is retried with backoff, follow-ups included
+            if (NetworkState.isConnected(context)) {
+                scheduleRetry(context, followUp ? followUpBudget : budget, failures);
+            }
+
+        } else if (followUp) {
+            syncInBackground(context, followUpBudget);
+
+        } else if (remaining) {
+            if (NetworkState.isConnected(context)) {
+                scheduleContinuation(context, budget);
+            }
+
+        } else if (nextRetryAt > 0) {
+            // stays pending until the requests waiting to be retried are replayed
+            if (NetworkState.isConnected(context)) {
+                scheduleNextRetry(context, budget, nextRetryAt);
+            }
+
+        } else {
+            setPending(context, false);
+        }
+    }
+
+    private static void scheduleContinuation(final Context context, final RequestCache.Budget budget) {
+        Logger.d("Sync budget exhausted, continuing in " + CONTINUATION_DELAY + "ms.");
+
+        postSync(context, budget, CONTINUATION_DELAY);
+    }
+
+    private static void scheduleRetry(final Context context, final RequestCache.Budget budget, final int failures) {
+        final long delay = RequestCacheExecutor.getBackoff(failures);
+
+        Logger.d("Sync failed " + failures + " times, retrying in " + delay + "ms.");
+
+        postSync(context, budget, delay);
+    }
+
+    private static void scheduleNextRetry(final Context context, final RequestCache.Budget budget, final long nextRetryAt) {
+        final long delay = Math.max(nextRetryAt - System.currentTimeMillis(), 0);
+
+        Logger.d("Requests waiting to be retried, syncing in " + delay + "ms.");
+
+        postSync(context, budget, delay);
+    }
+
+    // a single sync is scheduled at a time, the latest replacing any other
+    private static void postSync(final Context context, final RequestCache.Budget budget, final long delay) {
+        synchronized (LOCK) {
+            if (sScheduled != null) {
+                sHandler.removeCallbacks(sScheduled);
+            }
+
+            sScheduled = new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (LOCK) {
+                        if (sScheduled == this) {
+                            sScheduled = null;
+                        }
+                    }
+                    syncInBackground(context, budget);
+                }
+            };
+
+            sHandler.postDelayed(sScheduled, delay);
+        }
+    }
+
+    private static RequestCache<?> getRequestCache(final Context context) {
+        return StoreRegistry.get(context).getRequestCache();
+    }
+
+    // triggers arrive on the main thread, so the flag is only written when it changes
+    private static void setPending(final Context context, final boolean pending) {
+        synchronized (LOCK) {
+            if (sPending == null || sPending.booleanValue() != pending) {
+                sPending = pending;
+                getPersistence(context).applyString(PENDING_KEY, String.valueOf(pending));
+            }
+        }
+    }
+
+    private static DataPersistence getPersistence(final Context context) {
+        return new DataPersistence(context, SYNC_STATE);
+    }
+}
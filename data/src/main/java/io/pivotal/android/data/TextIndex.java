@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Inverted indexes over the text of stored values, one per collection that
+ * asks for it. JSON values contribute the text of their string fields and
+ * other values their raw text. Like {@link FieldIndex} it is filled when
+ * added and then follows change events, so values written by any store,
+ * including remote updates applied locally, are searchable offline.
+ */
+/* package */ class TextIndex implements DataPersistence.ChangeListener {
+
+    private static final int BACKFILL_BATCH_SIZE = 100;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final Map<String, TextIndex> sIndexes = new HashMap<String, TextIndex>();
+
+    private static final Comparator<Map.Entry<String, Double>> RANK_ORDER = new Comparator<Map.Entry<String, Double>>() {
+        @Override
+        public int compare(final Map.Entry<String, Double> a, final Map.Entry<String, Double> b) {
+            final int result = b.getValue().compareTo(a.getValue());
+            return result != 0 ? result : a.getKey().compareTo(b.getKey());
+        }
+    };
+
+    public static TextIndex get(final DataPersistence persistence) {
+        synchronized (sIndexes) {
+            TextIndex index = sIndexes.get(persistence.getNamespace());
+            if (index == null) {
+                index = new TextIndex(persistence);
+                sIndexes.put(persistence.getNamespace(), index);
+            }
+            return index;
+        }
+    }
+
+    /* package */ static void reset() {
+        synchronized (sIndexes) {
+            sIndexes.clear();
+        }
+    }
+
+    private final Map<String, Postings> mCollections = new HashMap<String, Postings>();
+    private final DataPersistence mPersistence;
+
+    /* package */ TextIndex(final DataPersistence persistence) {
+        mPersistence = persistence;
+        persistence.addChangeListener(this);
+    }
+
+    public synchronized boolean addIndex(final String collection) {
+        if (mCollections.containsKey(collection)) {
+            return false;
+        }
+
+        final Postings postings = new Postings();
+        mCollections.put(collection, postings);
+
+        Logger.d("Add text index: " + collection);
+        backfill(collection, postings);
+        return true;
+    }
+
+    public synchronized boolean hasIndex(final String collection) {
+        return mCollections.containsKey(collection);
+    }
+
+    /**
+     * Returns the keys containing every term of the text, the last one as a
+     * prefix, best matches first. Terms are weighted by how rare they are.
+     */
+    public synchronized List<String> search(final String collection, final String text, final int offset, final int limit) {
+        final Postings postings = mCollections.get(collection);
+        if (postings == null) {
+            throw new IllegalArgumentException("No text index on " + collection);
+        }
+
+        final List<String> terms = tokenize(text);
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final Map<String, Double> scores = postings.score(terms);
+        final int size = offset + limit;
+
+        // keep only the best offset + limit candidates, worst at the head
+        final PriorityQueue<Map.Entry<String, Double>> best = new PriorityQueue<Map.Entry<String, Double>>(Math.max(1, Math.min(size, scores.size())), Collections.reverseOrder(RANK_ORDER));
+
+        for (final Map.Entry<String, Double> entry : scores.entrySet()) {
+            best.offer(entry);
+            if (best.size() > size) {
+                best.poll();
+            }
+        }
+
+        final List<Map.Entry<String, Double>> ranked = new ArrayList<Map.Entry<String, Double>>(best);
+        Collections.sort(ranked, RANK_ORDER);
+
+        final List<String> keys = new ArrayList<String>(Math.max(0, ranked.size() - offset));
+        for (int i = offset; i < ranked.size(); i++) {
+            keys.add(ranked.get(i).getKey());
+        }
+        return keys;
+    }
+
+    @Override
+    public synchronized void onChange(final String identifier, final String value) {
+        if (identifier == null) {
+            for (final Postings postings : mCollections.values()) {
+                postings.clear();
+            }
+            return;
+        }
+
+        final int separator = identifier.indexOf(KeyIndex.SEPARATOR);
+        if (separator < 0) {
+            return;
+        }
+
+        final Postings postings = mCollections.get(identifier.substring(0, separator));
+        if (postings == null) {
+            return;
+        }
+
+        if (value == null && KeyIndex.isCollection(identifier)) {
+            postings.clear();
+            return;
+        }
+
+        final String key = identifier.substring(separator + 1);
+        postings.remove(key);
+
+        if (value != null) {
+            postings.add(key, tokenize(getText(value)));
+        }
+    }
+
+    private void backfill(final String collection, final Postings postings) {
+        final KeyIndex keyIndex = KeyIndex.get(mPersistence);
+        List<String> keys = keyIndex.getKeys(collection, null, null, BACKFILL_BATCH_SIZE);
+
+        while (!keys.isEmpty()) {
+            for (final String key : keys) {
+                final String value = mPersistence.getString(collection + KeyIndex.SEPARATOR + key);
+                postings.add(key, tokenize(getText(value)));
+            }
+            keys = keyIndex.getKeys(collection, null, keys.get(keys.size() - 1), BACKFILL_BATCH_SIZE);
+        }
+    }
+
+    /* package */ static List<String> tokenize(final String text) {
+        final List<String> tokens = new ArrayList<String>();
+        if (text == null) {
+            return tokens;
+        }
+
+        final int length = text.length();
+        int start = -1;
+
+        for (int i = 0; i <= length; i++) {
+            final boolean isWordChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+
+            if (isWordChar && start < 0) {
+                start = i;
+            } else if (!isWordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static String getText(final String value) {
+        if (value == null || value.length() == 0 || value.charAt(0) != '{' && value.charAt(0) != '[') {
+            return value;
+        }
+        try {
+            final StringBuilder builder = new StringBuilder();
+            appendText(MAPPER.readTree(value), builder);
+            return builder.toString();
+        } catch (final Exception e) {
+            return value;
+        }
+    }
+
+    private static void appendText(final JsonNode node, final StringBuilder builder) {
+        if (node.isTextual()) {
+            builder.append(node.asText()).append(' ');
+        } else if (node.isContainerNode()) {
+            final Iterator<JsonNode> elements = node.elements();
+            while (elements.hasNext()) {
+                appendText(elements.next(), builder);
+            }
+        }
+    }
+
+    private static final class Postings {
+
+        private final TreeMap<String, Map<String, Integer>> mTerms = new TreeMap<String, Map<String, Integer>>();
+        private final Map<String, Map<String, Integer>> mKeys = new HashMap<String, Map<String, Integer>>();
+
+        public void add(final String key, final List<String> tokens) {
+            if (tokens.isEmpty()) {
+                return;
+            }
+
+            final Map<String, Integer> frequencies = new HashMap<String, Integer>();
+            for (final String token : tokens) {
+                final Integer count = frequencies.get(token);
+                frequencies.put(token, count != null ? count + 1 : 1);
+            }
+
+            for (final Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                Map<String, Integer> keys = mTerms.get(entry.getKey());
+                if (keys == null) {
+                    keys = new HashMap<String, Integer>();
+                    mTerms.put(entry.getKey(), keys);
+                }
+                keys.put(key, entry.getValue());
+            }
+            mKeys.put(key, frequencies);
+        }
+
+        public void remove(final String key) {
+            final Map<String, Integer> frequencies = mKeys.remove(key);
+            if (frequencies == null) {
+                return;
+            }
+            for (final String term : frequencies.keySet()) {
+                final Map<String, Integer> keys = mTerms.get(term);
+                if (keys != null && keys.remove(key) != null && keys.isEmpty()) {
+                    mTerms.remove(term);
+                }
+            }
+        }
+
+        public void clear() {
+            mTerms.clear();
+            mKeys.clear();
+        }
+
+        /**
+         * Scores the keys matching every term, starting from the rarest
+         * exact term so that the candidates shrink as early as possible.
+         * The last term expands to every term it is a prefix of; with exact
+         * terms, each expansion costs no more than the candidates left.
+         */
+        public Map<String, Double> score(final List<String> terms) {
+            final List<Map<String, Integer>> exact = new ArrayList<Map<String, Integer>>();
+
+            for (int i = 0; i < terms.size() - 1; i++) {
+                final Map<String, Integer> keys = mTerms.get(terms.get(i));
+                if (keys == null) {
+                    return Collections.emptyMap();
+                }
+                exact.add(keys);
+            }
+
+            Collections.sort(exact, new Comparator<Map<String, Integer>>() {
+                @Override
+                public int compare(final Map<String, Integer> a, final Map<String, Integer> b) {
+                    return a.size() < b.size() ? -1 : (a.size() == b.size() ? 0 : 1);
+                }
+            });
+
+            Map<String, Double> scores = null;
+
+            for (final Map<String, Integer> keys : exact) {
+                scores = accumulate(scores, keys);
+                if (scores.isEmpty()) {
+                    return scores;
+                }
+            }
+
+            final String prefix = terms.get(terms.size() - 1);
+            final Map<String, Double> prefixScores = new HashMap<String, Double>();
+
+            for (final Map<String, Integer> keys : mTerms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                final double weight = weight(keys);
+
+                if (scores != null && scores.size() < keys.size()) {
+                    for (final String key : scores.keySet()) {
+                        final Integer frequency = keys.get(key);
+                        if (frequency != null) {
+                            addScore(prefixScores, key, frequency * weight);
+                        }
+                    }
+                } else {
+                    for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                        if (scores == null || scores.containsKey(entry.getKey())) {
+                            addScore(prefixScores, entry.getKey(), entry.getValue() * weight);
+                        }
+                    }
+                }
+            }
+
+            if (scores == null) {
+                return prefixScores;
+            }
+
+            final Map<String, Double> combined = new HashMap<String, Double>();
+            for (final Map.Entry<String, Double> entry : prefixScores.entrySet()) {
+                combined.put(entry.getKey(), entry.getValue() + scores.get(entry.getKey()));
+            }
+            return combined;
+        }
+
+        private Map<String, Double> accumulate(final Map<String, Double> scores, final Map<String, Integer> keys) {
+            final double weight = weight(keys);
+            final Map<String, Double> result = new HashMap<String, Double>();
+
+            if (scores == null) {
+                for (final Map.Entry<String, Integer> entry : keys.entrySet()) {
+                    result.put(entry.getKey(), entry.getValue() * weight);
+                }
+            } else {
+                for (final Map.Entry<String, Double> entry : scores.entrySet()) {
+                    final Integer frequency = keys.get(entry.getKey());
+                    if (frequency != null) {
+                        result.put(entry.getKey(), entry.getValue() + frequency * weight);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private static void addScore(final Map<String, Double> scores, final String key, final double score) {
+            final Double current = scores.get(key);
+            scores.put(key, current != null ? current + score : score);
+        }
+
+        private double weight(final Map<String, Integer> keys) {
+            return Math.log(1 + (double) mKeys.size() / keys.size());
+        }
+    }
+}
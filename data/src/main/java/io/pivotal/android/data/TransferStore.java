@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.content.Context;
+import android.text.TextUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Remembers how far a segmented upload or a download has got, per url, so
+ * that a transfer interrupted by a lost connection or a restarted process
+ * continues from the last acknowledged segment.
+ */
+public class TransferStore {
+
+    static final String TRANSFER_CACHE = "PCFData:Transfers";
+
+    public static final class Directions {
+        public static final String UPLOAD = "Upload";
+        public static final String DOWNLOAD = "Download";
+    }
+
+    public static class Transfer {
+
+        public long offset;
+
+        // the entity fingerprint for uploads, the server etag for downloads
+        public String tag;
+
+        public Transfer() {}
+
+        public Transfer(final long offset, final String tag) {
+            this.offset = offset;
+            this.tag = tag;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final DataPersistence mPersistence;
+
+    public TransferStore(final Context context) {
+        this(new DataPersistence(context, TRANSFER_CACHE));
+    }
+
+    public TransferStore(final DataPersistence persistence) {
+        mPersistence = persistence;
+    }
+
+    public Transfer get(final String direction, final String url) {
+        final String value = mPersistence.getString(getKey(direction, url));
+        if (TextUtils.isEmpty(value)) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(value, Transfer.class);
+        } catch (final Exception e) {
+            return null;
+        }
+    }
+
+    public void put(final String direction, final String url, final Transfer transfer) {
+        try {
+            mPersistence.putString(getKey(direction, url), MAPPER.writeValueAsString(transfer));
+        } catch (final Exception e) {
+            Logger.ex(e);
+        }
+    }
+
+    public void remove(final String direction, final String url) {
+        mPersistence.deleteString(getKey(direction, url));
+    }
+
+    private static String getKey(final String direction, final String url) {
+        return direction + " " + url;
+    }
+
+    /* package */ static String digest(final byte[] bytes) {
+        final MessageDigest digest = getDigest();
+        return toHex(digest.digest(bytes));
+    }
+
+    /* package */ static String digest(final InputStream inputStream) throws IOException {
+        final MessageDigest digest = getDigest();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+
+        try {
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest getDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(final byte[] hash) {
+        final StringBuilder builder = new StringBuilder(hash.length * 2);
+        for (final byte b : hash) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+            builder.append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
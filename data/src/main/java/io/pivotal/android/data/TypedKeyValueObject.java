@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import android.content.Context;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A {@link KeyValueObject} whose values are bound to objects through a
+ * {@link Codec}. Decoded objects are cached process-wide by identifier
+ * and raw value, so reading an unchanged value returns the instance that
+ * was decoded before instead of parsing it again. Cached instances are
+ * shared and should be treated as immutable.
+ */
+public class TypedKeyValueObject<T> {
+
+    public static final int CACHE_SIZE = 128;
+
+    private static final LruCache<String, Decoded> sCache = new LruCache<String, Decoded>(CACHE_SIZE);
+
+    public static <T> TypedKeyValueObject<T> create(final Context context, final String collection, final String key, final Codec<T> codec) {
+        return new TypedKeyValueObject<T>(KeyValueObject.create(context, collection, key), codec);
+    }
+
+    public static <T> TypedKeyValueObject<T> create(final Context context, final String collection, final String key, final Class<T> type) {
+        return create(context, collection, key, Codec.Json.of(type));
+    }
+
+    private final KeyValueObject mObject;
+    private final Codec<T> mCodec;
+
+    public TypedKeyValueObject(final KeyValueObject object, final Codec<T> codec) {
+        mObject = object;
+        mCodec = codec;
+    }
+
+    public KeyValueObject getKeyValueObject() {
+        return mObject;
+    }
+
+    public Response<T> get() {
+        return decode(mObject.get());
+    }
+
+    public DataFuture<T> get(final DataStore.Listener<T> listener) {
+        return execute(Request.Methods.GET, null, listener);
+    }
+
+    /**
+     * Encodes and writes the object. The instance is not cached: the next
+     * read decodes its own copy, so the caller may keep mutating it.
+     */
+    public Response<T> put(final T object) {
+        try {
+            final String value = encode(object);
+            final Response<KeyValue> response = mObject.put(value);
+
+            if (response.object != null && TextUtils.equals(value, response.object.value)) {
+                return new Response<T>(object, response.error);
+            } else {
+                return decode(response);
+            }
+        } catch (final Exception e) {
+            Logger.ex(e);
+            return new Response<T>(object, new DataError(e));
+        }
+    }
+
+    public DataFuture<T> put(final T object, final DataStore.Listener<T> listener) {
+        return execute(Request.Methods.PUT, object, listener);
+    }
+
+    public Response<T> delete() {
+        return decode(mObject.delete());
+    }
+
+    public DataFuture<T> delete(final DataStore.Listener<T> listener) {
+        return execute(Request.Methods.DELETE, null, listener);
+    }
+
+    /**
+     * Decodes a response for this key, e.g. one received by an observer,
+     * reusing the cached object when the value has not changed.
+     */
+    public Response<T> decode(final Response<KeyValue> response) {
+        if (response == null || response.object == null) {
+            return new Response<T>(null, response != null ? response.error : null);
+        }
+
+        try {
+            return new Response<T>(decode(response.object), response.error);
+        } catch (final Exception e) {
+            Logger.ex(e);
+            return new Response<T>(null, new DataError(e));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T decode(final KeyValue keyValue) throws Exception {
+        final String value = keyValue.value;
+
+        if (TextUtils.isEmpty(value)) {
+            return null;
+        }
+
+        final String identifier = keyValue.getIdentifier();
+        final Decoded cached = sCache.get(identifier);
+
+        if (cached != null && cached.codec == mCodec && value.equals(cached.value)) {
+            return (T) cached.object;
+        }
+
+        final T object = mCodec.decode(value);
+        remember(keyValue, object);
+        return object;
+    }
+
+    private void remember(final KeyValue keyValue, final T object) {
+        if (object != null && !TextUtils.isEmpty(keyValue.value)) {
+            sCache.put(keyValue.getIdentifier(), new Decoded(mCodec, keyValue.value, object));
+        }
+    }
+
+    private String encode(final T object) throws Exception {
+        return object != null ? mCodec.encode(object) : null;
+    }
+
+    private DataFuture<T> execute(final int method, final T object, final DataStore.Listener<T> listener) {
+        final Request<T> request = new Request<T>(method, object);
+        request.timeout = mObject.getTimeout();
+
+        final DataExecutors executors = DataExecutors.getInstance();
+        return executors.execute(executors.getNetworkExecutor(), new Callable<Response<T>>() {
+            @Override
+            public Response<T> call() throws Exception {
+                switch (method) {
+                    case Request.Methods.PUT:
+                        return put(object);
+                    case Request.Methods.DELETE:
+                        return delete();
+                    default:
+                        return get();
+                }
+            }
+        }, request, listener);
+    }
+
+    /* package */ static void clearCache() {
+        sCache.evictAll();
+    }
+
+    private static final class Decoded {
+
+        public final Codec<?> codec;
+        public final String value;
+        public final Object object;
+
+        public Decoded(final Codec<?> codec, final String value, final Object object) {
+            this.codec = codec;
+            this.value = value;
+            this.object = object;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2014 Pivotal Software, Inc. All rights reserved.
+ */
+package io.pivotal.android.data;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A request body encoded from a stored value while it is written, so that
+ * sending a large value needs a buffer rather than a byte[] copy of it.
+ * A byte range of the encoded value can be sent on its own, as one
+ * segment of an upload.
+ */
+/* package */ class ValueEntity extends AbstractHttpEntity {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final String mValue;
+    private final int mIndex;
+    private final long mPosition;
+    private final long mStart;
+    private final long mEnd;
+
+    public ValueEntity(final String value) {
+        this(value, 0, getLength(value));
+    }
+
+    public ValueEntity(final String value, final long start, final long end) {
+        this(value, 0, 0, start, end);
+    }
+
+    /**
+     * A range of the value that is encoded from the character at index,
+     * whose first byte is at position, rather than from the beginning.
+     */
+    private ValueEntity(final String value, final int index, final long position, final long start, final long end) {
+        mValue = value;
+        mIndex = index;
+        mPosition = position;
+        mStart = start;
+        mEnd = end;
+    }
+
+    /**
+     * Returns the number of bytes the value encodes to, counted from its
+     * characters without encoding it.
+     */
+    public static long getLength(final String value) {
+        long length = 0;
+        for (int i = 0; i < value.length(); i += getCharCount(value, i)) {
+            length += getByteCount(value, i);
+        }
+        return length;
+    }
+
+    // a surrogate pair encodes to four bytes, an unpaired surrogate to the '?' that replaces it
+    private static int getByteCount(final String value, final int index) {
+        final char c = value.charAt(index);
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        } else if (getCharCount(value, index) == 2) {
+            return 4;
+        } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            return 1;
+        } else {
+            return 3;
+        }
+    }
+
+    private static int getCharCount(final String value, final int index) {
+        final boolean isPair = Character.isHighSurrogate(value.charAt(index))
+                && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1));
+        return isPair ? 2 : 1;
+    }
+
+    /**
+     * Where each segment of a value's encoding starts within the value,
+     * measured in a single pass, so that a segment is encoded without
+     * encoding everything before it.
+     */
+    public static final class Segments {
+
+        private final String mValue;
+        private final int mSegmentSize;
+        private final List<Integer> mIndexes = new ArrayList<Integer>();
+        private final List<Long> mPositions = new ArrayList<Long>();
+        private final long mLength;
+
+        public Segments(final String value, final int segmentSize) {
+            mValue = value;
+            mSegmentSize = segmentSize;
+
+            long position = 0;
+            for (int i = 0; i < value.length(); i += getCharCount(value, i)) {
+                final int bytes = getByteCount(value, i);
+
+                // the character holding the first byte of the segment
+                while (position + bytes > (long) mIndexes.size() * segmentSize) {
+                    mIndexes.add(i);
+                    mPositions.add(position);
+                }
+                position += bytes;
+            }
+            mLength = position;
+
+            if (mIndexes.isEmpty()) {
+                mIndexes.add(0);
+                mPositions.add(0L);
+            }
+        }
+
+        public long getLength() {
+            return mLength;
+        }
+
+        public ValueEntity get(final long start, final long end) {
+            final int segment = (int) Math.min(start / mSegmentSize, mIndexes.size() - 1);
+            return new ValueEntity(mValue, mIndexes.get(segment), mPositions.get(segment), start, end);
+        }
+    }
+
+    @Override
+    public long getContentLength() {
+        return mEnd - mStart;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return new EncodingInputStream(mValue, mIndex, mPosition, mStart, mEnd);
+    }
+
+    @Override
+    public void writeTo(final OutputStream outputStream) throws IOException {
+        final InputStream inputStream = getContent();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+
+        while ((read = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, read);
+        }
+        outputStream.flush();
+    }
+
+    private static final class EncodingInputStream extends InputStream {
+
+        private final CharBuffer mSource;
+        private final CharsetEncoder mEncoder;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final long mEnd;
+
+        private long mPosition;
+        private boolean mEncoded;
+
+        public EncodingInputStream(final String value, final int index, final long position, final long start, final long end) {
+            // wrapping keeps a view of the value rather than a copy
+            mSource = CharBuffer.wrap(value, index, value.length());
+            mEncoder = UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            mPosition = position;
+            mEnd = end;
+            mBuffer.flip();
+
+            skip(start - position);
+        }
+
+        @Override
+        public int read() {
+            final byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (mPosition >= mEnd || !fill()) {
+                return -1;
+            }
+            final int count = (int) Math.min(Math.min(length, mBuffer.remaining()), mEnd - mPosition);
+            mBuffer.get(bytes, offset, count);
+            mPosition += count;
+            return count;
+        }
+
+        @Override
+        public long skip(final long count) {
+            long skipped = 0;
+            while (skipped < count && fill()) {
+                final int step = (int) Math.min(count - skipped, mBuffer.remaining());
+                mBuffer.position(mBuffer.position() + step);
+                mPosition += step;
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        private boolean fill() {
+            while (!mBuffer.hasRemaining() && !mEncoded) {
+                mBuffer.clear();
+
+                final CoderResult result = mEncoder.encode(mSource, mBuffer, true);
+                if (result.isUnderflow() && mEncoder.flush(mBuffer).isUnderflow()) {
+                    mEncoded = true;
+                }
+                mBuffer.flip();
+            }
+            return mBuffer.hasRemaining();
+        }
+    }
+}